@@ -22,6 +22,8 @@ package com.calclab.emite.browser.client;
 
 import static com.calclab.emite.core.client.xmpp.stanzas.XmppURI.uri;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 import com.calclab.emite.core.client.bosh.StreamSettings;
@@ -50,7 +52,8 @@ public class PageAssist {
 	static final String PARAM_HOST = "emite.host";
 
 	/**
-	 * Meta key to store the httpBase parameter in bosh configuration
+	 * Meta key to store the httpBase parameter in bosh configuration (a comma
+	 * separated list for several connection managers)
 	 */
 	static final String PARAM_HTTPBASE = "emite.httpBase";
 
@@ -129,7 +132,7 @@ public class PageAssist {
 
 		if (host != null && httpBase != null) {
 			logger.info("CONNECTION PARAMS: " + httpBase + ", " + host);
-			connection.setSettings(new ConnectionSettings(httpBase, host, wait, hold, routeHost, routePort, secure));
+			connection.setSettings(new ConnectionSettings(getEndpoints(httpBase), host, wait, hold, routeHost, routePort, secure));
 			
 			if(connection instanceof XmppBoshConnection) {
 				XmppBoshConnection boshConnection = (XmppBoshConnection) connection;
@@ -179,6 +182,26 @@ public class PageAssist {
 		return value;
 	}
 
+	/**
+	 * Split a comma separated list of connection manager urls
+	 * 
+	 * @param httpBase
+	 *            the value of the httpBase meta
+	 * @return the endpoints
+	 */
+	static List<String> getEndpoints(final String httpBase) {
+		final ArrayList<String> endpoints = new ArrayList<String>();
+		for (final String endpoint : httpBase.split(",")) {
+			if (endpoint.trim().length() > 0) {
+				endpoints.add(endpoint.trim());
+			}
+		}
+		if (endpoints.isEmpty()) {
+			endpoints.add(httpBase);
+		}
+		return endpoints;
+	}
+
 	public static boolean isMetaFalse(final String id) {
 		return "false".equals(getMeta(id));
 	}
@@ -287,6 +310,9 @@ public class PageAssist {
 		map.put("wait", String.valueOf(stream.getWait()));
 		map.put("inactivity", stream.getInactivityString());
 		map.put("maxPause", stream.getMaxPauseString());
+		if (stream.endpoint != null) {
+			map.put("endpoint", stream.endpoint);
+		}
 		map.put("user", user);
 
 		final String serialized = map.serialize();
@@ -318,6 +344,7 @@ public class PageAssist {
 		stream.setWait(map.get("wait"));
 		stream.setInactivity(map.get("inactivity"));
 		stream.setMaxPause(map.get("maxPause"));
+		stream.endpoint = map.get("endpoint");
 		final XmppURI user = uri(map.get("user"));
 		session.resume(user, stream);
 		return true;
@@ -57,8 +57,8 @@ public class CoreModule extends AbstractGinModule {
 
 	@Override
 	protected void configure() {
-		bind(Services.class).to(GWTServices.class).in(Singleton.class);
-		bind(XmppConnection.class).to(XmppBoshConnection.class).in(Singleton.class);
+		bindServices();
+		bindConnection();
 		bind(XmppSession.class).to(XmppSessionLogic.class).in(Singleton.class);
 		bind(IMSessionManager.class).in(Singleton.class);
 		bind(SASLManager.class).in(Singleton.class);
@@ -66,6 +66,22 @@ public class CoreModule extends AbstractGinModule {
 		bind(SessionComponentsRegistry.class).in(Singleton.class);
 	}
 
+	/**
+	 * Binds the Services implementation. Override it to run outside the
+	 * browser (see JVMModule)
+	 */
+	protected void bindServices() {
+		bind(Services.class).to(GWTServices.class).in(Singleton.class);
+	}
+
+	/**
+	 * Binds the XmppConnection transport. Override it to use another
+	 * transport (see WebSocketModule)
+	 */
+	protected void bindConnection() {
+		bind(XmppConnection.class).to(XmppBoshConnection.class).in(Singleton.class);
+	}
+
 	@Provides
 	@Singleton
 	EmiteEventBus provideEmiteEventBus() {
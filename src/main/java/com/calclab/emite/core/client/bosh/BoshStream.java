@@ -0,0 +1,247 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.calclab.emite.core.client.conn.StanzaSentEvent;
+import com.calclab.emite.core.client.conn.XmppConnectionBoilerPlate;
+import com.calclab.emite.core.client.events.EmiteEventBus;
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.Packet;
+import com.calclab.emite.core.client.packet.PacketRenderer;
+
+/**
+ * An additional XMPP stream multiplexed over the BOSH session of a
+ * {@link XmppBoshConnection}. Every stream has its own event bus (so it can be
+ * used as the connection of its own session) but all of them share the sid,
+ * the RIDs and the HTTP requests of the BOSH session.
+ * 
+ * @see http://xmpp.org/extensions/xep-0124.html#multi
+ * @see XmppBoshConnection#createStream(EmiteEventBus)
+ */
+public class BoshStream extends XmppConnectionBoilerPlate {
+
+	private static final Logger logger = Logger.getLogger(BoshStream.class.getName());
+
+	private final XmppBoshConnection connection;
+	private final OutboundLanes lanes;
+
+	/**
+	 * The stream name assigned by the connection manager (null while the
+	 * stream is not open)
+	 */
+	private String name;
+	private boolean openRequested;
+	private boolean restartRequested;
+	private boolean terminateRequested;
+
+	BoshStream(final XmppBoshConnection connection, final EmiteEventBus eventBus) {
+		super(eventBus);
+		this.connection = connection;
+		lanes = new OutboundLanes();
+	}
+
+	@Override
+	public void connect() {
+		if (!isActive()) {
+			setActive(true);
+			name = null;
+			openRequested = true;
+			restartRequested = false;
+			terminateRequested = false;
+			lanes.clear();
+			connection.streamReady(this);
+		}
+	}
+
+	@Override
+	public void disconnect() {
+		if (isActive()) {
+			setActive(false);
+			lanes.clear();
+			openRequested = false;
+			restartRequested = false;
+			terminateRequested = name != null;
+			if (terminateRequested) {
+				connection.streamReady(this);
+			}
+			fireDisconnected("logged out");
+		}
+	}
+
+	/**
+	 * @return the stream name assigned by the connection manager (null if the
+	 *         stream is not open)
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public StreamSettings getStreamSettings() {
+		return connection.getStreamSettings();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return isActive() && name != null;
+	}
+
+	/**
+	 * The BOSH session can only be paused as a whole, through the connection
+	 * that owns it
+	 */
+	@Override
+	public StreamSettings pause() {
+		return null;
+	}
+
+	@Override
+	public void restartStream() {
+		restartRequested = true;
+		connection.streamReady(this);
+	}
+
+	/**
+	 * The BOSH session can only be resumed as a whole, through the connection
+	 * that owns it
+	 */
+	@Override
+	public boolean resume(final StreamSettings settings) {
+		return false;
+	}
+
+	@Override
+	public void send(final IPacket packet) {
+		lanes.add(packet, 0);
+		connection.streamReady(this);
+		eventBus.fireEvent(new StanzaSentEvent(packet));
+	}
+
+	@Override
+	public String toString() {
+		return "Bosh stream " + name + " in " + (isActive() ? "active" : "inactive");
+	}
+
+	/**
+	 * Fill the (empty) body with the attributes and stanzas of this stream.
+	 * The stanzas are only sent once the stream is open
+	 * 
+	 * @param body
+	 *            the next body of the BOSH session
+	 * @param hostName
+	 *            the host of the session (used if this stream has no
+	 *            settings of its own)
+	 * @return true if the body requests a new stream
+	 */
+	boolean fillBody(final Packet body, final String hostName) {
+		final String to = getConnectionSettings() != null ? getConnectionSettings().hostName : hostName;
+		if (name == null) {
+			openRequested = false;
+			body.setAttribute("to", to);
+			body.setAttribute("xml:lang", "en");
+			body.setAttribute("xmlns:xmpp", "urn:xmpp:xbosh");
+			body.setAttribute("xmpp:version", "1.0");
+			return true;
+		}
+		body.setAttribute("stream", name);
+		if (terminateRequested) {
+			terminateRequested = false;
+			body.setAttribute("type", "terminate");
+			name = null;
+			return false;
+		}
+		if (restartRequested) {
+			restartRequested = false;
+			body.setAttribute("xmlns:xmpp", "urn:xmpp:xbosh");
+			body.setAttribute("xmpp:restart", "true");
+			body.setAttribute("to", to);
+			body.setAttribute("xml:lang", "en");
+		}
+		lanes.drainInto(body);
+		return false;
+	}
+
+	/**
+	 * @return true if the stream has something to send in the next body
+	 */
+	boolean hasPending() {
+		if (name == null) {
+			return openRequested;
+		}
+		return terminateRequested || restartRequested || !lanes.isEmpty();
+	}
+
+	/**
+	 * The connection manager answered the request that opened this stream
+	 * 
+	 * @param name
+	 *            the stream name (null if the stream was refused)
+	 */
+	void onOpened(final String name) {
+		if (!isActive()) {
+			return;
+		}
+		if (name == null) {
+			closed("Stream refused by the connection manager");
+		} else {
+			this.name = name;
+			fireConnected();
+		}
+	}
+
+	/**
+	 * The stream (or the whole BOSH session) is gone
+	 * 
+	 * @param reason
+	 *            why the stream was closed
+	 */
+	void closed(final String reason) {
+		name = null;
+		openRequested = false;
+		restartRequested = false;
+		terminateRequested = false;
+		lanes.clear();
+		if (isActive()) {
+			setActive(false);
+			fireDisconnected(reason);
+		}
+	}
+
+	/**
+	 * Dispatch the stanzas of a response addressed to this stream
+	 * 
+	 * @param stanzas
+	 *            the stanzas of this stream
+	 */
+	void handleStanzas(final List<? extends IPacket> stanzas) {
+		for (final IPacket stanza : stanzas) {
+			try {
+				fireStanzaReceived(stanza);
+			} catch (final Exception e) {
+				logger.log(Level.WARNING, "Error occurred while processing received stanza: " + PacketRenderer.toString(stanza), e);
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+/**
+ * A circuit breaker for the requests to the connection manager.
+ * 
+ * After failureThreshold consecutive failures the circuit opens: the
+ * retransmissions are suspended. When the retry delay expires the circuit is
+ * half open and a single probe request is sent. If the probe succeeds the
+ * circuit closes (and the pending requests are retransmitted), if it fails
+ * the circuit opens again.
+ */
+public class CircuitBreaker {
+
+	public static enum State {
+		closed, open, halfOpen
+	}
+
+	private final int failureThreshold;
+	private State state;
+	private int failures;
+
+	/**
+	 * @param failureThreshold
+	 *            the consecutive failures that open the circuit. Zero disables
+	 *            the breaker
+	 */
+	public CircuitBreaker(final int failureThreshold) {
+		this.failureThreshold = failureThreshold;
+		state = State.closed;
+	}
+
+	/**
+	 * @return the number of consecutive failures
+	 */
+	public int getFailures() {
+		return failures;
+	}
+
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Let a single probe request through
+	 */
+	public void halfOpen() {
+		if (state == State.open) {
+			state = State.halfOpen;
+		}
+	}
+
+	public boolean isClosed() {
+		return state == State.closed;
+	}
+
+	public boolean isHalfOpen() {
+		return state == State.halfOpen;
+	}
+
+	public boolean isOpen() {
+		return state == State.open;
+	}
+
+	/**
+	 * Record a failed request
+	 * 
+	 * @return true if the circuit has been opened by this failure
+	 */
+	public boolean recordFailure() {
+		failures++;
+		if (state == State.halfOpen || state == State.closed && failureThreshold > 0 && failures >= failureThreshold) {
+			state = State.open;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Record a successful request: closes the circuit
+	 */
+	public void recordSuccess() {
+		failures = 0;
+		state = State.closed;
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.PacketMatcher;
+
+/**
+ * Decides when the stanzas queued in the current BOSH body should be flushed.
+ * 
+ * With a window of zero milliseconds (the default) every stanza is sent as
+ * soon as possible. With a positive window the stanzas sent during the window
+ * are merged into a single body, unless the stanza or byte limits are reached
+ * or a stanza matches the immediate flush matcher.
+ * 
+ * It also keeps count of how many stanzas are merged in every body sent.
+ */
+public class CoalescingWindow {
+	private int windowMillis;
+	private int maxStanzas;
+	private int maxBytes;
+	private PacketMatcher immediateFlush;
+
+	private int pendingStanzas;
+	private int pendingBytes;
+	private boolean scheduled;
+
+	private int sentBodies;
+	private int sentStanzas;
+	private int lastMerged;
+	private int maxMerged;
+
+	public CoalescingWindow() {
+		this(0, 0, 0);
+	}
+
+	/**
+	 * @param windowMillis
+	 *            the time (in milliseconds) stanzas are collected before being
+	 *            sent. Zero disables the coalescing
+	 * @param maxStanzas
+	 *            the number of stanzas that flushes the body before the window
+	 *            ends. Zero means no limit
+	 * @param maxBytes
+	 *            the number of (rendered) characters that flushes the body
+	 *            before the window ends. Zero means no limit
+	 */
+	public CoalescingWindow(final int windowMillis, final int maxStanzas, final int maxBytes) {
+		this.windowMillis = windowMillis;
+		this.maxStanzas = maxStanzas;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Record a new queued stanza
+	 * 
+	 * @param stanza
+	 *            the stanza added to the current body
+	 * @param renderedLength
+	 *            the length of the rendered stanza (only used if there's a
+	 *            byte limit)
+	 * @return true if the body should be flushed now
+	 */
+	public boolean add(final IPacket stanza, final int renderedLength) {
+		pendingStanzas++;
+		pendingBytes += renderedLength;
+		return windowMillis <= 0 || maxStanzas > 0 && pendingStanzas >= maxStanzas || maxBytes > 0 && pendingBytes >= maxBytes
+				|| immediateFlush != null && immediateFlush.matches(stanza);
+	}
+
+	/**
+	 * Record a sent body
+	 * 
+	 * @param stanzas
+	 *            the number of stanzas in the body
+	 */
+	public void bodySent(final int stanzas) {
+		pendingStanzas = 0;
+		pendingBytes = 0;
+		if (stanzas > 0) {
+			sentBodies++;
+			sentStanzas += stanzas;
+			lastMerged = stanzas;
+			maxMerged = Math.max(maxMerged, stanzas);
+		}
+	}
+
+	/**
+	 * @return the average number of stanzas per (non empty) body
+	 */
+	public double getAverageMerged() {
+		return sentBodies == 0 ? 0 : (double) sentStanzas / sentBodies;
+	}
+
+	/**
+	 * @return the number of stanzas merged in the last non empty body sent
+	 */
+	public int getLastMerged() {
+		return lastMerged;
+	}
+
+	public int getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return the biggest number of stanzas merged in a single body
+	 */
+	public int getMaxMerged() {
+		return maxMerged;
+	}
+
+	public int getMaxStanzas() {
+		return maxStanzas;
+	}
+
+	/**
+	 * @return the number of non empty bodies sent
+	 */
+	public int getSentBodies() {
+		return sentBodies;
+	}
+
+	/**
+	 * @return the number of stanzas sent
+	 */
+	public int getSentStanzas() {
+		return sentStanzas;
+	}
+
+	public int getWindowMillis() {
+		return windowMillis;
+	}
+
+	public boolean isScheduled() {
+		return scheduled;
+	}
+
+	/**
+	 * Stanzas that match this matcher (for example chat messages) flush the
+	 * body as soon as they are queued
+	 * 
+	 * @param immediateFlush
+	 *            the matcher or null to wait always until the window ends
+	 */
+	public void setImmediateFlush(final PacketMatcher immediateFlush) {
+		this.immediateFlush = immediateFlush;
+	}
+
+	public void setMaxBytes(final int maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public void setMaxStanzas(final int maxStanzas) {
+		this.maxStanzas = maxStanzas;
+	}
+
+	public void setScheduled(final boolean scheduled) {
+		this.scheduled = scheduled;
+	}
+
+	public void setWindowMillis(final int windowMillis) {
+		this.windowMillis = windowMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "CoalescingWindow " + windowMillis + "ms bodies=" + sentBodies + " stanzas=" + sentStanzas + " last=" + lastMerged + " max=" + maxMerged;
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+/**
+ * Exponential backoff with decorrelated jitter: every delay is a random value
+ * between the base delay and three times the previous delay, capped. Clients
+ * that failed at the same time quickly spread their retries instead of
+ * retrying in lock-step.
+ * 
+ * @see http://www.awsarchitectureblog.com/2015/03/backoff.html
+ */
+public class DecorrelatedJitterPolicy implements RetryPolicy {
+
+	private final int baseMillis;
+	private final int capMillis;
+
+	/**
+	 * @param baseMillis
+	 *            the minimum delay
+	 * @param capMillis
+	 *            the maximum delay
+	 */
+	public DecorrelatedJitterPolicy(final int baseMillis, final int capMillis) {
+		this.baseMillis = baseMillis;
+		this.capMillis = capMillis;
+	}
+
+	public int getBaseMillis() {
+		return baseMillis;
+	}
+
+	public int getCapMillis() {
+		return capMillis;
+	}
+
+	@Override
+	public int getRetryDelay(final int attempt, final int previousDelay) {
+		final int previous = previousDelay > 0 ? previousDelay : baseMillis;
+		final double upper = Math.max(baseMillis, 3.0 * previous);
+		final double delay = baseMillis + random() * (upper - baseMillis);
+		return (int) Math.min(capMillis, delay);
+	}
+
+	/**
+	 * @return a random number between 0 (inclusive) and 1 (exclusive)
+	 */
+	protected double random() {
+		return Math.random();
+	}
+}
@@ -0,0 +1,308 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.calclab.emite.core.client.services.ConnectorCallback;
+import com.calclab.emite.core.client.services.ScheduledAction;
+import com.calclab.emite.core.client.services.Services;
+import com.calclab.emite.core.client.services.TimerHandle;
+
+/**
+ * Chooses the connection manager (among several equivalent ones) a new BOSH
+ * session is created in. The endpoints are probed in parallel with a
+ * lightweight request, and the choice is made a short grace window after the
+ * first healthy answer (or when all of them have answered): the healthy one
+ * with the lowest latency is chosen, so a dead endpoint doesn't delay the
+ * connection until its probe times out. The health of every endpoint is kept
+ * in memory, so the next sessions go straight to the best one without probing
+ * again.
+ */
+public class EndpointSelector {
+
+	/**
+	 * Receives the endpoint chosen after probing
+	 */
+	public static interface SelectionCallback {
+		void onSelected(String endpoint);
+	}
+
+	/**
+	 * The known health of an endpoint
+	 */
+	static class Health {
+		/**
+		 * The smoothed latency in milliseconds (-1 if unknown)
+		 */
+		int latency;
+		int failures;
+		long lastFailureTime;
+
+		Health() {
+			latency = -1;
+		}
+	}
+
+	/**
+	 * The milliseconds an unanswered probe waits before the endpoint is
+	 * considered down
+	 */
+	public static final int DEFAULT_PROBE_TIMEOUT_MILLIS = 5000;
+
+	/**
+	 * The milliseconds the other probes are waited for after the first
+	 * healthy answer
+	 */
+	public static final int DEFAULT_SELECTION_GRACE_MILLIS = 100;
+
+	/**
+	 * The milliseconds a failed endpoint is avoided before it's probed again
+	 */
+	public static final int DEFAULT_FAILURE_EXPIRY_MILLIS = 300000;
+
+	/**
+	 * A body without session: the connection manager answers it right away
+	 * (usually with a 'bad-request' terminate) without creating a session
+	 */
+	private static final String PROBE = "<body xmlns='http://jabber.org/protocol/httpbind' />";
+
+	private static final Logger logger = Logger.getLogger(EndpointSelector.class.getName());
+
+	private final Services services;
+	private final HashMap<String, Health> health;
+	private int probeTimeoutMillis;
+	private int failureExpiryMillis;
+	private int selectionGraceMillis;
+
+	public EndpointSelector(final Services services) {
+		this.services = services;
+		health = new HashMap<String, Health>();
+		probeTimeoutMillis = DEFAULT_PROBE_TIMEOUT_MILLIS;
+		failureExpiryMillis = DEFAULT_FAILURE_EXPIRY_MILLIS;
+		selectionGraceMillis = DEFAULT_SELECTION_GRACE_MILLIS;
+	}
+
+	/**
+	 * @return the number of consecutive failures of the endpoint (the expired
+	 *         ones are not counted)
+	 */
+	public int getFailures(final String endpoint) {
+		final Health known = health.get(endpoint);
+		return known == null || isExpired(known) ? 0 : known.failures;
+	}
+
+	/**
+	 * @return the smoothed latency of the endpoint in milliseconds (-1 if
+	 *         unknown)
+	 */
+	public int getLatency(final String endpoint) {
+		final Health known = health.get(endpoint);
+		return known == null ? -1 : known.latency;
+	}
+
+	/**
+	 * There is nothing to choose with a single endpoint, and nothing to probe
+	 * if all the endpoints are known
+	 * 
+	 * @return true if any of the endpoints should be probed before choosing
+	 */
+	public boolean needsProbe(final List<String> endpoints) {
+		if (endpoints.size() < 2) {
+			return false;
+		}
+		for (final String endpoint : endpoints) {
+			final Health known = health.get(endpoint);
+			if (known == null || known.latency == -1 && known.failures == 0 || known.failures > 0 && isExpired(known)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Probe all the endpoints (in parallel) and choose one the grace window
+	 * after the first healthy answer, or when all of them have answered or
+	 * failed. The probes still running when the endpoint is chosen are
+	 * abandoned: their answers only update the health of their endpoints
+	 * 
+	 * @param endpoints
+	 *            the endpoints to probe
+	 * @param callback
+	 *            receives the chosen endpoint
+	 */
+	public void probe(final List<String> endpoints, final SelectionCallback callback) {
+		final int[] pending = new int[] { endpoints.size() };
+		final boolean[] selected = new boolean[1];
+		final TimerHandle[] grace = new TimerHandle[1];
+		final ScheduledAction selectAction = new ScheduledAction() {
+			@Override
+			public void run() {
+				grace[0] = null;
+				if (!selected[0]) {
+					selected[0] = true;
+					callback.onSelected(select(endpoints));
+				}
+			}
+		};
+		for (final String endpoint : endpoints) {
+			final long start = services.getCurrentTime();
+			final ConnectorCallback listener = new ConnectorCallback() {
+				private boolean done;
+
+				@Override
+				public void onError(final String request, final Throwable throwable) {
+					if (!done) {
+						done = true;
+						logger.info("Endpoint " + endpoint + " probe failed: " + throwable);
+						recordFailure(endpoint);
+						probed(false);
+					}
+				}
+
+				@Override
+				public void onResponseReceived(final int statusCode, final String content, final String originalRequest) {
+					if (!done) {
+						done = true;
+						// Any HTTP answer (even an error one) proves the endpoint is up
+						final boolean healthy = statusCode != 0;
+						if (healthy) {
+							recordLatency(endpoint, (int) (services.getCurrentTime() - start));
+						} else {
+							recordFailure(endpoint);
+						}
+						probed(healthy);
+					}
+				}
+
+				private void probed(final boolean healthy) {
+					pending[0]--;
+					if (selected[0]) {
+						return;
+					} else if (pending[0] == 0 || healthy && selectionGraceMillis <= 0) {
+						if (grace[0] != null) {
+							grace[0].cancel();
+						}
+						selectAction.run();
+					} else if (healthy && grace[0] == null) {
+						grace[0] = services.schedule(selectionGraceMillis, selectAction);
+					}
+				}
+			};
+			try {
+				services.send(endpoint, PROBE, listener, probeTimeoutMillis);
+			} catch (final Exception e) {
+				listener.onError(PROBE, e);
+			}
+		}
+	}
+
+	/**
+	 * The endpoint failed (a probe or repeated requests)
+	 */
+	public void recordFailure(final String endpoint) {
+		final Health known = getHealth(endpoint);
+		known.failures = isExpired(known) ? 1 : known.failures + 1;
+		known.lastFailureTime = services.getCurrentTime();
+	}
+
+	/**
+	 * The endpoint answered a request in the given milliseconds: it's healthy
+	 * and its latency is updated (exponentially smoothed)
+	 */
+	public void recordLatency(final String endpoint, final int millis) {
+		final Health known = getHealth(endpoint);
+		known.failures = 0;
+		known.latency = known.latency == -1 ? millis : (known.latency * 7 + millis * 3) / 10;
+	}
+
+	/**
+	 * Choose the endpoint with less (recent) failures and, between those,
+	 * the one with the lowest known latency. Ties are broken by the order of
+	 * the list
+	 * 
+	 * @param endpoints
+	 *            the candidates, by preference
+	 * @return the chosen endpoint
+	 */
+	public String select(final List<String> endpoints) {
+		String best = null;
+		int bestFailures = 0;
+		int bestLatency = 0;
+		for (final String endpoint : endpoints) {
+			final int failures = getFailures(endpoint);
+			final int latency = getLatency(endpoint);
+			if (best == null || failures < bestFailures || failures == bestFailures && isFaster(latency, bestLatency)) {
+				best = endpoint;
+				bestFailures = failures;
+				bestLatency = latency;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @param failureExpiryMillis
+	 *            the milliseconds a failed endpoint is avoided
+	 */
+	public void setFailureExpiry(final int failureExpiryMillis) {
+		this.failureExpiryMillis = failureExpiryMillis;
+	}
+
+	/**
+	 * @param selectionGraceMillis
+	 *            the milliseconds the other probes are waited for after the
+	 *            first healthy answer (0 to choose with the first one)
+	 */
+	public void setSelectionGrace(final int selectionGraceMillis) {
+		this.selectionGraceMillis = selectionGraceMillis;
+	}
+
+	/**
+	 * @param probeTimeoutMillis
+	 *            the milliseconds a probe waits for its answer
+	 */
+	public void setProbeTimeout(final int probeTimeoutMillis) {
+		this.probeTimeoutMillis = probeTimeoutMillis;
+	}
+
+	private Health getHealth(final String endpoint) {
+		Health known = health.get(endpoint);
+		if (known == null) {
+			known = new Health();
+			health.put(endpoint, known);
+		}
+		return known;
+	}
+
+	private boolean isExpired(final Health known) {
+		return known.failures > 0 && services.getCurrentTime() - known.lastFailureTime > failureExpiryMillis;
+	}
+
+	/**
+	 * A known latency is better than an unknown one
+	 */
+	private static boolean isFaster(final int latency, final int other) {
+		return latency != -1 && (other == -1 || latency < other);
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+import java.util.ArrayList;
+
+import com.calclab.emite.core.client.packet.IPacket;
+
+/**
+ * The outbound stanzas waiting for a BOSH body, classified in lanes
+ * (interactive: messages, including chat state notifications; presence; and
+ * bulk: IQs like roster updates or vCard uploads).
+ * 
+ * Without a byte budget the stanzas are moved to the body in the order they
+ * were sent: XMPP requires the server to process the stanzas of a client in
+ * order (RFC 6120, section 10.1). With a byte budget, a bulk stanza that
+ * doesn't fit in the body waits for the next request, so a big background
+ * sync doesn't delay what the user is typing: only the messages (the
+ * interactive lane) can go ahead of it, because they never depend on an IQ.
+ * The presences (that can depend on a roster IQ, like subscriptions) and the
+ * IQs sent after it wait too, and once a presence waits every stanza sent
+ * after it waits as well. A body never goes empty: a stanza bigger than the
+ * budget is sent alone.
+ */
+public class OutboundLanes {
+
+	public static enum Lane {
+		interactive, presence, bulk
+	}
+
+	private static class Queued {
+		final IPacket stanza;
+		final Lane lane;
+		final int length;
+
+		Queued(final IPacket stanza, final Lane lane, final int length) {
+			this.stanza = stanza;
+			this.lane = lane;
+			this.length = length;
+		}
+	}
+
+	private final ArrayList<Queued> queue;
+	private final int[] laneSizes;
+	private int byteBudget;
+
+	public OutboundLanes() {
+		queue = new ArrayList<Queued>();
+		laneSizes = new int[Lane.values().length];
+	}
+
+	/**
+	 * Classify the stanza in its lane
+	 * 
+	 * @param stanza
+	 *            the stanza
+	 * @return the lane of the stanza
+	 */
+	public static Lane classify(final IPacket stanza) {
+		final String name = stanza.getName();
+		if ("message".equals(name)) {
+			return Lane.interactive;
+		} else if ("presence".equals(name)) {
+			return Lane.presence;
+		}
+		return Lane.bulk;
+	}
+
+	/**
+	 * Queue a stanza
+	 * 
+	 * @param stanza
+	 *            the stanza
+	 * @param renderedLength
+	 *            the length of the rendered stanza (only used if there's a byte
+	 *            budget)
+	 */
+	public void add(final IPacket stanza, final int renderedLength) {
+		final Lane lane = classify(stanza);
+		queue.add(new Queued(stanza, lane, renderedLength));
+		laneSizes[lane.ordinal()]++;
+	}
+
+	public void clear() {
+		queue.clear();
+		for (int index = 0; index < laneSizes.length; index++) {
+			laneSizes[index] = 0;
+		}
+	}
+
+	/**
+	 * Move the queued stanzas to the body in order. With a byte budget, the
+	 * bulk stanza that doesn't fit stays queued with every stanza after it but
+	 * the messages (until a presence stays queued too). At least one stanza is
+	 * moved if the queue is not empty.
+	 * 
+	 * @param body
+	 *            the body packet
+	 * @return the number of stanzas moved
+	 */
+	public int drainInto(final IPacket body) {
+		if (byteBudget <= 0) {
+			final int moved = queue.size();
+			for (final Queued next : queue) {
+				body.addChild(next.stanza);
+			}
+			clear();
+			return moved;
+		}
+
+		int moved = 0;
+		int bytes = 0;
+		// an IQ waits: only the messages go ahead of it
+		boolean deferBulk = false;
+		// a presence waits too: nothing goes ahead of it
+		boolean deferAll = false;
+		final ArrayList<Queued> deferred = new ArrayList<Queued>();
+		for (final Queued next : queue) {
+			if (deferAll || deferBulk && next.lane != Lane.interactive || next.lane == Lane.bulk && bytes + next.length > byteBudget) {
+				deferBulk = true;
+				deferAll = deferAll || next.lane == Lane.presence;
+				deferred.add(next);
+			} else {
+				move(next, body);
+				bytes += next.length;
+				moved++;
+			}
+		}
+		queue.clear();
+		queue.addAll(deferred);
+		if (moved == 0 && !queue.isEmpty()) {
+			move(queue.remove(0), body);
+			moved++;
+		}
+		return moved;
+	}
+
+	/**
+	 * @return the maximum number of (rendered) characters of stanzas in a
+	 *         single body. Zero means no limit
+	 */
+	public int getByteBudget() {
+		return byteBudget;
+	}
+
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	public void setByteBudget(final int byteBudget) {
+		this.byteBudget = byteBudget;
+	}
+
+	/**
+	 * @return the number of queued stanzas
+	 */
+	public int size() {
+		return queue.size();
+	}
+
+	/**
+	 * @param lane
+	 *            the lane
+	 * @return the number of stanzas queued in the lane
+	 */
+	public int size(final Lane lane) {
+		return laneSizes[lane.ordinal()];
+	}
+
+	private void move(final Queued next, final IPacket body) {
+		body.addChild(next.stanza);
+		laneSizes[next.lane.ordinal()]--;
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Keeps track of the BOSH requests that have been sent but not yet answered,
+ * indexed by their RID.
+ * 
+ * Each entry keeps the serialized request and the time it was (last) sent, so
+ * a single request can be retransmitted with the same RID when it errors or
+ * when the connection manager reports it as missing, without blocking the rest
+ * of the requests.
+ * 
+ * @see http://xmpp.org/extensions/xep-0124.html#ack
+ */
+public class RequestLedger {
+
+	/**
+	 * A request that has been sent to the connection manager and still has no
+	 * response
+	 */
+	public static class Entry {
+		private final long rid;
+		private final String request;
+		private long sentTime;
+		private long sendOrder;
+		private int attempts;
+		private int stanzas;
+		private boolean errored;
+		private boolean acknowledged;
+
+		Entry(final long rid, final String request) {
+			this.rid = rid;
+			this.request = request;
+		}
+
+		public int getAttempts() {
+			return attempts;
+		}
+
+		public String getRequest() {
+			return request;
+		}
+
+		public long getRid() {
+			return rid;
+		}
+
+		public long getSentTime() {
+			return sentTime;
+		}
+
+		/**
+		 * @return the number of stanzas in the request
+		 */
+		public int getStanzas() {
+			return stanzas;
+		}
+
+		/**
+		 * @return true if the connection manager has acknowledged the
+		 *         reception of this request
+		 */
+		public boolean isAcknowledged() {
+			return acknowledged;
+		}
+
+		public boolean isErrored() {
+			return errored;
+		}
+
+		void markSent(final long time, final long order) {
+			sentTime = time;
+			sendOrder = order;
+			attempts++;
+		}
+
+		void setErrored(final boolean errored) {
+			this.errored = errored;
+		}
+
+		void setStanzas(final int stanzas) {
+			this.stanzas = stanzas;
+		}
+
+		@Override
+		public String toString() {
+			return "rid=" + rid + " attempts=" + attempts + (errored ? " errored" : "") + (acknowledged ? " acknowledged" : "");
+		}
+	}
+
+	/**
+	 * Entries are always added with increasing RIDs, so the insertion order is
+	 * the RID order
+	 */
+	private final LinkedHashMap<Long, Entry> entries;
+	private boolean acknowledging;
+	private long sendCount;
+
+	public RequestLedger() {
+		entries = new LinkedHashMap<Long, Entry>();
+		acknowledging = false;
+	}
+
+	/**
+	 * Process the acknowledgement attributes of a response. Every pending
+	 * request up to the acknowledged RID is marked as received by the
+	 * connection manager; the requests above the acknowledged RID that were
+	 * sent before the answered one never reached the connection manager.
+	 * 
+	 * @param ack
+	 *            the highest RID received in sequence by the connection manager
+	 * @param answered
+	 *            the entry of the request the response belongs to
+	 * @return the entries that should be retransmitted
+	 */
+	public List<Entry> acknowledge(final long ack, final Entry answered) {
+		final List<Entry> missing = new ArrayList<Entry>();
+		for (final Entry entry : entries.values()) {
+			if (entry.rid <= ack) {
+				entry.acknowledged = true;
+			} else if (entry.sendOrder < answered.sendOrder && !entry.errored) {
+				missing.add(entry);
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * Add a new request to the ledger
+	 * 
+	 * @param rid
+	 *            the request RID
+	 * @param request
+	 *            the serialized request body
+	 * @return the new entry
+	 */
+	public Entry add(final long rid, final String request) {
+		final Entry entry = new Entry(rid, request);
+		entries.put(rid, entry);
+		return entry;
+	}
+
+	public void clear() {
+		entries.clear();
+		acknowledging = false;
+	}
+
+	public void clearErrors() {
+		for (final Entry entry : entries.values()) {
+			entry.errored = false;
+		}
+	}
+
+	/**
+	 * Find the entry of a serialized request. The connectors return the same
+	 * string instance they were given, so the identity check normally avoids
+	 * any string comparison
+	 * 
+	 * @param request
+	 *            the serialized request
+	 * @return the entry, or null if the request is not pending anymore
+	 */
+	public Entry find(final String request) {
+		for (final Entry entry : entries.values()) {
+			if (entry.request == request) {
+				return entry;
+			}
+		}
+		for (final Entry entry : entries.values()) {
+			if (entry.request.equals(request)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	public Entry get(final long rid) {
+		return entries.get(rid);
+	}
+
+	/**
+	 * The value of the 'ack' attribute the next request should carry: the
+	 * highest RID for which all the responses have been received
+	 * 
+	 * @param nextRid
+	 *            the RID of the request about to be sent
+	 * @return the RID to acknowledge, or -1 if the attribute can be omitted
+	 */
+	public long getAckFor(final long nextRid) {
+		if (!acknowledging) {
+			return -1;
+		}
+		final Iterator<Entry> iterator = entries.values().iterator();
+		if (!iterator.hasNext()) {
+			return -1;
+		}
+		final long ack = iterator.next().rid - 1;
+		return ack == nextRid - 1 ? -1 : ack;
+	}
+
+	/**
+	 * @return the errored entries, by RID
+	 */
+	public List<Entry> getErrored() {
+		final ArrayList<Entry> errored = new ArrayList<Entry>();
+		for (final Entry entry : entries.values()) {
+			if (entry.errored) {
+				errored.add(entry);
+			}
+		}
+		return errored;
+	}
+
+	public boolean hasErrors() {
+		for (final Entry entry : entries.values()) {
+			if (entry.errored) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the connection manager supports acknowledgements
+	 */
+	public boolean isAcknowledging() {
+		return acknowledging;
+	}
+
+	/**
+	 * Remove an entry when its response has arrived
+	 * 
+	 * @param rid
+	 *            the RID of the answered request
+	 * @return the removed entry or null if the request was already answered
+	 */
+	public Entry remove(final long rid) {
+		return entries.remove(rid);
+	}
+
+	/**
+	 * Record that an entry has been (re)sent
+	 * 
+	 * @param entry
+	 *            the sent entry
+	 * @param time
+	 *            the current time
+	 */
+	public void sent(final Entry entry, final long time) {
+		entry.markSent(time, ++sendCount);
+	}
+
+	public void setAcknowledging(final boolean acknowledging) {
+		this.acknowledging = acknowledging;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	@Override
+	public String toString() {
+		return "RequestLedger" + entries.values();
+	}
+}
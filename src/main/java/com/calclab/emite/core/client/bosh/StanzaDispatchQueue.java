@@ -0,0 +1,183 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.calclab.emite.core.client.packet.IPacket;
+
+/**
+ * The stanzas received by the connection and not dispatched yet.
+ * 
+ * With a slice of zero milliseconds (the default) the stanzas of a response
+ * are dispatched as soon as they are received, all of them in the same loop.
+ * With a positive slice they are dispatched in order in slices of (about)
+ * that time, yielding to the browser between slices, and the connection
+ * doesn't make a new request while there are more than maxBacklog stanzas
+ * waiting.
+ * 
+ * It also keeps count of the slices run and the biggest backlog seen.
+ */
+public class StanzaDispatchQueue {
+	/**
+	 * Compact the queue when this number of dispatched stanzas are in front
+	 * of it
+	 */
+	private static final int COMPACT_THRESHOLD = 32;
+
+	private int sliceMillis;
+	private int maxBacklog;
+
+	private final ArrayList<IPacket> pending;
+	private int head;
+
+	private int slices;
+	private int dispatched;
+	private int maxQueued;
+
+	public StanzaDispatchQueue() {
+		this(0, 0);
+	}
+
+	/**
+	 * @param sliceMillis
+	 *            the time (in milliseconds) spent dispatching stanzas before
+	 *            yielding. Zero dispatches every stanza as soon as it's
+	 *            received
+	 * @param maxBacklog
+	 *            the number of stanzas waiting to be dispatched that holds
+	 *            the next request
+	 */
+	public StanzaDispatchQueue(final int sliceMillis, final int maxBacklog) {
+		this.sliceMillis = sliceMillis;
+		this.maxBacklog = maxBacklog;
+		pending = new ArrayList<IPacket>();
+		head = 0;
+	}
+
+	/**
+	 * Queue the stanzas of a response
+	 * 
+	 * @param stanzas
+	 *            the received stanzas
+	 */
+	public void addAll(final List<? extends IPacket> stanzas) {
+		pending.addAll(stanzas);
+		maxQueued = Math.max(maxQueued, size());
+	}
+
+	public void clear() {
+		pending.clear();
+		head = 0;
+	}
+
+	/**
+	 * @return the number of stanzas dispatched through this queue
+	 */
+	public int getDispatched() {
+		return dispatched;
+	}
+
+	public int getMaxBacklog() {
+		return maxBacklog;
+	}
+
+	/**
+	 * @return the biggest number of stanzas waiting at the same time
+	 */
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	public int getSliceMillis() {
+		return sliceMillis;
+	}
+
+	/**
+	 * @return the number of slices run
+	 */
+	public int getSlices() {
+		return slices;
+	}
+
+	/**
+	 * @return true if the next request must wait until more stanzas are
+	 *         dispatched
+	 */
+	public boolean isBacklogged() {
+		return size() > maxBacklog;
+	}
+
+	public boolean isEmpty() {
+		return head == pending.size();
+	}
+
+	/**
+	 * @return true if the stanzas are dispatched in slices
+	 */
+	public boolean isSliced() {
+		return sliceMillis > 0;
+	}
+
+	/**
+	 * Take the next stanza to dispatch
+	 * 
+	 * @return the oldest stanza waiting
+	 */
+	public IPacket next() {
+		assert !isEmpty() : "No stanzas waiting to be dispatched";
+		final IPacket stanza = pending.get(head);
+		pending.set(head++, null);
+		dispatched++;
+		if (head == pending.size()) {
+			clear();
+		} else if (head >= COMPACT_THRESHOLD && head * 2 >= pending.size()) {
+			pending.subList(0, head).clear();
+			head = 0;
+		}
+		return stanza;
+	}
+
+	/**
+	 * Record a new slice
+	 */
+	public void sliceStarted() {
+		slices++;
+	}
+
+	public void setMaxBacklog(final int maxBacklog) {
+		this.maxBacklog = maxBacklog;
+	}
+
+	public void setSliceMillis(final int sliceMillis) {
+		this.sliceMillis = sliceMillis;
+	}
+
+	public int size() {
+		return pending.size() - head;
+	}
+
+	@Override
+	public String toString() {
+		return "StanzaDispatchQueue " + sliceMillis + "ms waiting=" + size() + " slices=" + slices + " dispatched=" + dispatched + " maxQueued=" + maxQueued;
+	}
+}
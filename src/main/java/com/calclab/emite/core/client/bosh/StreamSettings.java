@@ -23,6 +23,10 @@ package com.calclab.emite.core.client.bosh;
 public class StreamSettings {
 	public long rid;
 	public String sid;
+	/**
+	 * The connection manager the session was created in
+	 */
+	public String endpoint;
 	private int wait;
 	private int inactivity;
 	long lastRequestTime;
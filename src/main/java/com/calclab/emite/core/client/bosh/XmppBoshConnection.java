@@ -20,21 +20,29 @@
 
 package com.calclab.emite.core.client.bosh;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.calclab.emite.core.client.conn.ConnectionMetrics;
 import com.calclab.emite.core.client.conn.ConnectionSettings;
+import com.calclab.emite.core.client.conn.ConnectionStateChangedEvent;
+import com.calclab.emite.core.client.conn.ConnectionStateChangedEvent.ConnectionState;
+import com.calclab.emite.core.client.conn.StanzaBatchEvent;
 import com.calclab.emite.core.client.conn.StanzaSentEvent;
 import com.calclab.emite.core.client.conn.XmppConnection;
 import com.calclab.emite.core.client.conn.XmppConnectionBoilerPlate;
 import com.calclab.emite.core.client.events.EmiteEventBus;
 import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.LazyPacket;
 import com.calclab.emite.core.client.packet.Packet;
+import com.calclab.emite.core.client.packet.PacketRenderer;
 import com.calclab.emite.core.client.services.ConnectorCallback;
 import com.calclab.emite.core.client.services.ScheduledAction;
 import com.calclab.emite.core.client.services.Services;
+import com.calclab.emite.core.client.services.TimerHandle;
 import com.google.gwt.core.client.GWT;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -55,6 +63,7 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 	class Heartbeat implements ScheduledAction {
 		private final XmppBoshConnection connection;
 		private final int checkMillis;
+		private TimerHandle handle;
 		
 		/**
 		 * @param connection the BOSH connector
@@ -63,7 +72,6 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 		Heartbeat(XmppBoshConnection connection, int checkMillis) {
 			this.connection = connection;
 			this.checkMillis = checkMillis;
-			run();
 		}
 		
 		@Override
@@ -75,16 +83,47 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 					connection.continueConnection();
 				}
 			} finally {
-				connection.services.schedule(this.checkMillis, this);
+				if (handle != null) {
+					handle = connection.services.schedule(this.checkMillis, this);
+				}
+			}
+		}
+		
+		/**
+		 * Start checking (while the connection is active)
+		 */
+		void start() {
+			if (handle == null) {
+				handle = connection.services.schedule(this.checkMillis, this);
+			}
+		}
+		
+		/**
+		 * Stop checking: an inactive connection doesn't need the heartbeat
+		 */
+		void stop() {
+			if (handle != null) {
+				handle.cancel();
+				handle = null;
 			}
 		}
 	}
 	
 	/**
-	 * How many milliseconds between retries when a potentially recoverable error is detected
+	 * The minimum milliseconds between retries when a potentially recoverable error is detected
 	 */
 	private static final int ERROR_RETRY_PERIOD_MILLIS = 2000;
 	
+	/**
+	 * The maximum milliseconds between retries
+	 */
+	private static final int MAX_ERROR_RETRY_PERIOD_MILLIS = 30000;
+	
+	/**
+	 * How many consecutive errors open the circuit breaker
+	 */
+	private static final int CIRCUIT_FAILURE_THRESHOLD = 3;
+	
 	/**
 	 * How many seconds to timeout the connection retry on an error if we don't have a
 	 * wait period defined (e.g. on initial connection attempt)
@@ -114,10 +153,101 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 	private boolean shouldCollectResponses;
 	
 	/**
-	 * Maintains a set of requests which encountered errors and are currently being
-	 * retried. The class should not send any new requests if this set is non-empty
+	 * Keeps every request sent and not yet answered, indexed by RID, so errored
+	 * or missing requests can be retransmitted individually while new requests
+	 * keep flowing
+	 */
+	private final RequestLedger ledger;
+	
+	/**
+	 * Decides when the stanzas queued in the current body are sent
+	 */
+	private final CoalescingWindow coalescing;
+	
+	/**
+	 * The stanzas waiting for the next body, in sending order
 	 */
-	private final HashSet<String> erroredRequests;
+	private final OutboundLanes lanes;
+
+	/**
+	 * The received stanzas waiting to be dispatched (only used when the
+	 * stanzas are dispatched in slices)
+	 */
+	private final StanzaDispatchQueue dispatchQueue;
+	private final ScheduledAction dispatchAction;
+	private TimerHandle dispatchHandle;
+
+	/**
+	 * The stanzas waiting when the batch being dispatched in slices started,
+	 * or zero if there's no batch
+	 */
+	private int dispatchBatch;
+	
+	/**
+	 * The additional streams multiplexed over this session, the ones waiting
+	 * for their turn to send a body and the ones waiting for their name (by the
+	 * RID of the request that opened them)
+	 */
+	private final ArrayList<BoshStream> streams;
+	private final ArrayList<BoshStream> readyStreams;
+	private final HashMap<Long, BoshStream> openingStreams;
+	
+	/**
+	 * The name of the first stream of the session (null if the connection
+	 * manager doesn't support multiple streams)
+	 */
+	private String streamName;
+	
+	/**
+	 * Chooses the connection manager of every new session (and keeps the
+	 * health of all of them between sessions)
+	 */
+	private final EndpointSelector selector;
+	
+	/**
+	 * The connection manager of the current session (null while probing)
+	 */
+	private String endpoint;
+	
+	private final ScheduledAction flushAction;
+	
+	private final Heartbeat heartbeat;
+	
+	/**
+	 * The pending keep-alive request (only one at a time)
+	 */
+	private TimerHandle keepAlive;
+	
+	/**
+	 * The pending error retries (canceled when the session ends)
+	 */
+	private final ArrayList<TimerHandle> retries;
+	
+	private TimerHandle flushHandle;
+	
+	/**
+	 * The builder every body (and every measured stanza) is rendered into
+	 */
+	private final StringBuilder renderBuffer;
+	
+	private RetryPolicy retryPolicy;
+	
+	/**
+	 * Suspends the retransmissions while the connection manager is unreachable
+	 */
+	private final CircuitBreaker breaker;
+	
+	private TimerHandle probeHandle;
+	
+	/**
+	 * The last retry delay (the length of the error streak is measured from
+	 * errorStreakStart)
+	 */
+	private int retryDelay;
+	/**
+	 * When the first failure of the current error streak happened, or -1
+	 */
+	private long errorStreakStart = -1;
 
 	private int clientTimeout = 5000;
 	
@@ -126,51 +256,88 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 		super(eventBus);
 		this.services = services;
 		
-		erroredRequests = new HashSet<String>();
+		ledger = new RequestLedger();
+		coalescing = new CoalescingWindow();
+		lanes = new OutboundLanes();
+		dispatchQueue = new StanzaDispatchQueue();
+		renderBuffer = new StringBuilder();
+		streams = new ArrayList<BoshStream>();
+		readyStreams = new ArrayList<BoshStream>();
+		openingStreams = new HashMap<Long, BoshStream>();
+		selector = new EndpointSelector(services);
+		retries = new ArrayList<TimerHandle>();
+		retryPolicy = new DecorrelatedJitterPolicy(ERROR_RETRY_PERIOD_MILLIS, MAX_ERROR_RETRY_PERIOD_MILLIS);
+		breaker = new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD);
+		flushAction = new ScheduledAction() {
+			@Override
+			public void run() {
+				coalescing.setScheduled(false);
+				flushHandle = null;
+				if (getCurrentBody() != null) {
+					sendBody();
+				}
+			}
+		};
 
-		if(HEARTBEAT_PERIOD_MILLIS > 0) {
-			new Heartbeat(this, HEARTBEAT_PERIOD_MILLIS);
-		}
+		dispatchAction = new ScheduledAction() {
+			@Override
+			public void run() {
+				dispatchHandle = null;
+				dispatchSlice();
+			}
+		};
+
+		heartbeat = HEARTBEAT_PERIOD_MILLIS > 0 ? new Heartbeat(this, HEARTBEAT_PERIOD_MILLIS) : null;
 		
 		listener = new ConnectorCallback() {
 
 			@Override
 			public void onError(final String request, final Throwable throwable) {
 				if (isActive()) {
+					final RequestLedger.Entry entry = ledger.find(request);
+					if (entry == null) {
+						// The request has already been answered through a retransmission
+						logger.finer("Ignoring error of an already answered request");
+						--activeConnections;
+						return;
+					}
+					
 					final int e = incrementErrors();
-					logger.log(Level.WARNING, "Connection error #" + e, throwable);
+					logger.log(Level.WARNING, "Connection error #" + e + " (" + entry + ")", throwable);
+					getLiveMetrics().recordError();
+					
+					entry.setErrored(true);
 					
-					erroredRequests.add(request);
+					if (breaker.isOpen()) {
+						// The circuit is open: the request waits for the probe
+						logger.fine("Circuit open, request " + entry.getRid() + " waits for the probe");
+						return;
+					}
 					
-					final String sid = getStreamSettings().sid;
+					final boolean opened = breaker.recordFailure();
+					retryDelay = retryPolicy.getRetryDelay(e, retryDelay);
+					final long now = services.getCurrentTime();
+					if (errorStreakStart == -1) {
+						errorStreakStart = now;
+					}
 					
-					/* 
-					 * TODO If there are multiple retrying connections at once then the error count will be
-					 * artificially increased so we should handle that properly.
-					 */
 					// If we've been errored for longer than the "inactivity" time then there is no
 					// way we can get the session back, so we may as well just give up!
-					if((e * ERROR_RETRY_PERIOD_MILLIS) > getErrorTimeoutMillis()) {
+					if(now - errorStreakStart + retryDelay > getErrorTimeoutMillis()) {
 						--activeConnections;
 						logger.severe("Connection errored for longer than inactivity timeout ("
 								+ getStreamSettings().getInactivity() + "s) - Notifying connection error");
 						fireError("Connection error: " + throwable.toString());
 						disconnect();
-					} else {;
-						logger.fine("Retrying connection...");
-						fireRetry(e, ERROR_RETRY_PERIOD_MILLIS);
-						services.schedule(ERROR_RETRY_PERIOD_MILLIS, new ScheduledAction() {
-							@Override
-							public void run() {
-								// If the session hasn't been changed in the meantime...
-								if((getStreamSettings().sid == null) || getStreamSettings().sid.equals(sid)) {
-									logger.info("Error retry: " + e);
-									--activeConnections;
-									send(request);
-								}
-							}
-						});
-						logger.fine("Retry queued for " + ERROR_RETRY_PERIOD_MILLIS + "ms");
+					} else if (opened) {
+						selector.recordFailure(endpoint);
+						if (getConnectionSettings().endpoints.size() > 1) {
+							failOver(throwable);
+						} else {
+							openCircuit();
+						}
+					} else {
+						scheduleRetry(entry, e);
 					}
 				}
 			}
@@ -188,20 +355,25 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 						onError(originalRequest, new Exception("Bad status: " + statusCode + " " + content));
 					} else {
 						GWT.log("++ Inbound content from request, " + content.length() + " bytes.");
-						final IPacket response = services.toXML(content);
+						final IPacket response = parseResponse(content);
 						if (response != null && "body".equals(response.getName())) {
 							activeConnections--;
-							/* 
-							 * We could just call remove directly here, but by doing a separate contains check
-							 * we can log the fact that an error has recovered, and still will only be checking
-							 * the set once in the 99% no error situation
-							 */
-							if(erroredRequests.contains(originalRequest)) {
+							final RequestLedger.Entry entry = ledger.find(originalRequest);
+							if (entry == null) {
+								// Both the original request and its retransmission have been answered
+								logger.finer("Discarding duplicated response on session " + getStreamSettings().sid);
+								continueConnection();
+								return;
+							}
+							ledger.remove(entry.getRid());
+							if (entry.isErrored()) {
 								logger.finer("Successfully resent errored connection on session " + getStreamSettings().sid);
-								erroredRequests.remove(originalRequest);
 							}
+							handleSuccess();
+							recordResponse(entry, response, content);
+							handleAcknowledgements(entry, response);
 							fireResponse(content);
-							handleResponse(response);
+							handleResponse(entry.getRid(), response);
 						} else {
 							if (response == null) {
 								GWT.log("Erk; response is null, maybe it's not XML?");
@@ -225,8 +397,15 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 			setActive(true);
 			setStream(new StreamSettings());
 			activeConnections = 0;
+			ledger.clear();
+			lanes.clear();
+			streamName = null;
+			openingStreams.clear();
+			cancelDispatch();
+			resetRetries();
 			createInitialBody(getConnectionSettings());
-			sendBody();
+			selectEndpoint();
+			startHeartbeat();
 		}
 	}
 
@@ -235,12 +414,16 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 		logger.finer("BoshConnection - Disconnected called - Clearing current body and send a priority 'terminate' stanza.");
 		// Clearing all queued stanzas
 		setCurrentBody(null);
+		ledger.clear();
+		lanes.clear();
+		cancelTimers();
 		// Create a new terminate stanza and force the send
 		createBodyIfNeeded();
 		getCurrentBody().setAttribute("type", "terminate");
 		sendBody(true);
 		setActive(false);
 		getStreamSettings().sid = null;
+		closeStreams("logged out");
 		fireDisconnected("logged out");
 	}
 
@@ -273,6 +456,9 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 	public boolean resume(final StreamSettings settings) {
 		setActive(true);
 		setStream(settings);
+		// A paused session can only be resumed in the connection manager it was created in
+		endpoint = settings.endpoint != null ? settings.endpoint : getConnectionSettings().httpBase;
+		startHeartbeat();
 		continueConnection();
 		return isActive();
 	}
@@ -280,11 +466,172 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 	@Override
 	public void send(final IPacket packet) {
 		createBodyIfNeeded();
-		getCurrentBody().addChild(packet);
-		sendBody();
+		final int length = coalescing.getMaxBytes() > 0 || lanes.getByteBudget() > 0 ? render(packet).length() : 0;
+		lanes.add(packet, length);
+		if (coalescing.add(packet, length)) {
+			sendBody();
+		} else if (!coalescing.isScheduled()) {
+			coalescing.setScheduled(true);
+			flushHandle = services.schedule(coalescing.getWindowMillis(), flushAction);
+		}
 		eventBus.fireEvent(new StanzaSentEvent(packet));
 	}
 
+	/**
+	 * Create a new XMPP stream over this BOSH session. The stream has its own
+	 * event bus, so it can be the connection of another session, but it shares
+	 * the HTTP requests of this connection. It's opened with
+	 * {@link BoshStream#connect()} once this connection is connected (if the
+	 * connection manager supports multiple streams)
+	 * 
+	 * @see http://xmpp.org/extensions/xep-0124.html#multi
+	 * @param eventBus
+	 *            the event bus of the new stream
+	 * @return the new stream
+	 */
+	public BoshStream createStream(final EmiteEventBus eventBus) {
+		final BoshStream stream = new BoshStream(this, eventBus);
+		streams.add(stream);
+		return stream;
+	}
+
+	/**
+	 * The connection manager of the current session
+	 * 
+	 * @return the endpoint url (null while the endpoints are probed)
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * The selector that chooses the connection manager (when the settings
+	 * have more than one endpoint) and keeps their health scores
+	 * 
+	 * @return the endpoint selector
+	 */
+	public EndpointSelector getEndpointSelector() {
+		return selector;
+	}
+
+	/**
+	 * The name of the first stream of the session, assigned by the connection
+	 * manager if it supports multiple streams
+	 * 
+	 * @return the stream name or null
+	 */
+	public String getStreamName() {
+		return streamName;
+	}
+
+	/**
+	 * Send the stanzas collected in the current coalescing window (if the
+	 * connection can send a new request)
+	 */
+	public void flush() {
+		if (getCurrentBody() != null) {
+			sendBody();
+		}
+	}
+
+	/**
+	 * The coalescing window used to merge the stanzas sent in a short period of
+	 * time in a single body. It's disabled by default
+	 * 
+	 * @return the coalescing window
+	 */
+	public CoalescingWindow getCoalescingWindow() {
+		return coalescing;
+	}
+
+	/**
+	 * The circuit breaker that suspends the retries while the connection
+	 * manager is unreachable
+	 * 
+	 * @return the circuit breaker
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return breaker;
+	}
+
+	/**
+	 * The lanes of the stanzas waiting to be sent
+	 * 
+	 * @return the outbound lanes
+	 */
+	public OutboundLanes getOutboundLanes() {
+		return lanes;
+	}
+
+	/**
+	 * The queue of the received stanzas dispatched in slices
+	 * 
+	 * @return the dispatch queue
+	 */
+	public StanzaDispatchQueue getDispatchQueue() {
+		return dispatchQueue;
+	}
+
+	/**
+	 * Limit the size of the stanzas sent in a single body. The IQs that don't
+	 * fit wait for the next request; messages and presences are always sent in
+	 * order
+	 * 
+	 * @param byteBudget
+	 *            the maximum number of (rendered) characters per body (0 for
+	 *            no limit)
+	 */
+	public void setByteBudget(final int byteBudget) {
+		lanes.setByteBudget(byteBudget);
+	}
+
+	/**
+	 * Merge the stanzas sent during windowMillis in a single body.
+	 * 
+	 * @param windowMillis
+	 *            the window length in milliseconds (0 to disable)
+	 * @param maxStanzas
+	 *            the number of stanzas that flushes the body before the window
+	 *            ends (0 for no limit)
+	 * @param maxBytes
+	 *            the number of characters that flushes the body before the
+	 *            window ends (0 for no limit)
+	 */
+	public void setCoalescing(final int windowMillis, final int maxStanzas, final int maxBytes) {
+		coalescing.setWindowMillis(windowMillis);
+		coalescing.setMaxStanzas(maxStanzas);
+		coalescing.setMaxBytes(maxBytes);
+	}
+
+	/**
+	 * Dispatch the received stanzas in slices of sliceMillis, yielding to the
+	 * browser between slices, so big responses (room history, offline
+	 * messages...) don't freeze the UI. The stanzas keep their order, and no
+	 * new request is made while more than maxBacklog stanzas are waiting.
+	 * 
+	 * @param sliceMillis
+	 *            the time spent dispatching before yielding (0 to dispatch
+	 *            every response at once, the default)
+	 * @param maxBacklog
+	 *            the number of stanzas waiting that holds the next request
+	 */
+	public void setSlicedDispatch(final int sliceMillis, final int maxBacklog) {
+		dispatchQueue.setSliceMillis(sliceMillis);
+		dispatchQueue.setMaxBacklog(maxBacklog);
+	}
+
+	/**
+	 * Change the policy that decides the delay between retries of the failed
+	 * requests. By default a decorrelated jitter backoff between 2 and 30
+	 * seconds is used
+	 * 
+	 * @param retryPolicy
+	 *            the new retry policy
+	 */
+	public void setRetryPolicy(final RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
 	@Override
 	public String toString() {
 		return "Bosh in " + (isActive() ? "active" : "inactive") + " stream=" + getStreamSettings();
@@ -303,15 +650,24 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 	 * @param ack
 	 */
 	private void continueConnection() {
+		if (dispatchQueue.isBacklogged()) {
+			// the next slice continues the connection when it catches up
+			return;
+		}
 		if (isConnected() && activeConnections == 0) {
 			if (getCurrentBody() != null) {
 				sendBody();
 			} else {
 				final long currentRID = getStreamSettings().rid;
 				final int waitTime = 300;
-				services.schedule(waitTime, new ScheduledAction() {
+				if (keepAlive != null) {
+					// the new keep-alive replaces the previous one
+					keepAlive.cancel();
+				}
+				keepAlive = services.schedule(waitTime, new ScheduledAction() {
 					@Override
 					public void run() {
+						keepAlive = null;
 						if (getCurrentBody() == null && getStreamSettings().rid == currentRID && activeConnections == 0 && !hasErrors()) {
 							createBodyIfNeeded();
 							// Whitespace keep-alive
@@ -324,6 +680,95 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 		}
 	}
 
+	/**
+	 * A stream has something to send: it's sent in its own body (the stanzas
+	 * of different streams are never mixed) as soon as possible
+	 * 
+	 * @param stream
+	 *            the ready stream
+	 */
+	void streamReady(final BoshStream stream) {
+		if (!readyStreams.contains(stream)) {
+			readyStreams.add(stream);
+		}
+		if (isActive() && getStreamSettings().sid != null) {
+			if (streamName == null) {
+				refuseStreams();
+			} else {
+				createBodyIfNeeded();
+				sendBody();
+			}
+		}
+	}
+
+	/**
+	 * Drop the stanzas waiting to be dispatched and cancel their next slice.
+	 * An open stanza batch is finished
+	 */
+	private void cancelDispatch() {
+		if (dispatchHandle != null) {
+			dispatchHandle.cancel();
+			dispatchHandle = null;
+		}
+		dispatchQueue.clear();
+		if (dispatchBatch > 0) {
+			final int size = dispatchBatch;
+			dispatchBatch = 0;
+			fireStanzaBatch(StanzaBatchEvent.BatchStates.finished, size);
+		}
+	}
+
+	/**
+	 * Cancel every pending timer of the session (heartbeat, keep-alive,
+	 * retries, coalescing flush and sliced dispatch)
+	 */
+	private void cancelTimers() {
+		if (heartbeat != null) {
+			heartbeat.stop();
+		}
+		if (keepAlive != null) {
+			keepAlive.cancel();
+			keepAlive = null;
+		}
+		for (final TimerHandle retry : retries) {
+			retry.cancel();
+		}
+		retries.clear();
+		if (flushHandle != null) {
+			flushHandle.cancel();
+			flushHandle = null;
+			coalescing.setScheduled(false);
+		}
+		if (probeHandle != null) {
+			probeHandle.cancel();
+			probeHandle = null;
+		}
+		cancelDispatch();
+	}
+
+	/**
+	 * The BOSH session is over, and so are all its streams
+	 */
+	private void closeStreams(final String reason) {
+		readyStreams.clear();
+		openingStreams.clear();
+		for (final BoshStream stream : new ArrayList<BoshStream>(streams)) {
+			stream.closed(reason);
+		}
+	}
+
+	/**
+	 * The connection manager doesn't support multiple streams: close the
+	 * streams waiting to be opened
+	 */
+	private void refuseStreams() {
+		final ArrayList<BoshStream> refused = new ArrayList<BoshStream>(readyStreams);
+		readyStreams.clear();
+		for (final BoshStream stream : refused) {
+			stream.closed("The connection manager doesn't support multiple streams");
+		}
+	}
+
 	private void createBodyIfNeeded() {
 		if (getCurrentBody() == null) {
 			final Packet body = new Packet("body");
@@ -364,41 +809,473 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 		setCurrentBody(body);
 	}
 
-	private void handleResponse(final IPacket response) {
-		if (isTerminate(response.getAttribute("type"))) {
+	private void handleResponse(final long rid, final IPacket response) {
+		final String name = response.getAttribute("stream");
+		final BoshStream stream = getResponseStream(rid, name);
+		if (stream != null) {
+			try {
+				if (isTerminate(response.getAttribute("type"))) {
+					stream.closed("disconnected by server");
+				} else {
+					dispatchStanzas(demultiplex(response, stream, false));
+				}
+			} finally {
+				continueConnection();
+			}
+		} else if (name != null && streamName != null && !name.equals(streamName)) {
+			logger.finer("Discarding response of the closed stream " + name);
+			try {
+				// the stanzas marked with a live stream are still delivered
+				dispatchStanzas(demultiplex(response, null, false));
+			} finally {
+				continueConnection();
+			}
+		} else if (isTerminate(response.getAttribute("type"))) {
 			getStreamSettings().sid = null;
 			setActive(false);
+			cancelTimers();
+			closeStreams("disconnected by server");
 			fireDisconnected("disconnected by server");
 		} else {
 			try {
 				if (getStreamSettings().sid == null) {
 					initStream(response);
 					fireConnected();
+					if (!readyStreams.isEmpty()) {
+						if (streamName == null) {
+							refuseStreams();
+						} else {
+							createBodyIfNeeded();
+						}
+					}
 				}
-				shouldCollectResponses = true;
-				final List<? extends IPacket> stanzas = response.getChildren();
-				GWT.log("** Processing " + stanzas.size() + " stanzas");
+				dispatchStanzas(demultiplex(response, null, true));
+			} finally {
+				continueConnection();
+			}
+		}
+	}
+
+	/**
+	 * Deliver the stanzas of a response to their streams. A stanza can be
+	 * marked with its own stream; otherwise it belongs to the stream of the
+	 * body. The stanzas of the streams created with createStream are
+	 * delivered now.
+	 * 
+	 * @see http://xmpp.org/extensions/xep-0124.html#multi
+	 * @param response
+	 *            the response body
+	 * @param bodyStream
+	 *            the stream of the body, or null
+	 * @param bodyIsMain
+	 *            true if the body belongs to the main stream (bodyStream
+	 *            null)
+	 * @return the stanzas of the main stream
+	 */
+	private List<? extends IPacket> demultiplex(final IPacket response, final BoshStream bodyStream, final boolean bodyIsMain) {
+		final List<? extends IPacket> children = response.getChildren();
+		boolean marked = false;
+		for (final IPacket stanza : children) {
+			if (stanza.hasAttribute("stream")) {
+				marked = true;
+				break;
+			}
+		}
+		if (!marked) {
+			if (bodyStream != null) {
+				bodyStream.handleStanzas(children);
+			}
+			return bodyIsMain ? children : new ArrayList<IPacket>();
+		}
+
+		final ArrayList<IPacket> main = new ArrayList<IPacket>();
+		final ArrayList<BoshStream> targets = new ArrayList<BoshStream>();
+		final ArrayList<ArrayList<IPacket>> delivered = new ArrayList<ArrayList<IPacket>>();
+		for (final IPacket stanza : children) {
+			final String name = stanza.getAttribute("stream");
+			BoshStream target = bodyStream;
+			boolean toMain = bodyIsMain;
+			if (name != null) {
+				toMain = name.equals(streamName);
+				target = toMain ? null : findStream(name);
+			}
+			if (toMain) {
+				main.add(stanza);
+			} else if (target != null) {
+				int index = targets.indexOf(target);
+				if (index == -1) {
+					index = targets.size();
+					targets.add(target);
+					delivered.add(new ArrayList<IPacket>());
+				}
+				delivered.get(index).add(stanza);
+			} else {
+				logger.finer("Discarding a stanza of the closed stream " + name);
+			}
+		}
+		for (int index = 0; index < targets.size(); index++) {
+			targets.get(index).handleStanzas(delivered.get(index));
+		}
+		return main;
+	}
+
+	/**
+	 * Dispatch the stanzas of the main stream, now or in slices
+	 */
+	private void dispatchStanzas(final List<? extends IPacket> stanzas) {
+		if (stanzas.isEmpty()) {
+			return;
+		}
+		GWT.log("** Processing " + stanzas.size() + " stanzas");
+		if (dispatchQueue.isSliced() || !dispatchQueue.isEmpty()) {
+			// keep the order with the stanzas still waiting
+			dispatchQueue.addAll(stanzas);
+			if (dispatchHandle == null) {
+				dispatchHandle = services.schedule(0, dispatchAction);
+			}
+		} else {
+			shouldCollectResponses = true;
+			final boolean batch = stanzas.size() > 1;
+			if (batch) {
+				fireStanzaBatch(StanzaBatchEvent.BatchStates.started, stanzas.size());
+			}
+			try {
 				for (final IPacket stanza : stanzas) {
-					try {
-						//GWT.log("I got a packet: " + stanza.getName() + " " + stanza.getAttribute("xmlns"));
-						fireStanzaReceived(stanza);
-					} catch(Exception e) {
-						logger.log(Level.WARNING, "Error occurred while processing received stanza: " + stanza.toString(), e);
-					}
+					dispatchStanza(stanza);
 				}
 			} finally {
 				shouldCollectResponses = false;
-				continueConnection();
+				if (batch) {
+					fireStanzaBatch(StanzaBatchEvent.BatchStates.finished, stanzas.size());
+				}
+			}
+		}
+	}
+
+	private void dispatchStanza(final IPacket stanza) {
+		try {
+			//GWT.log("I got a packet: " + stanza.getName() + " " + stanza.getAttribute("xmlns"));
+			fireStanzaReceived(stanza);
+		} catch(Exception e) {
+			logger.log(Level.WARNING, "Error occurred while processing received stanza: " + PacketRenderer.toString(stanza), e);
+		}
+	}
+
+	/**
+	 * Dispatch the waiting stanzas until the slice time is over (at least one
+	 * stanza per slice). The stanzas waiting when a slice starts are a single
+	 * stanza batch until the queue is empty
+	 */
+	private void dispatchSlice() {
+		if (dispatchQueue.isEmpty()) {
+			return;
+		}
+		dispatchQueue.sliceStarted();
+		final long deadline = services.getCurrentTime() + dispatchQueue.getSliceMillis();
+		shouldCollectResponses = true;
+		try {
+			if (dispatchBatch == 0 && dispatchQueue.size() > 1) {
+				dispatchBatch = dispatchQueue.size();
+				fireStanzaBatch(StanzaBatchEvent.BatchStates.started, dispatchBatch);
+			}
+			do {
+				dispatchStanza(dispatchQueue.next());
+			} while (!dispatchQueue.isEmpty() && services.getCurrentTime() < deadline);
+		} finally {
+			shouldCollectResponses = false;
+			if (!dispatchQueue.isEmpty()) {
+				dispatchHandle = services.schedule(0, dispatchAction);
+			} else if (dispatchBatch > 0) {
+				final int size = dispatchBatch;
+				dispatchBatch = 0;
+				fireStanzaBatch(StanzaBatchEvent.BatchStates.finished, size);
+			}
+			continueConnection();
+		}
+	}
+
+	/**
+	 * The current connection manager keeps failing: drop the session (there
+	 * is nobody to send the terminate to) so a fresh one is created in the
+	 * next best endpoint when the session reconnects
+	 */
+	private void failOver(final Throwable throwable) {
+		logger.warning("Endpoint " + endpoint + " unreachable, failing over");
+		setCurrentBody(null);
+		ledger.clear();
+		lanes.clear();
+		cancelTimers();
+		setActive(false);
+		getStreamSettings().sid = null;
+		closeStreams("endpoint unreachable");
+		fireError("Connection error (failing over from " + endpoint + "): " + throwable.toString());
+		fireDisconnected("endpoint unreachable");
+	}
+
+	/**
+	 * Choose the endpoint of the new session and send the session creation
+	 * request. The endpoints are only probed when their health is unknown
+	 */
+	private void selectEndpoint() {
+		final List<String> endpoints = getConnectionSettings().endpoints;
+		if (selector.needsProbe(endpoints)) {
+			endpoint = null;
+			final StreamSettings stream = getStreamSettings();
+			selector.probe(endpoints, new EndpointSelector.SelectionCallback() {
+				@Override
+				public void onSelected(final String selected) {
+					// The session could have been closed (or replaced) while probing
+					if (isActive() && getStreamSettings() == stream && stream.sid == null && endpoint == null) {
+						logger.info("Endpoint " + selected + " selected");
+						endpoint = selected;
+						stream.endpoint = selected;
+						sendBody();
+					}
+				}
+			});
+		} else {
+			endpoint = selector.select(endpoints);
+			getStreamSettings().endpoint = endpoint;
+			sendBody();
+		}
+	}
+
+	/**
+	 * Find the additional stream a response belongs to: the response to the
+	 * request that opened a stream carries its name
+	 * 
+	 * @return the stream, or null if the response belongs to the first stream
+	 */
+	private BoshStream getResponseStream(final long rid, final String name) {
+		final BoshStream opened = openingStreams.remove(rid);
+		if (opened != null) {
+			opened.onOpened(name);
+			return opened;
+		}
+		if (name != null && !name.equals(streamName)) {
+			return findStream(name);
+		}
+		return null;
+	}
+
+	private BoshStream findStream(final String name) {
+		for (final BoshStream stream : streams) {
+			if (name.equals(stream.getName())) {
+				return stream;
 			}
 		}
+		return null;
+	}
+
+	/**
+	 * Take the next stream (in turn) with something to send
+	 */
+	private BoshStream nextReadyStream() {
+		if (getStreamSettings().sid == null || streamName == null) {
+			return null;
+		}
+		while (!readyStreams.isEmpty()) {
+			final BoshStream stream = readyStreams.remove(0);
+			if (stream.hasPending()) {
+				return stream;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if any stream is waiting to send a body
+	 */
+	private boolean hasPendingStreams() {
+		if (getStreamSettings().sid == null || streamName == null) {
+			return false;
+		}
+		for (final BoshStream stream : readyStreams) {
+			if (stream.hasPending()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if any additional stream is open
+	 */
+	private boolean hasOpenStreams() {
+		for (final BoshStream stream : streams) {
+			if (stream.getName() != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A body with session attributes (creation, restart, pause or terminate)
+	 * belongs to the first stream
+	 */
+	private static boolean isControlBody(final IPacket body) {
+		return body.hasAttribute("to") || body.hasAttribute("type") || body.hasAttribute("pause");
+	}
+
+	/**
+	 * Process the 'ack' and 'report' attributes of a response, retransmitting
+	 * only the requests the connection manager has not received
+	 * 
+	 * @see http://xmpp.org/extensions/xep-0124.html#ack
+	 * @param answered
+	 *            the entry of the request the response belongs to
+	 * @param response
+	 *            the response body
+	 */
+	private void handleAcknowledgements(final RequestLedger.Entry answered, final IPacket response) {
+		if (!ledger.isAcknowledging()) {
+			return;
+		}
+		final long ack = parseRid(response.getAttribute("ack"), answered.getRid());
+		for (final RequestLedger.Entry missing : ledger.acknowledge(ack, answered)) {
+			logger.info("Request " + missing.getRid() + " not acknowledged by the connection manager, retransmitting");
+			send(missing);
+		}
+		final long report = parseRid(response.getAttribute("report"), -1);
+		if (report != -1) {
+			final RequestLedger.Entry reported = ledger.get(report);
+			if (reported != null && !reported.isErrored()) {
+				logger.info("Response to request " + report + " reported as lost (time " + response.getAttribute("time") + "ms), retransmitting");
+				send(reported);
+			}
+		}
+	}
+
+	/**
+	 * A request has been answered: close the circuit (retransmitting the
+	 * requests that were waiting for the probe) and, once there are no errored
+	 * requests left, reset the retry backoff
+	 */
+	private void handleSuccess() {
+		if (!breaker.isClosed()) {
+			logger.info("Connection manager reachable again, closing the circuit");
+			breaker.recordSuccess();
+			if (probeHandle != null) {
+				probeHandle.cancel();
+				probeHandle = null;
+			}
+			eventBus.fireEvent(new ConnectionStateChangedEvent(ConnectionState.circuitClosed, "The connection manager is reachable again"));
+			for (final RequestLedger.Entry errored : ledger.getErrored()) {
+				--activeConnections;
+				send(errored);
+			}
+		}
+		if (!ledger.hasErrors()) {
+			resetRetries();
+		}
+	}
+
+	/**
+	 * Too many consecutive errors: stop the retries and probe the connection
+	 * manager with a single request when the retry delay expires
+	 */
+	private void openCircuit() {
+		logger.warning("Circuit open after " + breaker.getFailures() + " errors, probing in " + retryDelay + "ms");
+		for (final TimerHandle retry : retries) {
+			retry.cancel();
+		}
+		retries.clear();
+		eventBus.fireEvent(new ConnectionStateChangedEvent(ConnectionState.circuitOpen, "The connection will be probed in " + retryDelay
+				+ " milliseconds.", retryDelay));
+		final String sid = getStreamSettings().sid;
+		probeHandle = services.schedule(retryDelay, new ScheduledAction() {
+			@Override
+			public void run() {
+				probeHandle = null;
+				if (!isActive() || getStreamSettings().sid != null && !getStreamSettings().sid.equals(sid)) {
+					return;
+				}
+				final List<RequestLedger.Entry> errored = ledger.getErrored();
+				if (errored.isEmpty()) {
+					breaker.recordSuccess();
+					return;
+				}
+				// The oldest errored request is the probe: no RID is skipped
+				final RequestLedger.Entry probe = errored.get(0);
+				logger.info("Probing the connection manager with request " + probe.getRid());
+				breaker.halfOpen();
+				eventBus.fireEvent(new ConnectionStateChangedEvent(ConnectionState.circuitHalfOpen, "Probing the connection"));
+				--activeConnections;
+				send(probe);
+			}
+		});
+	}
+
+	/**
+	 * Update the metrics with a response: the time an empty request waits for
+	 * its response is the time it was held by the connection manager
+	 */
+	private void recordResponse(final RequestLedger.Entry entry, final IPacket response, final String content) {
+		final long now = services.getCurrentTime();
+		final ConnectionMetrics metrics = getLiveMetrics();
+		final int elapsed = (int) (now - entry.getSentTime());
+		metrics.recordResponse(content.length(), response.getChildrenCount());
+		if (entry.getStanzas() == 0) {
+			metrics.recordHold(elapsed);
+		} else {
+			metrics.recordRoundTrip(elapsed);
+			// Held requests say nothing about the latency of the endpoint
+			selector.recordLatency(endpoint, elapsed);
+		}
+		fireMetrics(now);
+	}
+
+	private void resetRetries() {
+		super.clearErrors();
+		breaker.recordSuccess();
+		retryDelay = 0;
+		errorStreakStart = -1;
+	}
+
+	/**
+	 * Retry a failed request after the retry policy delay
+	 */
+	private void scheduleRetry(final RequestLedger.Entry entry, final int e) {
+		final String sid = getStreamSettings().sid;
+		logger.fine("Retrying connection...");
+		fireRetry(e, retryDelay);
+		final TimerHandle[] retry = new TimerHandle[1];
+		retry[0] = services.schedule(retryDelay, new ScheduledAction() {
+			@Override
+			public void run() {
+				retries.remove(retry[0]);
+				// If the session hasn't been changed in the meantime...
+				if((getStreamSettings().sid == null) || getStreamSettings().sid.equals(sid)) {
+					logger.info("Error retry: " + e);
+					--activeConnections;
+					if (ledger.get(entry.getRid()) == entry) {
+						send(entry);
+					}
+				}
+			}
+		});
+		retries.add(retry[0]);
+		logger.fine("Retry queued for " + retryDelay + "ms");
+	}
+
+	private void startHeartbeat() {
+		if (heartbeat != null) {
+			heartbeat.start();
+		}
 	}
 
 	private void initStream(final IPacket response) {
 		final StreamSettings stream = getStreamSettings();
 		stream.sid = response.getAttribute("sid");
+		// The connection manager supports acknowledgements if it answers the session request with the 'ack' attribute
+		ledger.setAcknowledging(response.hasAttribute("ack"));
+		// The connection manager supports multiple streams if it names the first one
+		streamName = response.getAttribute("stream");
 		stream.setWait(response.getAttribute("wait"));
 		stream.setInactivity(response.getAttribute("inactivity"));
 		stream.setMaxPause(response.getAttribute("maxpause"));
+		getLiveMetrics().setWaitMillis(stream.getWait() * 1000);
 	}
 
 	private boolean isTerminate(final String type) {
@@ -406,50 +1283,135 @@ public class XmppBoshConnection extends XmppConnectionBoilerPlate {
 		return "terminate".equals(type) || "terminal".equals(type);
 	}
 
+	private static long parseRid(final String value, final long defaultValue) {
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (final NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
 	/**
-	 * Sends a new request (and count the activeConnections)
+	 * Sends a request (and count the activeConnections). The same entry is sent
+	 * again (with the same RID) when retransmitting
 	 * 
-	 * @param request
+	 * @param entry
 	 */
-	private void send(final String request) {
+	private void send(final RequestLedger.Entry entry) {
 		try {
 			activeConnections++;
 			
 			GWT.log("Timeout: " + getConnectionTimeoutMillis());
 			
-			services.send(getConnectionSettings().httpBase, request, listener, getConnectionTimeoutMillis());
+			getLiveMetrics().recordRequest(entry.getRequest().length(), entry.getStanzas(), entry.getAttempts() > 0);
+			ledger.sent(entry, services.getCurrentTime());
+			services.send(endpoint != null ? endpoint : getConnectionSettings().httpBase, entry.getRequest(), listener, getConnectionTimeoutMillis());
 		} catch (final Exception e) {
-			activeConnections--;
 			logger.log(Level.SEVERE, "Exception occurred on send", e);
+			// the request is in the ledger: it fails (and is retried) like a
+			// network error, reported later as the connector would
+			final TimerHandle[] failure = new TimerHandle[1];
+			failure[0] = services.schedule(0, new ScheduledAction() {
+				@Override
+				public void run() {
+					retries.remove(failure[0]);
+					listener.onError(entry.getRequest(), e);
+				}
+			});
+			retries.add(failure[0]);
 		}
 		getStreamSettings().lastRequestTime = services.getCurrentTime();
 	}
 
+	/**
+	 * The responses are parsed lazily: the stanzas are only decoded as far as
+	 * the handlers read them. The XML service parses what the lazy parser
+	 * doesn't support
+	 */
+	private IPacket parseResponse(final String content) {
+		final IPacket response = LazyPacket.parse(content);
+		return response != null ? response : services.toXML(content);
+	}
+
+	/**
+	 * Render the packet in a single pass into the (reused) render buffer
+	 * 
+	 * @return the render buffer
+	 */
+	private StringBuilder render(final IPacket packet) {
+		renderBuffer.setLength(0);
+		PacketRenderer.render(packet, renderBuffer);
+		return renderBuffer;
+	}
+
 	private void sendBody() {
 		sendBody(false);
 	}
 
 	private void sendBody(final boolean force) {
 		// TODO: better semantics
-		if (force || !shouldCollectResponses && isActive() && activeConnections < getConnectionSettings().maxRequests && !hasErrors()) {
-			final String request = services.toString(getCurrentBody());
+		// Errored requests are retried on their own, so they don't stop new requests (up to maxRequests)
+		// unless the circuit is open: nothing new is sent until the probe succeeds
+		if (force || !shouldCollectResponses && isActive() && endpoint != null && breaker.isClosed() && activeConnections < getConnectionSettings().maxRequests) {
+			final Packet body = getCurrentBody();
+			final BoshStream stream = lanes.isEmpty() && !isControlBody(body) ? nextReadyStream() : null;
+			boolean opening = false;
+			if (stream != null) {
+				opening = stream.fillBody(body, getConnectionSettings().hostName);
+				if (stream.hasPending()) {
+					readyStreams.add(stream);
+				}
+			} else {
+				lanes.drainInto(body);
+				if (streamName != null && (body.getChildrenCount() > 0 || body.hasAttribute("xmpp:restart")) && hasOpenStreams()) {
+					body.setAttribute("stream", streamName);
+				}
+			}
+			final long rid = parseRid(body.getAttribute("rid"), -1);
+			final long ack = ledger.getAckFor(rid);
+			if (ack != -1) {
+				body.With("ack", ack);
+			}
+			final String request = render(body).toString();
 			setCurrentBody(null);
-			send(request);
+			final int stanzas = body.getChildrenCount();
+			coalescing.bodySent(stanzas);
+			if (stanzas > 1) {
+				logger.finer("Sending " + stanzas + " stanzas in request " + rid);
+			}
+			final RequestLedger.Entry entry = ledger.add(rid, request);
+			entry.setStanzas(stanzas);
+			if (opening) {
+				openingStreams.put(rid, stream);
+			}
+			send(entry);
+			getLiveMetrics().setQueued(lanes.size());
+			if (!lanes.isEmpty()) {
+				// The stanzas out of the byte budget go in the next body
+				logger.finer(lanes.size() + " stanzas wait for the next request");
+				createBodyIfNeeded();
+			} else if (hasPendingStreams()) {
+				createBodyIfNeeded();
+			}
 		} else {
 			logger.finer("Send body simply queued");
+			getLiveMetrics().recordQueued(lanes.size());
 		}
 	}
 	
 	@Override
 	public boolean hasErrors() {
-		return !erroredRequests.isEmpty();
+		return ledger.hasErrors();
 	}
 
 	@Override
 	public void clearErrors() {
 		super.clearErrors();
 		
-		this.erroredRequests.clear();
+		ledger.clearErrors();
 	}
 	
 	/**
@@ -0,0 +1,240 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.conn;
+
+/**
+ * Transport metrics of a connection: rolling histograms of the round trip
+ * time, the hold time and the queue depth, plus request, stanza and byte
+ * counters.
+ * 
+ * The connection updates its live metrics; XmppConnection.getMetrics() and
+ * ConnectionMetricsEvent give snapshots (copies) of them. The byte counters
+ * count the characters of the serialized requests and responses.
+ */
+public class ConnectionMetrics {
+
+	public static final int DEFAULT_WINDOW = 100;
+
+	private final RollingHistogram roundTrip;
+	private final RollingHistogram hold;
+	private final RollingHistogram queueDepth;
+	private long requestsSent;
+	private long retransmissions;
+	private long responsesReceived;
+	private long errors;
+	private long bytesSent;
+	private long bytesReceived;
+	private long stanzasSent;
+	private long stanzasReceived;
+	private int queued;
+	private int waitMillis;
+
+	public ConnectionMetrics() {
+		this(DEFAULT_WINDOW);
+	}
+
+	/**
+	 * @param window
+	 *            the number of samples kept by each histogram
+	 */
+	public ConnectionMetrics(final int window) {
+		roundTrip = new RollingHistogram(window);
+		hold = new RollingHistogram(window);
+		queueDepth = new RollingHistogram(window);
+	}
+
+	private ConnectionMetrics(final ConnectionMetrics other) {
+		roundTrip = other.roundTrip.copy();
+		hold = other.hold.copy();
+		queueDepth = other.queueDepth.copy();
+		requestsSent = other.requestsSent;
+		retransmissions = other.retransmissions;
+		responsesReceived = other.responsesReceived;
+		errors = other.errors;
+		bytesSent = other.bytesSent;
+		bytesReceived = other.bytesReceived;
+		stanzasSent = other.stanzasSent;
+		stanzasReceived = other.stanzasReceived;
+		queued = other.queued;
+		waitMillis = other.waitMillis;
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return the time the empty (polling) requests were held by the
+	 *         connection manager
+	 */
+	public RollingHistogram getHold() {
+		return hold;
+	}
+
+	/**
+	 * @return the mean hold time divided by the 'wait' of the session (0 if
+	 *         unknown). Close to 1 means the sessions are mostly idle; close to
+	 *         0 means the held requests are answered quickly
+	 */
+	public double getHoldUtilization() {
+		return waitMillis <= 0 ? 0 : hold.getMean() / waitMillis;
+	}
+
+	/**
+	 * @return the number of stanzas waiting for a free connection
+	 */
+	public int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * @return the number of stanzas waiting each time a body could not be sent
+	 *         because all the connections were busy
+	 */
+	public RollingHistogram getQueueDepth() {
+		return queueDepth;
+	}
+
+	public long getRequestsSent() {
+		return requestsSent;
+	}
+
+	public long getResponsesReceived() {
+		return responsesReceived;
+	}
+
+	public long getRetransmissions() {
+		return retransmissions;
+	}
+
+	/**
+	 * @return the time between sending the requests with stanzas and
+	 *         receiving their responses
+	 */
+	public RollingHistogram getRoundTrip() {
+		return roundTrip;
+	}
+
+	public long getStanzasReceived() {
+		return stanzasReceived;
+	}
+
+	public long getStanzasSent() {
+		return stanzasSent;
+	}
+
+	public void recordError() {
+		errors++;
+	}
+
+	/**
+	 * @param depth
+	 *            the stanzas waiting because all the connections are busy
+	 */
+	public void recordQueued(final int depth) {
+		queued = depth;
+		queueDepth.add(depth);
+	}
+
+	/**
+	 * @param length
+	 *            the length of the request
+	 * @param stanzas
+	 *            the number of stanzas in the request
+	 * @param retransmission
+	 *            true if the request was sent before
+	 */
+	public void recordRequest(final int length, final int stanzas, final boolean retransmission) {
+		requestsSent++;
+		bytesSent += length;
+		if (retransmission) {
+			retransmissions++;
+		} else {
+			stanzasSent += stanzas;
+		}
+	}
+
+	/**
+	 * @param heldMillis
+	 *            the time an empty request was held by the connection manager
+	 */
+	public void recordHold(final int heldMillis) {
+		hold.add(heldMillis);
+	}
+
+	/**
+	 * @param length
+	 *            the length of the response
+	 * @param stanzas
+	 *            the number of stanzas received
+	 */
+	public void recordResponse(final int length, final int stanzas) {
+		responsesReceived++;
+		bytesReceived += length;
+		stanzasReceived += stanzas;
+	}
+
+	/**
+	 * @param elapsedMillis
+	 *            the time between sending a request with stanzas and receiving
+	 *            its response
+	 */
+	public void recordRoundTrip(final int elapsedMillis) {
+		roundTrip.add(elapsedMillis);
+	}
+
+	/**
+	 * @param queued
+	 *            the stanzas waiting to be sent
+	 */
+	public void setQueued(final int queued) {
+		this.queued = queued;
+	}
+
+	/**
+	 * @param waitMillis
+	 *            the 'wait' of the session
+	 */
+	public void setWaitMillis(final int waitMillis) {
+		this.waitMillis = waitMillis;
+	}
+
+	/**
+	 * @return a copy of the current metrics
+	 */
+	public ConnectionMetrics snapshot() {
+		return new ConnectionMetrics(this);
+	}
+
+	@Override
+	public String toString() {
+		return "requests=" + requestsSent + " retransmissions=" + retransmissions + " errors=" + errors + " sent=" + bytesSent + " received="
+				+ bytesReceived + " rtt(" + roundTrip + ") hold(" + hold + ") queue(" + queueDepth + ")";
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.conn;
+
+import com.calclab.emite.core.client.events.EmiteEventBus;
+import com.google.gwt.event.shared.GwtEvent;
+import com.google.gwt.event.shared.HandlerRegistration;
+
+/**
+ * A snapshot of the connection metrics. Only fired when there are handlers.
+ */
+public class ConnectionMetricsEvent extends GwtEvent<ConnectionMetricsHandler> {
+
+	private static final Type<ConnectionMetricsHandler> TYPE = new Type<ConnectionMetricsHandler>();
+
+	public static HandlerRegistration bind(final EmiteEventBus eventBus, final ConnectionMetricsHandler handler) {
+		return eventBus.addHandler(TYPE, handler);
+	}
+
+	/**
+	 * @param eventBus
+	 *            the event bus
+	 * @return true if someone listens to the metrics
+	 */
+	public static boolean isHandled(final EmiteEventBus eventBus) {
+		return eventBus.isEventHandled(TYPE);
+	}
+
+	private final ConnectionMetrics metrics;
+
+	public ConnectionMetricsEvent(final ConnectionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public Type<ConnectionMetricsHandler> getAssociatedType() {
+		return TYPE;
+	}
+
+	public ConnectionMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public String toDebugString() {
+		return super.toDebugString() + metrics;
+	}
+
+	@Override
+	protected void dispatch(final ConnectionMetricsHandler handler) {
+		handler.onMetrics(this);
+	}
+
+}
@@ -20,6 +20,10 @@
 
 package com.calclab.emite.core.client.conn;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class ConnectionSettings {
 	public static String BOSH_VERSION = "1.6";
 	public static int DEFAULT_WAIT = 60;
@@ -27,7 +31,11 @@ public class ConnectionSettings {
 	public static int DEFAULT_MAX_REQUESTS = 2;
 	
     public final String hostName;
-    public final String httpBase;
+    public final String httpBase;
+    /**
+     * The connection manager urls, by preference. httpBase is the first one
+     */
+    public final List<String> endpoints;
     public final String version;
     public final int maxRequests;
     public final int hold;
@@ -46,7 +54,32 @@ public class ConnectionSettings {
 
 	public ConnectionSettings(final String httpBase, final String hostName, final String version, final int wait, final int hold, final int maxRequests,
 			final String routeHost, final Integer routePort, final boolean secure) {
-		this.httpBase = httpBase;
+		this(Collections.singletonList(httpBase), hostName, version, wait, hold, maxRequests, routeHost, routePort, secure);
+	}
+
+	/**
+	 * Settings with several equivalent connection managers: the connection
+	 * uses the healthiest one (with the lowest latency) and fails over to
+	 * the others
+	 * 
+	 * @param endpoints
+	 *            the connection manager urls (at least one)
+	 */
+	public ConnectionSettings(final List<String> endpoints, final String hostName) {
+		this(endpoints, hostName, BOSH_VERSION, DEFAULT_WAIT, DEFAULT_HOLD, DEFAULT_MAX_REQUESTS, null, null, true);
+	}
+
+	public ConnectionSettings(final List<String> endpoints, final String hostName, final Integer wait, final Integer hold, final String routeHost,
+			final Integer routePort, final boolean secure) {
+		this(endpoints, hostName, BOSH_VERSION, wait == null ? DEFAULT_WAIT : wait, hold == null ? DEFAULT_HOLD : hold, DEFAULT_MAX_REQUESTS, routeHost,
+				routePort, secure);
+	}
+
+	public ConnectionSettings(final List<String> endpoints, final String hostName, final String version, final int wait, final int hold,
+			final int maxRequests, final String routeHost, final Integer routePort, final boolean secure) {
+		assert !endpoints.isEmpty() : "At least one endpoint is required";
+		this.endpoints = Collections.unmodifiableList(new ArrayList<String>(endpoints));
+		this.httpBase = endpoints.get(0);
 		this.hostName = hostName;
 		this.version = version;
 		this.wait = wait;
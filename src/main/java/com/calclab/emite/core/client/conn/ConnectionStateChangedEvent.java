@@ -41,7 +41,20 @@ public class ConnectionStateChangedEvent extends GwtEvent<ConnectionStateChanged
 		/**
 		 * The connection will try to re-connect in the given milliseconds
 		 */
-		public static String waitingForRetry = "waitingForRetry";
+		public static final String waitingForRetry = "waitingForRetry";
+		/**
+		 * Too many consecutive errors: the retries are suspended and a single
+		 * probe will be sent in the given milliseconds
+		 */
+		public static final String circuitOpen = "circuitOpen";
+		/**
+		 * The probe request has been sent
+		 */
+		public static final String circuitHalfOpen = "circuitHalfOpen";
+		/**
+		 * The probe succeeded: the suspended requests are sent again
+		 */
+		public static final String circuitClosed = "circuitClosed";
 	}
 
 	private static final Type<ConnectionStateChangedHandler> TYPE = new Type<ConnectionStateChangedHandler>();
@@ -0,0 +1,141 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.conn;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the last samples of a measure (a fixed size ring buffer) and the
+ * total count of samples
+ */
+public class RollingHistogram {
+
+	private final int[] samples;
+	private int next;
+	private int size;
+	private long count;
+
+	/**
+	 * @param capacity
+	 *            the number of samples kept
+	 */
+	public RollingHistogram(final int capacity) {
+		samples = new int[capacity];
+	}
+
+	public void add(final int sample) {
+		samples[next] = sample;
+		next = (next + 1) % samples.length;
+		if (size < samples.length) {
+			size++;
+		}
+		count++;
+	}
+
+	public RollingHistogram copy() {
+		final RollingHistogram copy = new RollingHistogram(samples.length);
+		System.arraycopy(samples, 0, copy.samples, 0, samples.length);
+		copy.next = next;
+		copy.size = size;
+		copy.count = count;
+		return copy;
+	}
+
+	/**
+	 * @return the number of samples ever added
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the last sample, or 0 if there are no samples
+	 */
+	public int getLast() {
+		return size == 0 ? 0 : samples[(next + samples.length - 1) % samples.length];
+	}
+
+	/**
+	 * @return the biggest sample in the window, or 0 if there are no samples
+	 */
+	public int getMax() {
+		int max = 0;
+		for (int index = 0; index < size; index++) {
+			max = index == 0 ? samples[0] : Math.max(max, samples[index]);
+		}
+		return max;
+	}
+
+	/**
+	 * @return the mean of the samples in the window, or 0 if there are no
+	 *         samples
+	 */
+	public double getMean() {
+		if (size == 0) {
+			return 0;
+		}
+		long sum = 0;
+		for (int index = 0; index < size; index++) {
+			sum += samples[index];
+		}
+		return (double) sum / size;
+	}
+
+	/**
+	 * @return the smallest sample in the window, or 0 if there are no samples
+	 */
+	public int getMin() {
+		int min = 0;
+		for (int index = 0; index < size; index++) {
+			min = index == 0 ? samples[0] : Math.min(min, samples[index]);
+		}
+		return min;
+	}
+
+	/**
+	 * @param percentile
+	 *            the percentile (between 0 and 100)
+	 * @return the sample value below which the given percentage of the samples
+	 *         in the window fall, or 0 if there are no samples
+	 */
+	public int getPercentile(final double percentile) {
+		if (size == 0) {
+			return 0;
+		}
+		final int[] sorted = new int[size];
+		System.arraycopy(samples, 0, sorted, 0, size);
+		Arrays.sort(sorted);
+		final int rank = (int) Math.ceil(percentile / 100 * size) - 1;
+		return sorted[Math.max(0, Math.min(size - 1, rank))];
+	}
+
+	/**
+	 * @return the number of samples in the window
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "n=" + count + " min=" + getMin() + " mean=" + (int) getMean() + " p95=" + getPercentile(95) + " max=" + getMax();
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.conn;
+
+import com.calclab.emite.core.client.events.EmiteEventBus;
+import com.google.gwt.event.shared.GwtEvent;
+import com.google.gwt.event.shared.HandlerRegistration;
+
+/**
+ * Fired before and after the connection dispatches the stanzas received in
+ * one response, so the handlers can gather the changes of the whole batch and
+ * notify them once. Only fired when there are handlers.
+ */
+public class StanzaBatchEvent extends GwtEvent<StanzaBatchHandler> {
+
+	public static enum BatchStates {
+		started, finished
+	}
+
+	private static final Type<StanzaBatchHandler> TYPE = new Type<StanzaBatchHandler>();
+
+	public static HandlerRegistration bind(final EmiteEventBus eventBus, final StanzaBatchHandler handler) {
+		return eventBus.addHandler(TYPE, handler);
+	}
+
+	/**
+	 * @param eventBus
+	 *            the event bus
+	 * @return true if someone listens to the batches
+	 */
+	public static boolean isHandled(final EmiteEventBus eventBus) {
+		return eventBus.isEventHandled(TYPE);
+	}
+
+	private final BatchStates state;
+	private final int size;
+
+	/**
+	 * @param state
+	 *            started or finished
+	 * @param size
+	 *            the number of stanzas of the batch
+	 */
+	public StanzaBatchEvent(final BatchStates state, final int size) {
+		this.state = state;
+		this.size = size;
+	}
+
+	@Override
+	public Type<StanzaBatchHandler> getAssociatedType() {
+		return TYPE;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public BatchStates getState() {
+		return state;
+	}
+
+	public boolean isStarted() {
+		return state == BatchStates.started;
+	}
+
+	@Override
+	public String toDebugString() {
+		return super.toDebugString() + state + " " + size;
+	}
+
+	@Override
+	protected void dispatch(final StanzaBatchHandler handler) {
+		handler.onStanzaBatch(this);
+	}
+
+}
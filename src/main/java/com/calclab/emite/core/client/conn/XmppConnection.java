@@ -38,6 +38,15 @@ public interface XmppConnection {
 	 */
 	public HandlerRegistration addConnectionResponseHandler(ConnectionResponseHandler handler);
 
+	/**
+	 * Add a handler to receive snapshots of the transport metrics. The
+	 * snapshots are only taken while there are handlers
+	 * 
+	 * @param handler
+	 * @return
+	 */
+	public HandlerRegistration addConnectionMetricsHandler(ConnectionMetricsHandler handler);
+
 	/**
 	 * Add a handler to know when the state of the connection has changed
 	 * 
@@ -89,6 +98,14 @@ public interface XmppConnection {
 	 */
 	public StreamSettings getStreamSettings();
 
+	/**
+	 * Get a snapshot of the transport metrics (round trip and hold times,
+	 * queue depth, bytes...)
+	 * 
+	 * @return a copy of the current metrics
+	 */
+	public ConnectionMetrics getMetrics();
+
 	/**
 	 * A way to know if the connection has errors
 	 * 
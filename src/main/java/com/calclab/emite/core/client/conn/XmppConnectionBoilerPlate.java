@@ -38,15 +38,31 @@ public abstract class XmppConnectionBoilerPlate implements XmppConnection {
 
 	private static final Logger logger = Logger.getLogger(XmppConnectionBoilerPlate.class.getName());
 	
+	/**
+	 * The minimum milliseconds between two metrics events
+	 */
+	public static final int DEFAULT_METRICS_INTERVAL_MILLIS = 5000;
+	
 	protected final EmiteEventBus eventBus;
 	private int errors;
 	private boolean active;
 	private StreamSettings stream;
 	private Packet currentBody;
 	private ConnectionSettings connectionSettings;
+	private final ConnectionMetrics metrics;
+	private int metricsIntervalMillis;
+	private long lastMetricsTime;
 
 	public XmppConnectionBoilerPlate(final EmiteEventBus eventBus) {
 		this.eventBus = eventBus;
+		metrics = new ConnectionMetrics();
+		metricsIntervalMillis = DEFAULT_METRICS_INTERVAL_MILLIS;
+		lastMetricsTime = -1;
+	}
+
+	@Override
+	public HandlerRegistration addConnectionMetricsHandler(final ConnectionMetricsHandler handler) {
+		return ConnectionMetricsEvent.bind(eventBus, handler);
 	}
 
 	@Override
@@ -86,6 +102,11 @@ public abstract class XmppConnectionBoilerPlate implements XmppConnection {
 		return stream;
 	}
 
+	@Override
+	public ConnectionMetrics getMetrics() {
+		return metrics.snapshot();
+	}
+
 	@Override
 	public boolean hasErrors() {
 		return errors != 0;
@@ -96,6 +117,14 @@ public abstract class XmppConnectionBoilerPlate implements XmppConnection {
 		return errors;
 	}
 
+	/**
+	 * @param metricsIntervalMillis
+	 *            the minimum milliseconds between two metrics events
+	 */
+	public void setMetricsInterval(final int metricsIntervalMillis) {
+		this.metricsIntervalMillis = metricsIntervalMillis;
+	}
+
 	@Override
 	public void setSettings(final ConnectionSettings settings) {
 		logger.finer("Setting connection settings.");
@@ -114,6 +143,20 @@ public abstract class XmppConnectionBoilerPlate implements XmppConnection {
 		eventBus.fireEvent(new ConnectionStateChangedEvent(ConnectionState.error, error));
 	}
 
+	/**
+	 * Fire a metrics snapshot, if there are handlers and the metrics interval
+	 * has passed since the last one
+	 * 
+	 * @param now
+	 *            the current time
+	 */
+	protected void fireMetrics(final long now) {
+		if ((lastMetricsTime == -1 || now - lastMetricsTime >= metricsIntervalMillis) && ConnectionMetricsEvent.isHandled(eventBus)) {
+			lastMetricsTime = now;
+			eventBus.fireEvent(new ConnectionMetricsEvent(metrics.snapshot()));
+		}
+	}
+
 	protected void fireResponse(final String response) {
 		eventBus.fireEvent(new ConnectionResponseEvent(response));
 	}
@@ -123,6 +166,16 @@ public abstract class XmppConnectionBoilerPlate implements XmppConnection {
 				+ " milliseconds.", scedTime));
 	}
 
+	/**
+	 * Tell the batch handlers (if any) that the stanzas of a response are
+	 * about to be dispatched or were dispatched
+	 */
+	protected void fireStanzaBatch(final StanzaBatchEvent.BatchStates state, final int size) {
+		if (StanzaBatchEvent.isHandled(eventBus)) {
+			eventBus.fireEvent(new StanzaBatchEvent(state, size));
+		}
+	}
+
 	protected void fireStanzaReceived(final IPacket stanza) {
 		eventBus.fireEvent(new StanzaReceivedEvent(stanza));
 	}
@@ -131,6 +184,13 @@ public abstract class XmppConnectionBoilerPlate implements XmppConnection {
 		return connectionSettings;
 	}
 
+	/**
+	 * @return the metrics the connection updates
+	 */
+	protected ConnectionMetrics getLiveMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * @return the currentBody
 	 */
@@ -20,6 +20,8 @@
 
 package com.calclab.emite.core.client.events;
 
+import java.util.logging.Level;
+
 /**
  * EventBuses are created using this factory. This allow us to change the
  * default event bus (for example: different loggin or testing).
@@ -40,13 +42,20 @@ public class EventBusFactory {
 	/**
 	 * The default factory creates a Gwt event bus.
 	 */
-	private static Factory factory = new Factory() {
+	private static final Factory DEFAULT_FACTORY = new Factory() {
 		@Override
 		public EmiteEventBus create(final String eventBusName) {
 			return new GwtEmiteEventBus(eventBusName);
 		}
 	};
 
+	private static Factory factory = DEFAULT_FACTORY;
+
+	/**
+	 * The profiler of the new event buses (null by default: not profiled)
+	 */
+	private static EventBusProfiler profiler;
+
 	/**
 	 * Create an event bus with the given name
 	 * 
@@ -55,7 +64,35 @@ public class EventBusFactory {
 	 * @return a new event bus
 	 */
 	public static EmiteEventBus create(final String eventBusName) {
-		return EventBusFactory.factory.create(eventBusName);
+		final EmiteEventBus eventBus = EventBusFactory.factory.create(eventBusName);
+		if (profiler == null || eventBus instanceof FastEmiteEventBus) {
+			// the fast buses are profiled by themselves
+			return eventBus;
+		}
+		return new ProfilingEmiteEventBus(eventBus, eventBusName, profiler);
+	}
+
+	/**
+	 * Create the event bus of a scope (see ScopedEmiteEventBus). The scopes
+	 * come in large numbers, so unless the factory has been changed it is a
+	 * FastEmiteEventBus whose creation is only logged at FINE
+	 * 
+	 * @param eventBusName
+	 *            the scope name
+	 * @return a new event bus
+	 */
+	static EmiteEventBus createScoped(final String eventBusName) {
+		if (factory == DEFAULT_FACTORY) {
+			return new FastEmiteEventBus(eventBusName, Level.FINE);
+		}
+		return create(eventBusName);
+	}
+
+	/**
+	 * @return the profiler of the new event buses, or null
+	 */
+	public static EventBusProfiler getProfiler() {
+		return EventBusFactory.profiler;
 	}
 
 	/**
@@ -67,4 +104,18 @@ public class EventBusFactory {
 		EventBusFactory.factory = factory;
 	}
 
+	/**
+	 * Profile the event buses. Every FastEmiteEventBus is profiled at once
+	 * (including the ones already created); the buses of other kinds are
+	 * profiled when created from now on. The profiler can be disabled later
+	 * without recreating the buses
+	 * 
+	 * @param profiler
+	 *            the profiler, or null to stop profiling
+	 */
+	public static void setProfiler(final EventBusProfiler profiler) {
+		EventBusFactory.profiler = profiler;
+		FastEmiteEventBus.setProfiler(profiler);
+	}
+
 }
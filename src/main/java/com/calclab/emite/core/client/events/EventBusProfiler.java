@@ -0,0 +1,293 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.event.shared.GwtEvent;
+import com.google.gwt.event.shared.GwtEvent.Type;
+
+/**
+ * Collects the dispatch times of the profiled event buses: how many times
+ * each event type is fired and each handler class is called, and how long
+ * they take (cumulative and maximum). The handlers that take longer than the
+ * slow threshold are counted (and logged) as slow.
+ * 
+ * The handler times include the time of the events fired by the handler
+ * itself. The times are measured in fractions of millisecond with
+ * performance.now() in the browser (when available); outside the browser use
+ * JVMEventBusProfiler, that measures them with System.nanoTime. To profile
+ * the event buses:
+ * 
+ * <pre>
+ * final EventBusProfiler profiler = new EventBusProfiler();
+ * EventBusFactory.setProfiler(profiler);
+ * ...
+ * GWT.log(profiler.getReport());
+ * </pre>
+ * 
+ * @see FastEmiteEventBus
+ * @see ProfilingEmiteEventBus
+ * @see EventBusFactory#setProfiler(EventBusProfiler)
+ */
+public class EventBusProfiler {
+
+	/**
+	 * The times of an event type or a handler class
+	 */
+	public static class Stats {
+		private final String name;
+		private int count;
+		private double totalMillis;
+		private double maxMillis;
+		private int slowCount;
+
+		public Stats(final String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return the number of dispatches
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		public double getMaxMillis() {
+			return maxMillis;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the number of dispatches over the slow threshold
+		 */
+		public int getSlowCount() {
+			return slowCount;
+		}
+
+		public double getTotalMillis() {
+			return totalMillis;
+		}
+
+		@Override
+		public String toString() {
+			return name + " count=" + count + " total=" + round(totalMillis) + "ms max=" + round(maxMillis) + "ms slow=" + slowCount;
+		}
+
+		void record(final double millis, final boolean slow) {
+			count++;
+			totalMillis += millis;
+			maxMillis = Math.max(maxMillis, millis);
+			if (slow) {
+				slowCount++;
+			}
+		}
+	}
+
+	public static final int DEFAULT_SLOW_THRESHOLD_MILLIS = 50;
+
+	private static final Logger logger = Logger.getLogger(EventBusProfiler.class.getName());
+
+	private static final Comparator<Stats> BY_TOTAL_TIME = new Comparator<Stats>() {
+		@Override
+		public int compare(final Stats a, final Stats b) {
+			return a.totalMillis < b.totalMillis ? 1 : a.totalMillis > b.totalMillis ? -1 : b.count - a.count;
+		}
+	};
+
+	private final HashMap<Type<?>, Stats> typeStats;
+	private final HashMap<String, Stats> handlerStats;
+	private boolean enabled;
+	private int slowThresholdMillis;
+
+	public EventBusProfiler() {
+		this(DEFAULT_SLOW_THRESHOLD_MILLIS);
+	}
+
+	/**
+	 * @param slowThresholdMillis
+	 *            the time (in milliseconds) over which a handler is slow (0 to
+	 *            disable)
+	 */
+	public EventBusProfiler(final int slowThresholdMillis) {
+		this.slowThresholdMillis = slowThresholdMillis;
+		typeStats = new HashMap<Type<?>, Stats>();
+		handlerStats = new HashMap<String, Stats>();
+		enabled = true;
+	}
+
+	/**
+	 * @return the handler classes, the slowest (by cumulative time) first
+	 */
+	public List<Stats> getHandlerStats() {
+		return sorted(handlerStats);
+	}
+
+	/**
+	 * A report of the event types and the handler classes, the slowest first
+	 * 
+	 * @return the report text
+	 */
+	public String getReport() {
+		final StringBuilder report = new StringBuilder();
+		report.append("Event bus profile (slow threshold ").append(slowThresholdMillis).append("ms)\n");
+		report.append("Event types:\n");
+		for (final Stats stats : getTypeStats()) {
+			report.append("  ").append(stats).append("\n");
+		}
+		report.append("Handlers:\n");
+		for (final Stats stats : getHandlerStats()) {
+			report.append("  ").append(stats).append(stats.slowCount > 0 ? " SLOW\n" : "\n");
+		}
+		return report.toString();
+	}
+
+	public int getSlowThresholdMillis() {
+		return slowThresholdMillis;
+	}
+
+	/**
+	 * @return the handler classes that have been slow at least once, the
+	 *         slowest first
+	 */
+	public List<Stats> getSlowHandlers() {
+		final ArrayList<Stats> slow = new ArrayList<Stats>();
+		for (final Stats stats : getHandlerStats()) {
+			if (stats.slowCount > 0) {
+				slow.add(stats);
+			}
+		}
+		return slow;
+	}
+
+	/**
+	 * @return the event types, the slowest (by cumulative time) first
+	 */
+	public List<Stats> getTypeStats() {
+		return sorted(typeStats);
+	}
+
+	/**
+	 * A disabled profiler doesn't record anything: the profiled buses just
+	 * fire the events
+	 * 
+	 * @return true if the profiler records
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Forget everything recorded until now
+	 */
+	public void reset() {
+		typeStats.clear();
+		handlerStats.clear();
+	}
+
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public void setSlowThresholdMillis(final int slowThresholdMillis) {
+		this.slowThresholdMillis = slowThresholdMillis;
+	}
+
+	/**
+	 * The clock of the profiler (milliseconds, with fractions where the
+	 * browser has a high resolution clock)
+	 * 
+	 * @return the current time
+	 */
+	protected double getCurrentTime() {
+		return GWT.isScript() ? now() : System.currentTimeMillis();
+	}
+
+	/**
+	 * Record a dispatch of an event
+	 * 
+	 * @param event
+	 *            the event fired
+	 * @param millis
+	 *            the time spent by all the handlers of the event
+	 */
+	void recordEvent(final GwtEvent<?> event, final double millis) {
+		final Type<?> type = event.getAssociatedType();
+		Stats stats = typeStats.get(type);
+		if (stats == null) {
+			stats = new Stats(event.getClass().getName());
+			typeStats.put(type, stats);
+		}
+		stats.record(millis, false);
+	}
+
+	/**
+	 * Record a call to a handler
+	 * 
+	 * @param event
+	 *            the event dispatched
+	 * @param handler
+	 *            the handler called
+	 * @param millis
+	 *            the time spent by the handler
+	 */
+	void recordHandler(final GwtEvent<?> event, final Object handler, final double millis) {
+		final String name = handler.getClass().getName();
+		Stats stats = handlerStats.get(name);
+		if (stats == null) {
+			stats = new Stats(name);
+			handlerStats.put(name, stats);
+		}
+		final boolean slow = slowThresholdMillis > 0 && millis > slowThresholdMillis;
+		if (slow) {
+			logger.warning("Slow handler " + name + ": " + round(millis) + "ms handling " + event.getClass().getName());
+		}
+		stats.record(millis, slow);
+	}
+
+	private static native double now() /*-{
+		var performance = $wnd.performance;
+		return performance && performance.now ? performance.now() : new Date().getTime();
+	}-*/;
+
+	/**
+	 * @return the time rounded to microseconds
+	 */
+	private static double round(final double millis) {
+		return Math.round(millis * 1000) / 1000.0;
+	}
+
+	private static List<Stats> sorted(final HashMap<?, Stats> stats) {
+		final ArrayList<Stats> list = new ArrayList<Stats>(stats.values());
+		Collections.sort(list, BY_TOTAL_TIME);
+		return list;
+	}
+
+}
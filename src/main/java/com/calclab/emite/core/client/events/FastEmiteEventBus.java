@@ -0,0 +1,347 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.events;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gwt.event.shared.EventBus;
+import com.google.gwt.event.shared.EventHandler;
+import com.google.gwt.event.shared.GwtEvent;
+import com.google.gwt.event.shared.GwtEvent.Type;
+import com.google.gwt.event.shared.HandlerRegistration;
+import com.google.gwt.event.shared.UmbrellaException;
+
+/**
+ * An event bus for high event rates. The handlers of each event type are kept
+ * in an array that is copied when a handler is added or removed (copy on
+ * write), so firing an event only reads the array: no map lookups, no
+ * deferred add/remove queues and no allocations. The handlers added or
+ * removed while an event is dispatched take effect from the next event, like
+ * in the GWT HandlerManager.
+ * 
+ * The arrays are found by the event type hash code (an unique sequential
+ * index in GWT), checking the type identity. The debug description of the
+ * events is only built when the FINER level is logged.
+ * 
+ * The handlers added to a source have their own arrays (by source) and are
+ * only called by the events fired from that source, before the handlers of
+ * the type, like in the GWT SimpleEventBus.
+ * 
+ * While a profiler is set (see EventBusFactory.setProfiler) every fast bus,
+ * including the ones already created, times its handlers in it.
+ * 
+ * It works outside GWT too. To use it:
+ * 
+ * <pre>
+ * EventBusFactory.setFactory(FastEmiteEventBus.FACTORY);
+ * </pre>
+ */
+public class FastEmiteEventBus extends EventBus implements EmiteEventBus {
+
+	/**
+	 * The handlers of an event type (and the handlers by source, if any)
+	 */
+	private static class Slot {
+		final Type<?> type;
+		EventHandler[] handlers;
+		HashMap<Object, EventHandler[]> sourceHandlers;
+
+		Slot(final Type<?> type) {
+			this.type = type;
+			handlers = NO_HANDLERS;
+		}
+	}
+
+	public static final EventBusFactory.Factory FACTORY = new EventBusFactory.Factory() {
+		@Override
+		public EmiteEventBus create(final String eventBusName) {
+			return new FastEmiteEventBus(eventBusName);
+		}
+	};
+
+	private static final Logger logger = Logger.getLogger(FastEmiteEventBus.class.getName());
+	private static final EventHandler[] NO_HANDLERS = new EventHandler[0];
+	private static final int MAX_INDEXED_TYPES = 1024;
+
+	/**
+	 * The profiler of all the fast buses, or null
+	 */
+	private static EventBusProfiler profiler;
+
+	/**
+	 * Profile all the fast buses (already created or not)
+	 * 
+	 * @param profiler
+	 *            the profiler, or null to stop profiling
+	 */
+	static void setProfiler(final EventBusProfiler profiler) {
+		FastEmiteEventBus.profiler = profiler;
+	}
+
+	private final String eventBusName;
+	private Slot[] slots;
+	private final HashMap<Type<?>, Slot> otherSlots;
+
+	public FastEmiteEventBus(final String eventBusName) {
+		this(eventBusName, Level.INFO);
+	}
+
+	/**
+	 * @param creationLevel
+	 *            the level used to log the creation of the bus
+	 */
+	FastEmiteEventBus(final String eventBusName, final Level creationLevel) {
+		this.eventBusName = eventBusName;
+		slots = new Slot[64];
+		otherSlots = new HashMap<Type<?>, Slot>();
+		logger.log(creationLevel, "New EventBus: " + eventBusName);
+	}
+
+	@Override
+	public <H extends EventHandler> HandlerRegistration addHandler(final Type<H> type, final H handler) {
+		final Slot slot = getSlot(type, true);
+		slot.handlers = add(slot.handlers, handler);
+		return new HandlerRegistration() {
+			@Override
+			public void removeHandler() {
+				FastEmiteEventBus.this.removeHandler(slot, handler);
+			}
+		};
+	}
+
+	@Override
+	public <H extends EventHandler> HandlerRegistration addHandlerToSource(final Type<H> type, final Object source, final H handler) {
+		if (source == null) {
+			throw new NullPointerException("Cannot add a handler with a null source");
+		}
+		final Slot slot = getSlot(type, true);
+		if (slot.sourceHandlers == null) {
+			slot.sourceHandlers = new HashMap<Object, EventHandler[]>();
+		}
+		final EventHandler[] current = slot.sourceHandlers.get(source);
+		slot.sourceHandlers.put(source, add(current != null ? current : NO_HANDLERS, handler));
+		return new HandlerRegistration() {
+			@Override
+			public void removeHandler() {
+				FastEmiteEventBus.this.removeHandler(slot, source, handler);
+			}
+		};
+	}
+
+	@Override
+	public void fireEvent(final GwtEvent<?> event) {
+		if (logger.isLoggable(Level.FINER)) {
+			logger.finer("[" + eventBusName + "] " + event.toDebugString());
+		}
+		final Slot slot = getSlot(event.getAssociatedType(), false);
+		if (slot != null) {
+			fire(event, null, slot.handlers);
+		}
+	}
+
+	@Override
+	public void fireEventFromSource(final GwtEvent<?> event, final Object source) {
+		final Object oldSource = event.getSource();
+		setSourceOfEvent(event, source);
+		try {
+			final Slot slot = getSlot(event.getAssociatedType(), false);
+			if (slot != null && slot.sourceHandlers != null && source != null) {
+				if (logger.isLoggable(Level.FINER)) {
+					logger.finer("[" + eventBusName + "] " + event.toDebugString());
+				}
+				fire(event, slot.sourceHandlers.get(source), slot.handlers);
+			} else {
+				fireEvent(event);
+			}
+		} finally {
+			setSourceOfEvent(event, oldSource);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <H extends EventHandler> H getHandler(final Type<H> type, final int index) {
+		final Slot slot = getSlot(type, false);
+		if (slot == null || index >= slot.handlers.length) {
+			throw new IndexOutOfBoundsException("Handler " + index + " not found");
+		}
+		return (H) slot.handlers[index];
+	}
+
+	@Override
+	public int getHandlerCount(final Type<?> type) {
+		final Slot slot = getSlot(type, false);
+		return slot != null ? slot.handlers.length : 0;
+	}
+
+	/**
+	 * @return true if the type has handlers, or handlers added to a source
+	 */
+	@Override
+	public boolean isEventHandled(final Type<?> type) {
+		final Slot slot = getSlot(type, false);
+		return slot != null && (slot.handlers.length > 0 || slot.sourceHandlers != null && !slot.sourceHandlers.isEmpty());
+	}
+
+	@Override
+	public String toString() {
+		return "FastEmiteEventBus(" + eventBusName + ")";
+	}
+
+	/**
+	 * @return the causes, with the exceptions thrown by the handlers added
+	 */
+	@SuppressWarnings("unchecked")
+	private <H extends EventHandler> Set<Throwable> dispatch(final GwtEvent<H> event, final EventHandler[] handlers, Set<Throwable> causes) {
+		for (int i = 0; i < handlers.length; i++) {
+			try {
+				dispatchEvent(event, (H) handlers[i]);
+			} catch (final Throwable e) {
+				if (causes == null) {
+					causes = new HashSet<Throwable>();
+				}
+				causes.add(e);
+			}
+		}
+		return causes;
+	}
+
+	/**
+	 * Call the handlers of the source (if any) and then the handlers of the
+	 * type, timing them if profiled
+	 */
+	private void fire(final GwtEvent<?> event, final EventHandler[] sourceHandlers, final EventHandler[] handlers) {
+		final EventBusProfiler current = profiler;
+		if (current == null || !current.isEnabled()) {
+			final Set<Throwable> causes = sourceHandlers != null ? dispatch(event, sourceHandlers, null) : null;
+			throwCauses(dispatch(event, handlers, causes));
+		} else {
+			final double started = current.getCurrentTime();
+			Set<Throwable> causes = sourceHandlers != null ? profile(event, sourceHandlers, null, current) : null;
+			causes = profile(event, handlers, causes, current);
+			current.recordEvent(event, current.getCurrentTime() - started);
+			throwCauses(causes);
+		}
+	}
+
+	private Slot getSlot(final Type<?> type, final boolean create) {
+		final int index = type.hashCode();
+		if (index >= 0 && index < MAX_INDEXED_TYPES) {
+			final Slot slot = index < slots.length ? slots[index] : null;
+			if (slot != null && slot.type == type) {
+				return slot;
+			} else if (slot == null) {
+				// the types only go to the other slots when the index is taken
+				return create ? createSlot(type, index) : null;
+			}
+		}
+		Slot slot = otherSlots.get(type);
+		if (slot == null && create) {
+			slot = new Slot(type);
+			otherSlots.put(type, slot);
+		}
+		return slot;
+	}
+
+	private Slot createSlot(final Type<?> type, final int index) {
+		if (index >= slots.length) {
+			final Slot[] grown = new Slot[Math.min(MAX_INDEXED_TYPES, Math.max(index + 1, slots.length * 2))];
+			System.arraycopy(slots, 0, grown, 0, slots.length);
+			slots = grown;
+		}
+		final Slot slot = new Slot(type);
+		slots[index] = slot;
+		return slot;
+	}
+
+	/**
+	 * Like dispatch, recording the time of each handler in the profiler
+	 */
+	@SuppressWarnings("unchecked")
+	private <H extends EventHandler> Set<Throwable> profile(final GwtEvent<H> event, final EventHandler[] handlers, Set<Throwable> causes,
+			final EventBusProfiler profiler) {
+		for (int i = 0; i < handlers.length; i++) {
+			final double started = profiler.getCurrentTime();
+			try {
+				dispatchEvent(event, (H) handlers[i]);
+			} catch (final Throwable e) {
+				if (causes == null) {
+					causes = new HashSet<Throwable>();
+				}
+				causes.add(e);
+			} finally {
+				profiler.recordHandler(event, handlers[i], profiler.getCurrentTime() - started);
+			}
+		}
+		return causes;
+	}
+
+	private void removeHandler(final Slot slot, final EventHandler handler) {
+		slot.handlers = remove(slot.handlers, handler);
+	}
+
+	private void removeHandler(final Slot slot, final Object source, final EventHandler handler) {
+		final EventHandler[] current = slot.sourceHandlers.get(source);
+		if (current != null) {
+			final EventHandler[] handlers = remove(current, handler);
+			if (handlers.length == 0) {
+				slot.sourceHandlers.remove(source);
+			} else {
+				slot.sourceHandlers.put(source, handlers);
+			}
+		}
+	}
+
+	private static EventHandler[] add(final EventHandler[] current, final EventHandler handler) {
+		final EventHandler[] handlers = new EventHandler[current.length + 1];
+		System.arraycopy(current, 0, handlers, 0, current.length);
+		handlers[current.length] = handler;
+		return handlers;
+	}
+
+	/**
+	 * @return a copy without the handler, or the same array if not found
+	 */
+	private static EventHandler[] remove(final EventHandler[] current, final EventHandler handler) {
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == handler) {
+				if (current.length == 1) {
+					return NO_HANDLERS;
+				}
+				final EventHandler[] handlers = new EventHandler[current.length - 1];
+				System.arraycopy(current, 0, handlers, 0, i);
+				System.arraycopy(current, i + 1, handlers, i, current.length - i - 1);
+				return handlers;
+			}
+		}
+		return current;
+	}
+
+	private static void throwCauses(final Set<Throwable> causes) {
+		if (causes != null) {
+			throw new UmbrellaException(causes);
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.events;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gwt.event.shared.EventBus;
+import com.google.gwt.event.shared.EventHandler;
+import com.google.gwt.event.shared.GwtEvent;
+import com.google.gwt.event.shared.GwtEvent.Type;
+import com.google.gwt.event.shared.HandlerRegistration;
+import com.google.gwt.event.shared.UmbrellaException;
+
+/**
+ * An event bus that records the dispatch times of another bus in a profiler.
+ * The handlers are kept by the profiled bus; this bus calls them one by one
+ * (in the same order, and with the handlers present when the event is fired)
+ * to time each of them. While the profiler is disabled the events are fired
+ * by the profiled bus as usual.
+ * 
+ * The handlers added to a source are kept here, so they can be timed too.
+ * They are also added to the profiled bus if it is an EventBus; otherwise
+ * this bus calls them (before the handlers of the type, like the GWT
+ * SimpleEventBus) even while the profiler is disabled.
+ * 
+ * Created by EventBusFactory when a profiler is set, for the buses that don't
+ * profile themselves (the FastEmiteEventBus does).
+ * 
+ * @see EventBusProfiler
+ */
+public class ProfilingEmiteEventBus extends EventBus implements EmiteEventBus {
+
+	private static final Logger logger = Logger.getLogger(ProfilingEmiteEventBus.class.getName());
+
+	private final EmiteEventBus delegate;
+	private final String eventBusName;
+	private final EventBusProfiler profiler;
+	private final HashMap<Type<?>, HashMap<Object, ArrayList<EventHandler>>> sourceHandlers;
+
+	/**
+	 * @param delegate
+	 *            the profiled event bus
+	 * @param eventBusName
+	 *            the bus name: using for logging
+	 * @param profiler
+	 *            where the times are recorded
+	 */
+	public ProfilingEmiteEventBus(final EmiteEventBus delegate, final String eventBusName, final EventBusProfiler profiler) {
+		this.delegate = delegate;
+		this.eventBusName = eventBusName;
+		this.profiler = profiler;
+		sourceHandlers = new HashMap<Type<?>, HashMap<Object, ArrayList<EventHandler>>>();
+	}
+
+	@Override
+	public <H extends EventHandler> HandlerRegistration addHandler(final Type<H> type, final H handler) {
+		return delegate.addHandler(type, handler);
+	}
+
+	@Override
+	public <H extends EventHandler> HandlerRegistration addHandlerToSource(final Type<H> type, final Object source, final H handler) {
+		if (source == null) {
+			throw new NullPointerException("Cannot add a handler with a null source");
+		}
+		final HandlerRegistration registration = delegate instanceof EventBus ? ((EventBus) delegate).addHandlerToSource(type, source,
+				handler) : null;
+		HashMap<Object, ArrayList<EventHandler>> bySource = sourceHandlers.get(type);
+		if (bySource == null) {
+			bySource = new HashMap<Object, ArrayList<EventHandler>>();
+			sourceHandlers.put(type, bySource);
+		}
+		ArrayList<EventHandler> handlers = bySource.get(source);
+		if (handlers == null) {
+			handlers = new ArrayList<EventHandler>();
+			bySource.put(source, handlers);
+		}
+		handlers.add(handler);
+		final ArrayList<EventHandler> registered = handlers;
+		return new HandlerRegistration() {
+			@Override
+			public void removeHandler() {
+				if (registration != null) {
+					registration.removeHandler();
+				}
+				registered.remove(handler);
+			}
+		};
+	}
+
+	@Override
+	public void fireEvent(final GwtEvent<?> event) {
+		if (profiler.isEnabled()) {
+			if (logger.isLoggable(Level.FINER)) {
+				logger.finer("[" + eventBusName + "] " + event.toDebugString());
+			}
+			dispatch(event);
+		} else {
+			delegate.fireEvent(event);
+		}
+	}
+
+	@Override
+	public void fireEventFromSource(final GwtEvent<?> event, final Object source) {
+		if (!profiler.isEnabled() && delegate instanceof EventBus) {
+			((EventBus) delegate).fireEventFromSource(event, source);
+			return;
+		}
+		final Object oldSource = event.getSource();
+		setSourceOfEvent(event, source);
+		try {
+			if (profiler.isEnabled()) {
+				fireEvent(event);
+			} else {
+				fireUnprofiled(event);
+			}
+		} finally {
+			setSourceOfEvent(event, oldSource);
+		}
+	}
+
+	@Override
+	public <H extends EventHandler> H getHandler(final Type<H> type, final int index) {
+		return delegate.getHandler(type, index);
+	}
+
+	@Override
+	public int getHandlerCount(final Type<?> type) {
+		return delegate.getHandlerCount(type);
+	}
+
+	public EventBusProfiler getProfiler() {
+		return profiler;
+	}
+
+	@Override
+	public boolean isEventHandled(final Type<?> type) {
+		if (delegate.isEventHandled(type)) {
+			return true;
+		}
+		final HashMap<Object, ArrayList<EventHandler>> bySource = sourceHandlers.get(type);
+		if (bySource != null) {
+			for (final ArrayList<EventHandler> handlers : bySource.values()) {
+				if (!handlers.isEmpty()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "ProfilingEmiteEventBus(" + delegate + ")";
+	}
+
+	/**
+	 * Call the handlers of the source of the event (if any) and then the
+	 * handlers of the type, like the GWT SimpleEventBus
+	 */
+	/**
+	 * Fire an event (with its source set) without profiling, calling the
+	 * handlers of the source kept by this bus before the profiled bus
+	 */
+	@SuppressWarnings("unchecked")
+	private <H extends EventHandler> void fireUnprofiled(final GwtEvent<H> event) {
+		final ArrayList<EventHandler> ofSource = getSourceHandlers(event);
+		Set<Throwable> causes = null;
+		if (ofSource != null) {
+			for (final EventHandler handler : ofSource.toArray(new EventHandler[ofSource.size()])) {
+				try {
+					dispatchEvent(event, (H) handler);
+				} catch (final Throwable e) {
+					if (causes == null) {
+						causes = new HashSet<Throwable>();
+					}
+					causes.add(e);
+				}
+			}
+		}
+		try {
+			delegate.fireEvent(event);
+		} catch (final UmbrellaException e) {
+			if (causes == null) {
+				throw e;
+			}
+			causes.addAll(e.getCauses());
+		}
+		if (causes != null) {
+			throw new UmbrellaException(causes);
+		}
+	}
+
+	/**
+	 * @return the handlers added to the source of the event, or null
+	 */
+	private ArrayList<EventHandler> getSourceHandlers(final GwtEvent<?> event) {
+		final HashMap<Object, ArrayList<EventHandler>> bySource = event.getSource() != null ? sourceHandlers.get(event.getAssociatedType())
+				: null;
+		return bySource != null ? bySource.get(event.getSource()) : null;
+	}
+
+	private <H extends EventHandler> void dispatch(final GwtEvent<H> event) {
+		final Type<H> type = event.getAssociatedType();
+		final ArrayList<EventHandler> ofSource = getSourceHandlers(event);
+		final int sourceCount = ofSource != null ? ofSource.size() : 0;
+		final int count = delegate.getHandlerCount(type);
+		final EventHandler[] handlers = new EventHandler[sourceCount + count];
+		for (int i = 0; i < sourceCount; i++) {
+			handlers[i] = ofSource.get(i);
+		}
+		for (int i = 0; i < count; i++) {
+			handlers[sourceCount + i] = delegate.getHandler(type, i);
+		}
+
+		Set<Throwable> causes = null;
+		final double started = profiler.getCurrentTime();
+		for (int i = 0; i < handlers.length; i++) {
+			@SuppressWarnings("unchecked")
+			final H handler = (H) handlers[i];
+			final double handlerStarted = profiler.getCurrentTime();
+			try {
+				dispatchEvent(event, handler);
+			} catch (final Throwable e) {
+				if (causes == null) {
+					causes = new HashSet<Throwable>();
+				}
+				causes.add(e);
+			} finally {
+				profiler.recordHandler(event, handler, profiler.getCurrentTime() - handlerStarted);
+			}
+		}
+		profiler.recordEvent(event, profiler.getCurrentTime() - started);
+		if (causes != null) {
+			throw new UmbrellaException(causes);
+		}
+	}
+}
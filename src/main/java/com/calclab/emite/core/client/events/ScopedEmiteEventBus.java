@@ -0,0 +1,103 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.events;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gwt.event.shared.EventHandler;
+import com.google.gwt.event.shared.GwtEvent;
+import com.google.gwt.event.shared.GwtEvent.Type;
+import com.google.gwt.event.shared.HandlerRegistration;
+
+/**
+ * A lightweight event bus for the scopes that come in large numbers and
+ * mostly have no handlers (chats, roster groups...). The event bus of the
+ * scope is only created (by EventBusFactory.createScoped: a quiet
+ * FastEmiteEventBus by default) when the first handler is added, so an
+ * unobserved scope is just this object, and firing an event in it does
+ * nothing.
+ * 
+ * Disposing the scope drops all its registrations at once.
+ */
+public class ScopedEmiteEventBus implements EmiteEventBus {
+
+	private static final Logger logger = Logger.getLogger(ScopedEmiteEventBus.class.getName());
+
+	private final String scopeName;
+	private EmiteEventBus handlers;
+
+	public ScopedEmiteEventBus(final String scopeName) {
+		this.scopeName = scopeName;
+	}
+
+	@Override
+	public <H extends EventHandler> HandlerRegistration addHandler(final Type<H> type, final H handler) {
+		if (handlers == null) {
+			handlers = EventBusFactory.createScoped(scopeName);
+		}
+		return handlers.addHandler(type, handler);
+	}
+
+	/**
+	 * Remove all the handlers of this scope. The registrations already
+	 * returned can still be removed (it does nothing)
+	 */
+	public void dispose() {
+		handlers = null;
+	}
+
+	@Override
+	public void fireEvent(final GwtEvent<?> event) {
+		if (handlers != null) {
+			handlers.fireEvent(event);
+		} else if (logger.isLoggable(Level.FINER)) {
+			logger.finer("[" + scopeName + "] " + event.toDebugString());
+		}
+	}
+
+	@Override
+	public <H extends EventHandler> H getHandler(final Type<H> type, final int index) {
+		if (handlers == null) {
+			throw new IndexOutOfBoundsException("Handler " + index + " not found");
+		}
+		return handlers.getHandler(type, index);
+	}
+
+	@Override
+	public int getHandlerCount(final Type<?> type) {
+		return handlers != null ? handlers.getHandlerCount(type) : 0;
+	}
+
+	public String getScopeName() {
+		return scopeName;
+	}
+
+	@Override
+	public boolean isEventHandled(final Type<?> type) {
+		return handlers != null && handlers.isEventHandled(type);
+	}
+
+	@Override
+	public String toString() {
+		return "ScopedEmiteEventBus(" + scopeName + ")";
+	}
+}
@@ -21,7 +21,6 @@
 package com.calclab.emite.core.client.packet;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 public abstract class AbstractPacket implements IPacket {
@@ -57,9 +56,7 @@ public abstract class AbstractPacket implements IPacket {
 
 	@Override
 	public IPacket getFirstChildInDeep(final PacketMatcher filter) {
-		final LinkedList<IPacket> queue = new LinkedList<IPacket>();
-		queue.add(this);
-		return bfs(queue, filter);
+		return PacketTraversal.find(this, filter, PacketTraversal.Order.bfs, PacketTraversal.UNLIMITED);
 	}
 
 	@Override
@@ -110,14 +107,4 @@ public abstract class AbstractPacket implements IPacket {
 		return this;
 	}
 
-	private IPacket bfs(final LinkedList<IPacket> queue, final PacketMatcher filter) {
-		if (queue.isEmpty())
-			return NoPacket.INSTANCE;
-		final IPacket current = queue.poll();
-		if (filter.matches(current))
-			return current;
-		queue.addAll(current.getChildren());
-		return bfs(queue, filter);
-	}
-
 }
@@ -135,9 +135,16 @@ public class DelegatedPacket implements IPacket {
 		delegate.setTextToChild(nodeName, text);
 	}
 
+	/**
+	 * @return the wrapped packet
+	 */
+	IPacket getDelegate() {
+		return delegate;
+	}
+
 	@Override
 	public String toString() {
-		return delegate.toString();
+		return PacketRenderer.toString(delegate);
 	}
 
 	@Override
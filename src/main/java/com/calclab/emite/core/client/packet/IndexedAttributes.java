@@ -0,0 +1,49 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet;
+
+/**
+ * A packet whose attributes can be read by position, without copying them in
+ * a map. The PacketRenderer uses it to iterate the attributes
+ * 
+ * @see PacketRenderer
+ */
+public interface IndexedAttributes {
+
+	/**
+	 * @return the number of attributes
+	 */
+	int getAttributeCount();
+
+	/**
+	 * @param index
+	 *            the attribute position (from 0 to count - 1)
+	 * @return the name of the attribute
+	 */
+	String getAttributeName(int index);
+
+	/**
+	 * @param index
+	 *            the attribute position (from 0 to count - 1)
+	 * @return the value of the attribute
+	 */
+	String getAttributeValue(int index);
+}
@@ -0,0 +1,231 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A packet backed by the original xml text. Parsing only indexes the elements:
+ * the attributes of a packet are read the first time one of them is accessed,
+ * its children are wrapped the first time they are accessed, and its text is
+ * only unescaped when read. A stanza that no handler looks into is never
+ * decoded.
+ * 
+ * Once loaded, a lazy packet behaves (and can be modified) like a
+ * {@link Packet}.
+ */
+public class LazyPacket extends Packet {
+
+	/**
+	 * Parse a xml text
+	 * 
+	 * @param xml
+	 *            the text
+	 * @return the root packet, or null if the text is not well formed
+	 */
+	public static LazyPacket parse(final String xml) {
+		final XMLIndex index = XMLIndex.parse(xml);
+		return index != null ? new LazyPacket(index, 0) : null;
+	}
+
+	private final XMLIndex index;
+	private final int element;
+	private boolean attributesLoaded;
+	private boolean childrenLoaded;
+
+	private LazyPacket(final XMLIndex index, final int element) {
+		super(index.getName(element));
+		this.index = index;
+		this.element = element;
+	}
+
+	@Override
+	public IPacket addChild(final IPacket child) {
+		loadChildren();
+		return super.addChild(child);
+	}
+
+	@Override
+	public String getAttribute(final String name) {
+		loadAttributes();
+		return super.getAttribute(name);
+	}
+
+	@Override
+	public int getAttributeCount() {
+		loadAttributes();
+		return super.getAttributeCount();
+	}
+
+	@Override
+	public String getAttributeName(final int index) {
+		loadAttributes();
+		return super.getAttributeName(index);
+	}
+
+	@Override
+	public String getAttributeValue(final int index) {
+		loadAttributes();
+		return super.getAttributeValue(index);
+	}
+
+	@Override
+	public HashMap<String, String> getAttributes() {
+		loadAttributes();
+		return super.getAttributes();
+	}
+
+	@Override
+	public List<? extends IPacket> getChildren() {
+		loadChildren();
+		return super.getChildren();
+	}
+
+	@Override
+	public int getChildrenCount() {
+		loadChildren();
+		return super.getChildrenCount();
+	}
+
+	@Override
+	public String getText() {
+		loadChildren();
+		return super.getText();
+	}
+
+	@Override
+	public boolean hasAttribute(final String name) {
+		loadAttributes();
+		return super.hasAttribute(name);
+	}
+
+	@Override
+	public boolean removeChild(final IPacket child) {
+		loadChildren();
+		return super.removeChild(child);
+	}
+
+	@Override
+	public void setAttribute(final String name, final String value) {
+		loadAttributes();
+		super.setAttribute(name, value);
+	}
+
+	@Override
+	public void setText(final String value) {
+		childrenLoaded = true;
+		super.setText(value);
+	}
+
+	@Override
+	protected void add(final Packet node) {
+		loadChildren();
+		super.add(node);
+	}
+
+	/**
+	 * Read the attributes from the start tag (unescaping the values)
+	 */
+	private void loadAttributes() {
+		if (attributesLoaded) {
+			return;
+		}
+		attributesLoaded = true;
+		final String xml = index.getXml();
+		final int end = index.getAttributesEnd(element);
+		int i = index.getAttributesStart(element);
+		while (true) {
+			while (i < end && isWhitespace(xml.charAt(i))) {
+				i++;
+			}
+			final int nameStart = i;
+			while (i < end && xml.charAt(i) != '=' && !isWhitespace(xml.charAt(i))) {
+				i++;
+			}
+			final int nameEnd = i;
+			while (i < end && xml.charAt(i) != '=') {
+				i++;
+			}
+			i++;
+			while (i < end && isWhitespace(xml.charAt(i))) {
+				i++;
+			}
+			if (nameEnd == nameStart || i >= end) {
+				return;
+			}
+			final char quote = xml.charAt(i);
+			final int valueEnd = quote == '"' || quote == '\'' ? xml.indexOf(quote, i + 1) : -1;
+			if (valueEnd == -1 || valueEnd > end) {
+				return;
+			}
+			super.setAttribute(xml.substring(nameStart, nameEnd), TextUtils.unescape(xml.substring(i + 1, valueEnd)));
+			i = valueEnd + 1;
+		}
+	}
+
+	/**
+	 * Wrap the child elements and the text around them (that is kept escaped
+	 * until read). The whitespace between child elements is skipped
+	 */
+	private void loadChildren() {
+		if (childrenLoaded) {
+			return;
+		}
+		childrenLoaded = true;
+		int child = index.getFirstChild(element);
+		if (child == -1) {
+			final String text = index.getText(element, index.getContentStart(element), index.getContentEnd(element));
+			if (text != null) {
+				super.setText(text);
+			}
+			return;
+		}
+		int position = index.getContentStart(element);
+		while (child != -1) {
+			addText(position, index.getStart(child));
+			super.addChild(new LazyPacket(index, child));
+			position = index.getEnd(child);
+			child = index.getNextSibling(child);
+		}
+		addText(position, index.getContentEnd(element));
+	}
+
+	private void addText(final int start, final int end) {
+		final String text = index.getText(element, start, end);
+		if (text != null && !isWhitespace(text)) {
+			super.addChild(new TextPacket(text));
+		}
+	}
+
+	private static boolean isWhitespace(final String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (!isWhitespace(text.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isWhitespace(final char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+}
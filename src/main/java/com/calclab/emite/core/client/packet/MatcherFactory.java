@@ -24,7 +24,35 @@ import java.util.HashMap;
 
 public class MatcherFactory {
 
+	/**
+	 * Matches by name (and namespace). The packets with a child index answer
+	 * these matchers without scanning their children
+	 */
+	static final class NameMatcher implements PacketMatcher {
+		final String name;
+		final String xmlns;
+
+		NameMatcher(final String name, final String xmlns) {
+			this.name = PacketSymbols.intern(name);
+			this.xmlns = PacketSymbols.intern(xmlns);
+		}
+
+		@Override
+		public boolean matches(final IPacket packet) {
+			return name.equals(packet.getName()) && matchesXmlns(packet);
+		}
+
+		/**
+		 * @return true if the packet (already matched by name) matches the
+		 *         namespace
+		 */
+		boolean matchesXmlns(final IPacket packet) {
+			return xmlns == null || packet.hasAttribute("xmlns", xmlns);
+		}
+	}
+
 	private static HashMap<String, PacketMatcher> byName = new HashMap<String, PacketMatcher>();
+	private static HashMap<String, PacketMatcher> byNameAndXMLNS = new HashMap<String, PacketMatcher>();
 
 	public static final PacketMatcher ANY = new PacketMatcher() {
 		@Override
@@ -36,23 +64,19 @@ public class MatcherFactory {
 	public static PacketMatcher byName(final String nodeName) {
 		PacketMatcher matcher = byName.get(nodeName);
 		if (matcher == null) {
-			matcher = new PacketMatcher() {
-				@Override
-				public boolean matches(final IPacket packet) {
-					return nodeName.equals(packet.getName());
-				}
-			};
+			matcher = new NameMatcher(nodeName, null);
 			byName.put(nodeName, matcher);
 		}
 		return matcher;
 	}
 
 	public static PacketMatcher byNameAndXMLNS(final String nodeName, final String nodeXmls) {
-		return new PacketMatcher() {
-			@Override
-			public boolean matches(final IPacket packet) {
-				return nodeName.equals(packet.getName()) && packet.hasAttribute("xmlns", nodeXmls);
-			}
-		};
+		final String key = nodeXmls + " " + nodeName;
+		PacketMatcher matcher = byNameAndXMLNS.get(key);
+		if (matcher == null) {
+			matcher = new NameMatcher(nodeName, nodeXmls);
+			byNameAndXMLNS.put(key, matcher);
+		}
+		return matcher;
 	}
 }
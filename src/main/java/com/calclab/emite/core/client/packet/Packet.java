@@ -21,12 +21,32 @@
 package com.calclab.emite.core.client.packet;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
-public class Packet extends AbstractPacket {
-	private final HashMap<String, String> attributes;
-	private final ArrayList<IPacket> children;
+/**
+ * A mutable packet with a compact memory layout: the attributes are kept in
+ * two small parallel arrays (in insertion order) and the children list is only
+ * created when the first child is added, so leaf nodes like &lt;show&gt; or
+ * &lt;priority&gt; don't carry empty collections.
+ * 
+ * Packets with more than a few children build a name to children index on the
+ * first lookup by name (or name and namespace), so repeated lookups on the
+ * same stanza don't scan the children. Any change to the children drops the
+ * index.
+ * 
+ * The names, attribute names and namespaces are interned in the PacketSymbols
+ */
+public class Packet extends AbstractPacket implements IndexedAttributes {
+	private static final List<IPacket> NO_CHILDREN = Collections.emptyList();
+	private static final int INDEX_THRESHOLD = 4;
+
+	private String[] attributeNames;
+	private String[] attributeValues;
+	private int attributeCount;
+	private ArrayList<IPacket> children;
+	private HashMap<String, ArrayList<IPacket>> childIndex;
 	private final String name;
 	private Packet parent;
 
@@ -35,9 +55,7 @@ public class Packet extends AbstractPacket {
 	}
 
 	public Packet(final String name, final String xmlns) {
-		this.name = name;
-		attributes = new HashMap<String, String>();
-		children = new ArrayList<IPacket>();
+		this.name = PacketSymbols.intern(name);
 		if (xmlns != null) {
 			setAttribute("xmlns", xmlns);
 		}
@@ -46,7 +64,8 @@ public class Packet extends AbstractPacket {
 
 	@Override
 	public IPacket addChild(final IPacket child) {
-		children.add(child);
+		childIndex = null;
+		getChildList(2).add(child);
 		return child;
 	}
 
@@ -65,25 +84,79 @@ public class Packet extends AbstractPacket {
 
 	@Override
 	public String getAttribute(final String name) {
-		return attributes.get(name);
+		final int index = indexOf(name);
+		return index == -1 ? null : attributeValues[index];
+	}
+
+	@Override
+	public int getAttributeCount() {
+		return attributeCount;
 	}
 
 	/**
-	 * WARNING: broken encapsulation
+	 * The attributes are kept in insertion order
+	 */
+	@Override
+	public String getAttributeName(final int index) {
+		return attributeNames[index];
+	}
+
+	@Override
+	public String getAttributeValue(final int index) {
+		return attributeValues[index];
+	}
+
+	/**
+	 * A copy of the attributes: changing the map doesn't change the packet
 	 */
 	@Override
 	public HashMap<String, String> getAttributes() {
+		final HashMap<String, String> attributes = new HashMap<String, String>();
+		for (int i = 0; i < attributeCount; i++) {
+			attributes.put(attributeNames[i], attributeValues[i]);
+		}
 		return attributes;
 	}
 
 	@Override
 	public List<? extends IPacket> getChildren() {
-		return children;
+		return children != null ? children : NO_CHILDREN;
+	}
+
+	@Override
+	public List<? extends IPacket> getChildren(final PacketMatcher filter) {
+		final List<IPacket> named = getIndexed(filter);
+		if (named == null) {
+			return super.getChildren(filter);
+		}
+		final MatcherFactory.NameMatcher matcher = (MatcherFactory.NameMatcher) filter;
+		final List<IPacket> list = new ArrayList<IPacket>(named.size());
+		for (final IPacket child : named) {
+			if (matcher.matchesXmlns(child)) {
+				list.add(child);
+			}
+		}
+		return list;
 	}
 
 	@Override
 	public int getChildrenCount() {
-		return children.size();
+		return children != null ? children.size() : 0;
+	}
+
+	@Override
+	public IPacket getFirstChild(final PacketMatcher filter) {
+		final List<IPacket> named = getIndexed(filter);
+		if (named == null) {
+			return super.getFirstChild(filter);
+		}
+		final MatcherFactory.NameMatcher matcher = (MatcherFactory.NameMatcher) filter;
+		for (final IPacket child : named) {
+			if (matcher.matchesXmlns(child)) {
+				return child;
+			}
+		}
+		return NoPacket.INSTANCE;
 	}
 
 	@Override
@@ -96,31 +169,86 @@ public class Packet extends AbstractPacket {
 	}
 
 	/**
-	 * Return a child (If it has a child)
+	 * Return the text of the packet: its text children (the text around its
+	 * child elements) concatenated, or null if it has no text
 	 */
 	@Override
 	public String getText() {
-		for (final IPacket child : children) {
-			if (child.getName() == null)
-				return TextUtils.unescape(child.toString());
+		String text = null;
+		if (children != null) {
+			StringBuilder builder = null;
+			for (final IPacket child : children) {
+				if (child.getName() == null) {
+					final String value = TextUtils.unescape(child.toString());
+					if (text == null) {
+						text = value;
+					} else {
+						if (builder == null) {
+							builder = new StringBuilder(text);
+						}
+						builder.append(value);
+					}
+				}
+			}
+			if (builder != null) {
+				text = builder.toString();
+			}
 		}
-		return null;
+		return text;
+	}
+
+	@Override
+	public boolean hasAttribute(final String name) {
+		return indexOf(name) != -1;
 	}
 
 	@Override
 	public boolean removeChild(final IPacket child) {
-		return children.remove(child);
+		childIndex = null;
+		return children != null && children.remove(child);
 	}
 
+	/**
+	 * Set the attribute value (a null value removes the attribute)
+	 */
 	@Override
 	public void setAttribute(final String name, final String value) {
-		attributes.put(name, value);
+		final int index = indexOf(name);
+		if (value == null) {
+			if (index != -1) {
+				attributeCount--;
+				System.arraycopy(attributeNames, index + 1, attributeNames, index, attributeCount - index);
+				System.arraycopy(attributeValues, index + 1, attributeValues, index, attributeCount - index);
+				attributeNames[attributeCount] = null;
+				attributeValues[attributeCount] = null;
+			}
+		} else if (index != -1) {
+			attributeValues[index] = "xmlns".equals(name) ? PacketSymbols.intern(value) : value;
+		} else {
+			if (attributeNames == null) {
+				attributeNames = new String[2];
+				attributeValues = new String[2];
+			} else if (attributeCount == attributeNames.length) {
+				final String[] names = new String[attributeCount * 2];
+				final String[] values = new String[attributeCount * 2];
+				System.arraycopy(attributeNames, 0, names, 0, attributeCount);
+				System.arraycopy(attributeValues, 0, values, 0, attributeCount);
+				attributeNames = names;
+				attributeValues = values;
+			}
+			attributeNames[attributeCount] = PacketSymbols.intern(name);
+			attributeValues[attributeCount] = "xmlns".equals(name) ? PacketSymbols.intern(value) : value;
+			attributeCount++;
+		}
 	}
 
 	@Override
 	public void setText(final String value) {
-		children.clear();
-		if (value != null) {
+		childIndex = null;
+		if (value == null) {
+			children = null;
+		} else {
+			children = new ArrayList<IPacket>(1);
 			children.add(new TextPacket(value));
 		}
 	}
@@ -136,6 +264,49 @@ public class Packet extends AbstractPacket {
 	}
 
 	protected void add(final Packet node) {
-		children.add(node);
+		childIndex = null;
+		getChildList(2).add(node);
+	}
+
+	/**
+	 * The children with the name of the matcher, or null if the matcher is not
+	 * a name matcher or there are too few children to index them
+	 */
+	private List<IPacket> getIndexed(final PacketMatcher filter) {
+		if (!(filter instanceof MatcherFactory.NameMatcher) || getChildrenCount() <= INDEX_THRESHOLD) {
+			return null;
+		}
+		if (childIndex == null) {
+			childIndex = new HashMap<String, ArrayList<IPacket>>();
+			for (final IPacket child : children) {
+				final String childName = child.getName();
+				if (childName != null) {
+					ArrayList<IPacket> named = childIndex.get(childName);
+					if (named == null) {
+						named = new ArrayList<IPacket>(1);
+						childIndex.put(childName, named);
+					}
+					named.add(child);
+				}
+			}
+		}
+		final List<IPacket> named = childIndex.get(((MatcherFactory.NameMatcher) filter).name);
+		return named != null ? named : NO_CHILDREN;
+	}
+
+	private ArrayList<IPacket> getChildList(final int capacity) {
+		if (children == null) {
+			children = new ArrayList<IPacket>(capacity);
+		}
+		return children;
+	}
+
+	private int indexOf(final String name) {
+		for (int i = 0; i < attributeCount; i++) {
+			if (attributeNames[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
 	}
 }
@@ -0,0 +1,301 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A compiled stanza path query: a small XPath-like language evaluated over the
+ * children of a packet. The query is compiled once into a list of step
+ * matchers and evaluated depth-first (in document order) without building
+ * intermediate lists. Compiled queries are cached, so use
+ * {@link #compile(String)} with constant expressions:
+ * 
+ * <pre>
+ * x                           the x children
+ * {jabber:x:data}x            the x children with the xmlns jabber:x:data
+ * *                           any child element
+ * query/item[@subscription]   the items (of the query) with a subscription
+ * item[@role='moderator']     the items with the role moderator
+ * item/@jid                   the jid attribute of the items
+ * vCard/PHOTO/TYPE/text()     the text of the TYPE element
+ * </pre>
+ * 
+ * A query is a PacketMatcher: it matches the packets that have at least one
+ * result.
+ */
+public class PacketQuery implements PacketMatcher {
+
+	/**
+	 * A query step: a name (or any element) with an optional namespace and
+	 * attribute predicates
+	 */
+	private static class Step implements PacketMatcher {
+		private final PacketMatcher element;
+		private final String xmlns;
+		private final String[] attributes;
+		private final String[] values;
+
+		Step(final String name, final String xmlns, final List<String> attributes, final List<String> values) {
+			element = name == null ? null : MatcherFactory.byNameAndXMLNS(name, xmlns);
+			this.xmlns = xmlns;
+			this.attributes = attributes.toArray(new String[attributes.size()]);
+			this.values = values.toArray(new String[values.size()]);
+		}
+
+		@Override
+		public boolean matches(final IPacket packet) {
+			if (element != null) {
+				if (!element.matches(packet)) {
+					return false;
+				}
+			} else if (packet.getName() == null || xmlns != null && !packet.hasAttribute("xmlns", xmlns)) {
+				return false;
+			}
+			for (int i = 0; i < attributes.length; i++) {
+				if (values[i] == null ? !packet.hasAttribute(attributes[i]) : !packet.hasAttribute(attributes[i], values[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final String TEXT = "text()";
+	private static final HashMap<String, PacketQuery> compiled = new HashMap<String, PacketQuery>();
+
+	/**
+	 * Compile (or get the already compiled) query
+	 * 
+	 * @param expression
+	 *            the query
+	 * @return the compiled query
+	 * @throws IllegalArgumentException
+	 *             if the expression is not a valid query
+	 */
+	public static PacketQuery compile(final String expression) {
+		PacketQuery query = compiled.get(expression);
+		if (query == null) {
+			query = new PacketQuery(expression);
+			compiled.put(expression, query);
+		}
+		return query;
+	}
+
+	private final String expression;
+	private final Step[] steps;
+	/**
+	 * The selected attribute, TEXT or null to select the elements
+	 */
+	private final String selector;
+
+	private PacketQuery(final String expression) {
+		this.expression = expression;
+		final ArrayList<Step> parsed = new ArrayList<Step>();
+		String selected = null;
+		int i = expression.startsWith("/") ? 1 : 0;
+		final int length = expression.length();
+		while (i < length) {
+			if (selected != null) {
+				throw invalid("the selector must be the last step");
+			}
+			final char c = expression.charAt(i);
+			if (c == '@') {
+				final int end = nextStep(i);
+				selected = expression.substring(i + 1, end);
+				if (selected.length() == 0) {
+					throw invalid("missing attribute name");
+				}
+				i = end;
+			} else if (expression.startsWith(TEXT, i) && nextStep(i) == i + TEXT.length()) {
+				selected = TEXT;
+				i += TEXT.length();
+			} else {
+				i = parseStep(i, parsed);
+			}
+			if (i < length) {
+				if (expression.charAt(i) != '/' || i == length - 1) {
+					throw invalid("unexpected character at " + i);
+				}
+				i++;
+			}
+		}
+		if (parsed.isEmpty()) {
+			throw invalid("no element steps");
+		}
+		steps = parsed.toArray(new Step[parsed.size()]);
+		selector = selected;
+	}
+
+	@Override
+	public boolean matches(final IPacket packet) {
+		return first(packet, 0) != null;
+	}
+
+	/**
+	 * All the elements selected by the query (if the query has a selector, the
+	 * elements with that attribute or text)
+	 * 
+	 * @param context
+	 *            the packet where the query starts
+	 * @return the elements in document order
+	 */
+	public List<IPacket> selectAll(final IPacket context) {
+		final ArrayList<IPacket> results = new ArrayList<IPacket>();
+		collect(context, 0, results);
+		return results;
+	}
+
+	/**
+	 * The first element (in document order) selected by the query (if the
+	 * query has a selector, the first element with that attribute or text)
+	 * 
+	 * @param context
+	 *            the packet where the query starts
+	 * @return the element or NoPacket.INSTANCE if nothing found. Never null
+	 */
+	public IPacket selectFirst(final IPacket context) {
+		final IPacket result = first(context, 0);
+		return result != null ? result : NoPacket.INSTANCE;
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+	/**
+	 * The first value selected by the query: the attribute or the text of the
+	 * selector, or the text of the first element if the query has no selector
+	 * 
+	 * @param context
+	 *            the packet where the query starts
+	 * @return the value or null if nothing found
+	 */
+	public String value(final IPacket context) {
+		final IPacket result = first(context, 0);
+		if (result == null) {
+			return null;
+		}
+		return selector == null || selector == TEXT ? result.getText() : result.getAttribute(selector);
+	}
+
+	private void collect(final IPacket context, final int step, final List<IPacket> results) {
+		final List<? extends IPacket> children = context.getChildren();
+		for (int i = 0, size = children.size(); i < size; i++) {
+			final IPacket child = children.get(i);
+			if (steps[step].matches(child)) {
+				if (step < steps.length - 1) {
+					collect(child, step + 1, results);
+				} else if (isSelected(child)) {
+					results.add(child);
+				}
+			}
+		}
+	}
+
+	private IPacket first(final IPacket context, final int step) {
+		final List<? extends IPacket> children = context.getChildren();
+		for (int i = 0, size = children.size(); i < size; i++) {
+			final IPacket child = children.get(i);
+			if (steps[step].matches(child)) {
+				if (step < steps.length - 1) {
+					final IPacket result = first(child, step + 1);
+					if (result != null) {
+						return result;
+					}
+				} else if (isSelected(child)) {
+					return child;
+				}
+			}
+		}
+		return null;
+	}
+
+	private IllegalArgumentException invalid(final String reason) {
+		return new IllegalArgumentException("Invalid packet query '" + expression + "': " + reason);
+	}
+
+	private boolean isSelected(final IPacket packet) {
+		if (selector == null) {
+			return true;
+		}
+		return selector == TEXT ? packet.getText() != null : packet.hasAttribute(selector);
+	}
+
+	private int nextStep(final int from) {
+		final int end = expression.indexOf('/', from);
+		return end == -1 ? expression.length() : end;
+	}
+
+	/**
+	 * Parse a {xmlns}name[@attribute='value'] step
+	 * 
+	 * @return the position after the step
+	 */
+	private int parseStep(int i, final List<Step> parsed) {
+		String xmlns = null;
+		if (expression.charAt(i) == '{') {
+			final int end = expression.indexOf('}', i);
+			if (end == -1) {
+				throw invalid("unclosed namespace");
+			}
+			xmlns = expression.substring(i + 1, end);
+			i = end + 1;
+		}
+		final int nameStart = i;
+		while (i < expression.length() && "/[@{".indexOf(expression.charAt(i)) == -1) {
+			i++;
+		}
+		final String name = expression.substring(nameStart, i);
+		if (name.length() == 0) {
+			throw invalid("missing element name at " + nameStart);
+		}
+		final ArrayList<String> attributes = new ArrayList<String>();
+		final ArrayList<String> values = new ArrayList<String>();
+		while (i < expression.length() && expression.charAt(i) == '[') {
+			final int end = expression.indexOf(']', i);
+			if (end == -1 || expression.charAt(i + 1) != '@') {
+				throw invalid("bad predicate at " + i);
+			}
+			final String predicate = expression.substring(i + 2, end);
+			final int equals = predicate.indexOf('=');
+			if (equals == 0 || predicate.length() == 0) {
+				throw invalid("missing attribute name at " + i);
+			} else if (equals == -1) {
+				attributes.add(predicate);
+				values.add(null);
+			} else {
+				final String value = predicate.substring(equals + 1);
+				if (value.length() < 2 || value.charAt(0) != value.charAt(value.length() - 1) || "'\"".indexOf(value.charAt(0)) == -1) {
+					throw invalid("bad predicate value at " + i);
+				}
+				attributes.add(predicate.substring(0, equals));
+				values.add(value.substring(1, value.length() - 1));
+			}
+			i = end + 1;
+		}
+		parsed.add(new Step("*".equals(name) ? null : name, xmlns, attributes, values));
+		return i;
+	}
+}
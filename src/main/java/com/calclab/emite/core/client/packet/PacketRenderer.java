@@ -24,44 +24,83 @@ import java.util.HashMap;
 import java.util.List;
 
 /**
- * Helper class to build a nice packet representation
+ * Helper class to build a nice packet representation. The packets are written
+ * (in a single pass) into a builder that can be reused between packets
  */
 public class PacketRenderer {
 	public static String toString(final IPacket packet) {
-		final StringBuffer buffer = new StringBuffer();
-		toString(packet, buffer);
-		return buffer.toString();
+		final StringBuilder builder = new StringBuilder();
+		render(packet, builder);
+		return builder.toString();
 	}
 
+	/**
+	 * @deprecated use {@link #render(IPacket, StringBuilder)}
+	 */
+	@Deprecated
 	public static void toString(final IPacket root, final StringBuffer buffer) {
+		buffer.append(toString(root));
+	}
+
+	/**
+	 * Write the packet (and all its children) at the end of the builder. The
+	 * attributes are not copied and the text is escaped in one scan
+	 * 
+	 * @param packet
+	 *            the packet to render
+	 * @param builder
+	 *            the builder to write to
+	 */
+	public static void render(final IPacket packet, final StringBuilder builder) {
+		IPacket root = packet;
+		while (root instanceof DelegatedPacket) {
+			root = ((DelegatedPacket) root).getDelegate();
+		}
 		final String name = root.getName();
-		buffer.append("<").append(name);
-		final HashMap<String, String> attributes = root.getAttributes();
-		for (final String key : attributes.keySet()) {
-			final String value = attributes.get(key);
-			if (value != null) {
-				buffer.append(" ").append(key).append("=\"");
-				buffer.append(TextUtils.escape(value)).append("\"");
+		builder.append('<').append(name);
+		if (root instanceof IndexedAttributes) {
+			final IndexedAttributes attributes = (IndexedAttributes) root;
+			final int count = attributes.getAttributeCount();
+			for (int i = 0; i < count; i++) {
+				appendAttribute(attributes.getAttributeName(i), attributes.getAttributeValue(i), builder);
+			}
+		} else {
+			final HashMap<String, String> attributes = root.getAttributes();
+			for (final String key : attributes.keySet()) {
+				appendAttribute(key, attributes.get(key), builder);
 			}
 		}
 
-		final String rootText = root.getText();
-		if (rootText != null) {
-			buffer.append(">");
-			buffer.append(TextUtils.escape(rootText));
-			buffer.append("</").append(name).append(">");
-		} else {
-			final List<? extends IPacket> children = root.getChildren();
-			if (children.size() > 0) {
-				buffer.append(">");
-				for (final IPacket child : children) {
-					toString(child, buffer);
+		final List<? extends IPacket> children = root.getChildren();
+		if (children.size() > 0) {
+			// the text children (the text around the child elements) in place
+			builder.append('>');
+			for (final IPacket child : children) {
+				if (child.getName() == null) {
+					TextUtils.escape(TextUtils.unescape(child.toString()), builder);
+				} else {
+					render(child, builder);
 				}
-				buffer.append("</").append(name).append(">");
+			}
+			builder.append("</").append(name).append('>');
+		} else {
+			final String rootText = root.getText();
+			if (rootText != null) {
+				builder.append('>');
+				TextUtils.escape(rootText, builder);
+				builder.append("</").append(name).append('>');
 			} else {
-				buffer.append(" />");
+				builder.append(" />");
 			}
 		}
 	}
 
+	private static void appendAttribute(final String key, final String value, final StringBuilder builder) {
+		if (value != null) {
+			builder.append(' ').append(key).append("=\"");
+			TextUtils.escape(value, builder);
+			builder.append('"');
+		}
+	}
+
 }
@@ -0,0 +1,98 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet;
+
+import java.util.HashMap;
+
+/**
+ * The symbol table of the packets: the element names, attribute names and
+ * namespaces of the packets are interned here, so thousands of parsed stanzas
+ * share one instance of "presence", "from" or "jabber:iq:roster" (and the
+ * String.equals of the matchers ends at the identity check).
+ * 
+ * The table has a fixed core of well known symbols and a bounded pool for the
+ * rest: once the pool is full, new symbols are not interned.
+ */
+public class PacketSymbols {
+	/**
+	 * The max number of symbols interned besides the core ones
+	 */
+	public static final int MAX_SYMBOLS = 512;
+
+	private static final String[] CORE_SYMBOLS = {
+			// stanzas and common children
+			"body", "message", "presence", "iq", "query", "x", "item", "show", "status", "priority", "subject", "thread", "error",
+			"text", "group", "invite", "reason", "delay", "nick", "photo", "vCard", "PHOTO", "TYPE", "BINVAL", "bind", "jid",
+			"resource", "session", "stream:features", "stream:error", "features", "mechanisms", "mechanism", "auth", "success",
+			"failure", "challenge", "response", "identity", "feature", "field", "value", "option", "composing", "active", "paused",
+			"inactive", "gone",
+			// attributes
+			"xmlns", "xml:lang", "from", "to", "type", "id", "name", "subscription", "ask", "role", "affiliation", "code", "node",
+			"var", "category", "label", "stamp", "rid", "sid", "ack", "condition", "wait", "hold", "inactivity", "polling",
+			"requests", "maxpause", "ver", "version", "stream", "authid", "secure",
+			// namespaces
+			"jabber:client", "jabber:iq:roster", "jabber:iq:private", "jabber:iq:privacy", "jabber:iq:search", "jabber:x:data",
+			"jabber:x:delay", "urn:xmpp:delay", "urn:xmpp:xbosh", "urn:ietf:params:xml:ns:xmpp-sasl",
+			"urn:ietf:params:xml:ns:xmpp-bind", "urn:ietf:params:xml:ns:xmpp-session", "urn:ietf:params:xml:ns:xmpp-stanzas",
+			"urn:ietf:params:xml:ns:xmpp-framing", "http://jabber.org/protocol/httpbind", "http://jabber.org/protocol/muc",
+			"http://jabber.org/protocol/muc#user", "http://jabber.org/protocol/muc#owner", "http://jabber.org/protocol/disco#info",
+			"http://jabber.org/protocol/disco#items", "http://jabber.org/protocol/chatstates", "http://jabber.org/protocol/nick",
+			"vcard-temp", "vcard-temp:x:update" };
+
+	// never changed after the class initialization, so it is read without locks
+	private static final HashMap<String, String> core = new HashMap<String, String>();
+	private static final HashMap<String, String> pool = new HashMap<String, String>();
+
+	static {
+		for (final String symbol : CORE_SYMBOLS) {
+			core.put(symbol, symbol);
+		}
+	}
+
+	/**
+	 * Intern a symbol
+	 * 
+	 * @param symbol
+	 *            the symbol (can be null)
+	 * @return the shared instance of the symbol, or the symbol itself if the
+	 *         pool is full
+	 */
+	public static String intern(final String symbol) {
+		if (symbol == null) {
+			return null;
+		}
+		final String interned = core.get(symbol);
+		return interned != null ? interned : internInPool(symbol);
+	}
+
+	private static synchronized String internInPool(final String symbol) {
+		final String interned = pool.get(symbol);
+		if (interned != null) {
+			return interned;
+		} else if (pool.size() < MAX_SYMBOLS) {
+			pool.put(symbol, symbol);
+		}
+		return symbol;
+	}
+
+	private PacketSymbols() {
+	}
+}
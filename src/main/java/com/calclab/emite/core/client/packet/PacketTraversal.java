@@ -0,0 +1,228 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet;
+
+import java.util.List;
+
+/**
+ * An iterative packet tree walker. It keeps the pending packets in an explicit
+ * array (a queue for breadth-first order, a stack for depth-first order)
+ * instead of recursing, so deep stanzas can't overflow the stack and the
+ * children lists are never copied. The arrays are kept between traversals, so
+ * a subsystem that walks many stanzas can hold a traversal and reuse it.
+ * 
+ * A traversal is not reentrant: a visitor that needs to walk another tree
+ * must use another traversal. The static find reuses a cached traversal per
+ * order when it is free (a nested or concurrent find creates its own).
+ */
+public class PacketTraversal {
+	public static enum Order {
+		/**
+		 * Breadth-first: all the packets of a depth before the next depth
+		 */
+		bfs,
+		/**
+		 * Depth-first (pre-order): the packets in document order
+		 */
+		dfs
+	}
+
+	/**
+	 * The max depth value for traversals without depth limit
+	 */
+	public static final int UNLIMITED = -1;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The free traversals without depth limit, by order
+	 */
+	private static final PacketTraversal[] cached = new PacketTraversal[Order.values().length];
+
+	/**
+	 * Find the first packet (the root included) that matches the filter
+	 * 
+	 * @return the packet or NoPacket.INSTANCE if nothing found
+	 */
+	public static IPacket find(final IPacket root, final PacketMatcher filter, final Order order, final int maxDepth) {
+		if (maxDepth != UNLIMITED) {
+			return new PacketTraversal(order, maxDepth).find(root, filter);
+		}
+		PacketTraversal traversal = take(order);
+		if (traversal == null) {
+			traversal = new PacketTraversal(order, UNLIMITED);
+		}
+		try {
+			return traversal.find(root, filter);
+		} finally {
+			release(traversal);
+		}
+	}
+
+	private static synchronized void release(final PacketTraversal traversal) {
+		cached[traversal.order.ordinal()] = traversal;
+	}
+
+	private static synchronized PacketTraversal take(final Order order) {
+		final PacketTraversal traversal = cached[order.ordinal()];
+		cached[order.ordinal()] = null;
+		return traversal;
+	}
+
+	private final Order order;
+	private final int maxDepth;
+	private IPacket[] packets;
+	private int[] depths;
+	private int head;
+	private int tail;
+	private boolean running;
+
+	public PacketTraversal(final Order order) {
+		this(order, UNLIMITED);
+	}
+
+	/**
+	 * @param order
+	 *            the traversal order
+	 * @param maxDepth
+	 *            the deepest packets visited (0 visits only the root) or
+	 *            UNLIMITED
+	 */
+	public PacketTraversal(final Order order, final int maxDepth) {
+		this.order = order;
+		this.maxDepth = maxDepth;
+		packets = new IPacket[INITIAL_CAPACITY];
+		depths = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Find the first packet (the root included) that matches the filter
+	 * 
+	 * @return the packet or NoPacket.INSTANCE if nothing found
+	 */
+	public IPacket find(final IPacket root, final PacketMatcher filter) {
+		final IPacket found = walk(root, null, filter);
+		return found != null ? found : NoPacket.INSTANCE;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public Order getOrder() {
+		return order;
+	}
+
+	/**
+	 * Visit the root and its descendants until the visitor stops the traversal
+	 * 
+	 * @return true if the whole tree (up to the max depth) was visited, false
+	 *         if the visitor stopped the traversal
+	 */
+	public boolean traverse(final IPacket root, final PacketVisitor visitor) {
+		return walk(root, visitor, null) == null;
+	}
+
+	/**
+	 * Walk the tree until the visitor stops or a packet matches the filter
+	 * (only one of them is given)
+	 * 
+	 * @return the packet where the walk stopped, or null if the whole tree was
+	 *         visited
+	 */
+	private IPacket walk(final IPacket root, final PacketVisitor visitor, final PacketMatcher filter) {
+		if (running) {
+			throw new IllegalStateException("The traversal is already running");
+		}
+		running = true;
+		head = 0;
+		tail = 0;
+		try {
+			push(root, 0);
+			while (head < tail) {
+				final IPacket packet;
+				final int depth;
+				if (order == Order.bfs) {
+					packet = packets[head];
+					depth = depths[head];
+					packets[head++] = null;
+				} else {
+					packet = packets[--tail];
+					depth = depths[tail];
+					packets[tail] = null;
+				}
+				if (filter != null ? filter.matches(packet) : !visitor.visit(packet, depth)) {
+					return packet;
+				}
+				if (maxDepth == UNLIMITED || depth < maxDepth) {
+					pushChildren(packet, depth + 1);
+				}
+			}
+			return null;
+		} finally {
+			for (int i = head; i < tail; i++) {
+				packets[i] = null;
+			}
+			running = false;
+		}
+	}
+
+	private void push(final IPacket packet, final int depth) {
+		if (tail == packets.length) {
+			if (head > 0) {
+				System.arraycopy(packets, head, packets, 0, tail - head);
+				System.arraycopy(depths, head, depths, 0, tail - head);
+				for (int i = tail - head; i < tail; i++) {
+					packets[i] = null;
+				}
+				tail -= head;
+				head = 0;
+			} else {
+				final IPacket[] grownPackets = new IPacket[packets.length * 2];
+				final int[] grownDepths = new int[packets.length * 2];
+				System.arraycopy(packets, 0, grownPackets, 0, tail);
+				System.arraycopy(depths, 0, grownDepths, 0, tail);
+				packets = grownPackets;
+				depths = grownDepths;
+			}
+		}
+		packets[tail] = packet;
+		depths[tail] = depth;
+		tail++;
+	}
+
+	private void pushChildren(final IPacket packet, final int depth) {
+		if (packet.getChildrenCount() == 0) {
+			return;
+		}
+		final List<? extends IPacket> children = packet.getChildren();
+		if (order == Order.bfs) {
+			for (int i = 0, size = children.size(); i < size; i++) {
+				push(children.get(i), depth);
+			}
+		} else {
+			// reversed, so the first child is the next popped
+			for (int i = children.size() - 1; i >= 0; i--) {
+				push(children.get(i), depth);
+			}
+		}
+	}
+}
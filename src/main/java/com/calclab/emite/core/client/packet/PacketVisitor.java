@@ -0,0 +1,39 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet;
+
+/**
+ * Visits the packets of a tree walked by a PacketTraversal
+ * 
+ * @see PacketTraversal
+ */
+public interface PacketVisitor {
+	/**
+	 * Visit a packet
+	 * 
+	 * @param packet
+	 *            the visited packet
+	 * @param depth
+	 *            the depth of the packet (0 for the root of the traversal)
+	 * @return true to continue the traversal, false to stop it here
+	 */
+	boolean visit(IPacket packet, int depth);
+}
@@ -20,17 +20,81 @@
 
 package com.calclab.emite.core.client.packet;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
 /**
- * Package private packet for use internal only
+ * Package private packet for use internal only: a text node. It only keeps
+ * its value, it has no name, attributes or children
  */
-class TextPacket extends Packet {
+class TextPacket extends AbstractPacket {
+	private static final List<IPacket> NO_CHILDREN = Collections.emptyList();
+
 	private final String value;
 
 	public TextPacket(final String value) {
-		super(null, null);
 		this.value = value;
 	}
 
+	@Override
+	public IPacket addChild(final IPacket child) {
+		return NoPacket.INSTANCE;
+	}
+
+	@Override
+	public IPacket addChild(final String nodeName) {
+		return NoPacket.INSTANCE;
+	}
+
+	@Override
+	public IPacket addChild(final String nodeName, final String xmlns) {
+		return NoPacket.INSTANCE;
+	}
+
+	@Override
+	public String getAttribute(final String name) {
+		return null;
+	}
+
+	@Override
+	public HashMap<String, String> getAttributes() {
+		return new HashMap<String, String>();
+	}
+
+	@Override
+	public List<? extends IPacket> getChildren() {
+		return NO_CHILDREN;
+	}
+
+	@Override
+	public int getChildrenCount() {
+		return 0;
+	}
+
+	@Override
+	public String getName() {
+		return null;
+	}
+
+	@Override
+	public String getText() {
+		return null;
+	}
+
+	@Override
+	public boolean removeChild(final IPacket child) {
+		return false;
+	}
+
+	@Override
+	public void setAttribute(final String name, final String value) {
+	}
+
+	@Override
+	public void setText(final String text) {
+	}
+
 	@Override
 	public String toString() {
 		return value;
@@ -20,22 +20,26 @@
 
 package com.calclab.emite.core.client.packet;
 
-import com.google.gwt.regexp.shared.RegExp;
-
 public class TextUtils {
 
-	/* Pre-compile the regular expressions for the html escape/unescape methods */
-	private static final RegExp AMP_RE = RegExp.compile("&", "g");
-	private static final RegExp GT_RE = RegExp.compile(">", "g");
-	private static final RegExp LT_RE = RegExp.compile("<", "g");
-	private static final RegExp SQUOT_RE = RegExp.compile("\'", "g");
-	private static final RegExp QUOT_RE = RegExp.compile("\"", "g");
+	/**
+	 * The longest entity (or character reference) the unescaper decodes, like
+	 * &amp;#x10FFFF;
+	 */
+	private static final int MAX_ENTITY_LENGTH = 10;
 
-	private static final RegExp AMP_HTML_RE = RegExp.compile("&amp;", "g");
-	private static final RegExp GT_HTML_RE = RegExp.compile("&gt;", "g");
-	private static final RegExp LT_HTML_RE = RegExp.compile("&lt;", "g");
-	private static final RegExp SQUOT_HTML_RE = RegExp.compile("&#39;", "g");
-	private static final RegExp QUOT_HTML_RE = RegExp.compile("&quot;", "g");
+	/**
+	 * The escaped chars (all of them are below '&gt;')
+	 */
+	private static final boolean[] ESCAPED = new boolean['>' + 1];
+
+	static {
+		ESCAPED['&'] = true;
+		ESCAPED['<'] = true;
+		ESCAPED['>'] = true;
+		ESCAPED['"'] = true;
+		ESCAPED['\''] = true;
+	}
 
 	// Original regexp from http://snippets.dzone.com/posts/show/452
 	public static final String URL_REGEXP = "((ftp|http|https):\\/\\/(\\w+:{0,1}\\w*@)?(\\S+)(:[0-9]+)?(\\/|\\/([\\w#!:.?+=&%@!\\-\\/]))?)";
@@ -58,52 +62,171 @@ public class TextUtils {
 		return text == null ? "" : length == 0 ? text : text.length() > length ? text.substring(0, length - 3) + "..." : text;
 	}
 
-	/*
-	 * This method escape only some dangerous html chars
+	/**
+	 * Escape only some dangerous html chars (in a single scan)
+	 * 
+	 * @param source
+	 *            the text to escape
+	 * @return the escaped text (the same instance if nothing needs escaping)
 	 */
-	public static String escape(String source) {
+	public static String escape(final String source) {
 		if (source == null)
 			return null;
-		if (source.indexOf("&") != -1) {
-			source = AMP_RE.replace(source, "&amp;");
+		final int length = source.length();
+		for (int i = 0; i < length; i++) {
+			final char c = source.charAt(i);
+			if (c <= '>' && ESCAPED[c]) {
+				final StringBuilder builder = new StringBuilder(length + 16);
+				builder.append(source, 0, i);
+				escape(source, i, builder);
+				return builder.toString();
+			}
 		}
-		if (source.indexOf("<") != -1) {
-			source = LT_RE.replace(source, "&lt;");
+		return source;
+	}
+
+	/**
+	 * Escape the dangerous html chars of the source (in a single scan) at the
+	 * end of the builder
+	 * 
+	 * @param source
+	 *            the text to escape
+	 * @param builder
+	 *            the builder to write to
+	 */
+	public static void escape(final String source, final StringBuilder builder) {
+		escape(source, 0, builder);
+	}
+
+	/**
+	 * Unescape the html entities of the escaper (and &amp;apos;) and the
+	 * numeric character references (&amp;#..; and &amp;#x..;) in a single
+	 * scan. Unknown entities are left as they are
+	 * 
+	 * @param source
+	 *            the text to unescape
+	 * @return the unescaped text (the same instance if there is nothing to
+	 *         unescape)
+	 */
+	public static String unescape(final String source) {
+		if (source == null)
+			return null;
+		int amp = source.indexOf('&');
+		if (amp == -1) {
+			return source;
 		}
-		if (source.indexOf(">") != -1) {
-			source = GT_RE.replace(source, "&gt;");
+		final int length = source.length();
+		StringBuilder builder = null;
+		int start = 0;
+		while (amp != -1) {
+			final int semicolon = source.indexOf(';', amp + 1);
+			if (semicolon == -1) {
+				break;
+			}
+			final int codePoint = semicolon - amp <= MAX_ENTITY_LENGTH ? decodeEntity(source, amp + 1, semicolon) : -1;
+			if (codePoint == -1) {
+				amp = source.indexOf('&', amp + 1);
+			} else {
+				if (builder == null) {
+					builder = new StringBuilder(length);
+				}
+				builder.append(source, start, amp);
+				appendCodePoint(codePoint, builder);
+				start = semicolon + 1;
+				amp = source.indexOf('&', start);
+			}
 		}
-		if (source.indexOf("\"") != -1) {
-			source = QUOT_RE.replace(source, "&quot;");
+		if (builder == null) {
+			return source;
 		}
-		if (source.indexOf("\'") != -1) {
-			source = SQUOT_RE.replace(source, "&#39;");
+		builder.append(source, start, length);
+		return builder.toString();
+	}
+
+	private static void appendCodePoint(final int codePoint, final StringBuilder builder) {
+		if (codePoint < 0x10000) {
+			builder.append((char) codePoint);
+		} else {
+			// a surrogate pair
+			final int offset = codePoint - 0x10000;
+			builder.append((char) (0xD800 + (offset >> 10)));
+			builder.append((char) (0xDC00 + (offset & 0x3FF)));
 		}
-		return source;
 	}
 
-	/*
-	 * This method unescape only some dangerous html chars for use in GWT Html
-	 * widget for instance
+	/**
+	 * @return the code point of the entity between begin and end, or -1 if
+	 *         it's not a known entity or a valid character reference
 	 */
-	public static String unescape(String source) {
-		if (source == null)
-			return null;
-		if (source.indexOf("&amp;") != -1) {
-			source = AMP_HTML_RE.replace(source, "&");
+	private static int decodeEntity(final String source, final int begin, final int end) {
+		if (end - begin < 2) {
+			return -1;
 		}
-		if (source.indexOf("&lt;") != -1) {
-			source = LT_HTML_RE.replace(source, "<");
+		if (source.charAt(begin) == '#') {
+			final boolean hex = source.charAt(begin + 1) == 'x' || source.charAt(begin + 1) == 'X';
+			final int radix = hex ? 16 : 10;
+			final int first = hex ? begin + 2 : begin + 1;
+			if (first == end) {
+				return -1;
+			}
+			int codePoint = 0;
+			for (int i = first; i < end; i++) {
+				final int digit = Character.digit(source.charAt(i), radix);
+				if (digit == -1) {
+					return -1;
+				}
+				codePoint = codePoint * radix + digit;
+				if (codePoint > 0x10FFFF) {
+					return -1;
+				}
+			}
+			return codePoint;
 		}
-		if (source.indexOf("&gt;") != -1) {
-			source = GT_HTML_RE.replace(source, ">");
+		final String name = source.substring(begin, end);
+		if ("amp".equals(name)) {
+			return '&';
+		} else if ("lt".equals(name)) {
+			return '<';
+		} else if ("gt".equals(name)) {
+			return '>';
+		} else if ("quot".equals(name)) {
+			return '"';
+		} else if ("apos".equals(name)) {
+			return '\'';
 		}
-		if (source.indexOf("&quot;") != -1) {
-			source = QUOT_HTML_RE.replace(source, "\"");
+		return -1;
+	}
+
+	private static void escape(final String source, final int from, final StringBuilder builder) {
+		final int length = source.length();
+		int start = from;
+		for (int i = from; i < length; i++) {
+			final char c = source.charAt(i);
+			if (c <= '>' && ESCAPED[c]) {
+				builder.append(source, start, i).append(getEntity(c));
+				start = i + 1;
+			}
 		}
-		if (source.indexOf("&#39;") != -1) {
-			source = SQUOT_HTML_RE.replace(source, "\'");
+		builder.append(source, start, length);
+	}
+
+	/**
+	 * @return the entity that escapes the char (null if it's not escaped)
+	 */
+	private static String getEntity(final char c) {
+		switch (c) {
+		case '&':
+			return "&amp;";
+		case '<':
+			return "&lt;";
+		case '>':
+			return "&gt;";
+		case '"':
+			return "&quot;";
+		case '\'':
+			return "&#39;";
+		default:
+			return null;
 		}
-		return source;
 	}
 }
@@ -0,0 +1,308 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet;
+
+/**
+ * The position of every element of a xml text, found in a single scan. Nothing
+ * is copied from the text: the names, attributes and text of the elements are
+ * read (by {@link LazyPacket}) only when needed. Only the element structure is
+ * checked, so the text is not fully validated.
+ */
+final class XMLIndex {
+
+	private static final int SELF_CLOSING = 1;
+	private static final int MARKUP = 2;
+
+	private final String xml;
+	private int count;
+	private int[] tagStart;
+	private int[] nameEnd;
+	private int[] tagEnd;
+	private int[] contentEnd;
+	private int[] firstChild;
+	private int[] nextSibling;
+	private int[] flags;
+
+	/**
+	 * Index a xml text
+	 * 
+	 * @param xml
+	 *            the text
+	 * @return the index (the root element is 0) or null if the text is not
+	 *         well formed (or uses a DOCTYPE)
+	 */
+	static XMLIndex parse(final String xml) {
+		final XMLIndex index = new XMLIndex(xml);
+		return index.scan() ? index : null;
+	}
+
+	private XMLIndex(final String xml) {
+		this.xml = xml;
+		final int capacity = 16;
+		tagStart = new int[capacity];
+		nameEnd = new int[capacity];
+		tagEnd = new int[capacity];
+		contentEnd = new int[capacity];
+		firstChild = new int[capacity];
+		nextSibling = new int[capacity];
+		flags = new int[capacity];
+	}
+
+	/**
+	 * @return the start of the attributes of the element (right after its
+	 *         name)
+	 */
+	int getAttributesStart(final int element) {
+		return nameEnd[element];
+	}
+
+	/**
+	 * @return the end of the attributes of the element (the closing '>' or
+	 *         '/>')
+	 */
+	int getAttributesEnd(final int element) {
+		return tagEnd[element] - ((flags[element] & SELF_CLOSING) != 0 ? 2 : 1);
+	}
+
+	/**
+	 * @return the start of the content of the element (after its opening tag)
+	 */
+	int getContentStart(final int element) {
+		return tagEnd[element];
+	}
+
+	/**
+	 * @return the end of the content of the element (its closing tag)
+	 */
+	int getContentEnd(final int element) {
+		return contentEnd[element];
+	}
+
+	/**
+	 * @return the end of the element (after its closing tag)
+	 */
+	int getEnd(final int element) {
+		if ((flags[element] & SELF_CLOSING) != 0) {
+			return contentEnd[element];
+		}
+		return xml.indexOf('>', contentEnd[element]) + 1;
+	}
+
+	/**
+	 * @return the first child element or -1
+	 */
+	int getFirstChild(final int element) {
+		return firstChild[element];
+	}
+
+	String getName(final int element) {
+		return xml.substring(tagStart[element] + 1, nameEnd[element]);
+	}
+
+	/**
+	 * @return the next sibling element or -1
+	 */
+	int getNextSibling(final int element) {
+		return nextSibling[element];
+	}
+
+	/**
+	 * @return the start of the element (its opening '<')
+	 */
+	int getStart(final int element) {
+		return tagStart[element];
+	}
+
+	/**
+	 * The (escaped) text of an element between two positions outside its
+	 * child elements (the text before, between or after them). The CDATA
+	 * sections are escaped and the comments removed
+	 * 
+	 * @return the text, or null if there is no text
+	 */
+	String getText(final int element, final int start, final int end) {
+		if (end <= start) {
+			return null;
+		}
+		if ((flags[element] & MARKUP) == 0) {
+			return xml.substring(start, end);
+		}
+		final StringBuilder builder = new StringBuilder(end - start);
+		int position = start;
+		while (position < end) {
+			final int markup = xml.indexOf("<!", position);
+			if (markup == -1 || markup >= end) {
+				builder.append(xml, position, end);
+				break;
+			}
+			builder.append(xml, position, markup);
+			if (xml.startsWith("<![CDATA[", markup)) {
+				final int close = xml.indexOf("]]>", markup);
+				TextUtils.escape(xml.substring(markup + 9, close), builder);
+				position = close + 3;
+			} else {
+				position = xml.indexOf("-->", markup) + 3;
+			}
+		}
+		return builder.length() > 0 ? builder.toString() : null;
+	}
+
+	String getXml() {
+		return xml;
+	}
+
+	private int addElement(final int start) {
+		if (count == tagStart.length) {
+			final int capacity = count * 2;
+			tagStart = grow(tagStart, capacity);
+			nameEnd = grow(nameEnd, capacity);
+			tagEnd = grow(tagEnd, capacity);
+			contentEnd = grow(contentEnd, capacity);
+			firstChild = grow(firstChild, capacity);
+			nextSibling = grow(nextSibling, capacity);
+			flags = grow(flags, capacity);
+		}
+		final int element = count++;
+		tagStart[element] = start;
+		firstChild[element] = -1;
+		nextSibling[element] = -1;
+		flags[element] = 0;
+		return element;
+	}
+
+	private boolean scan() {
+		final int length = xml.length();
+		int[] stack = new int[16];
+		int[] lastChild = new int[16];
+		int depth = 0;
+		int position = xml.indexOf('<');
+		while (position != -1) {
+			if (position + 1 >= length) {
+				return false;
+			}
+			final char next = xml.charAt(position + 1);
+			if (next == '?') {
+				position = skip(position, "?>");
+			} else if (next == '!') {
+				final boolean cdata = xml.startsWith("<![CDATA[", position);
+				if (!cdata && !xml.startsWith("<!--", position)) {
+					// DOCTYPE is not supported
+					return false;
+				}
+				if (depth > 0) {
+					flags[stack[depth - 1]] |= MARKUP;
+				} else if (cdata) {
+					return false;
+				}
+				position = skip(position, cdata ? "]]>" : "-->");
+			} else if (next == '/') {
+				if (depth == 0) {
+					return false;
+				}
+				final int element = stack[--depth];
+				final int nameLength = nameEnd[element] - tagStart[element] - 1;
+				final int end = xml.indexOf('>', position);
+				if (end == -1 || !xml.regionMatches(position + 2, xml, tagStart[element] + 1, nameLength)
+						|| !isNameEnd(xml.charAt(position + 2 + nameLength))) {
+					return false;
+				}
+				contentEnd[element] = position;
+				position = end + 1;
+			} else {
+				final int element = addElement(position);
+				int i = position + 1;
+				while (i < length && !isNameEnd(xml.charAt(i))) {
+					i++;
+				}
+				if (i == position + 1) {
+					return false;
+				}
+				nameEnd[element] = i;
+				// the end of the tag (skipping the quoted attribute values)
+				char quote = 0;
+				while (i < length) {
+					final char c = xml.charAt(i);
+					if (quote != 0) {
+						if (c == quote) {
+							quote = 0;
+						}
+					} else if (c == '"' || c == '\'') {
+						quote = c;
+					} else if (c == '>') {
+						break;
+					}
+					i++;
+				}
+				if (i == length) {
+					return false;
+				}
+				tagEnd[element] = i + 1;
+				if (depth > 0) {
+					final int parent = stack[depth - 1];
+					if (firstChild[parent] == -1) {
+						firstChild[parent] = element;
+					} else {
+						nextSibling[lastChild[depth - 1]] = element;
+					}
+					lastChild[depth - 1] = element;
+				} else if (element != 0) {
+					// only one root element
+					return false;
+				}
+				if (xml.charAt(i - 1) == '/') {
+					flags[element] |= SELF_CLOSING;
+					contentEnd[element] = i + 1;
+				} else {
+					if (depth == stack.length) {
+						stack = grow(stack, depth * 2);
+						lastChild = grow(lastChild, depth * 2);
+					}
+					stack[depth++] = element;
+				}
+				position = i + 1;
+			}
+			if (position < 0) {
+				return false;
+			}
+			position = xml.indexOf('<', position);
+		}
+		return depth == 0 && count > 0;
+	}
+
+	/**
+	 * @return the position after the terminator, or a negative number if not
+	 *         found
+	 */
+	private int skip(final int position, final String terminator) {
+		final int end = xml.indexOf(terminator, position + 2);
+		return end == -1 ? -1 : end + terminator.length();
+	}
+
+	private static int[] grow(final int[] array, final int capacity) {
+		final int[] grown = new int[capacity];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static boolean isNameEnd(final char c) {
+		return c == ' ' || c == '>' || c == '/' || c == '\t' || c == '\n' || c == '\r';
+	}
+}
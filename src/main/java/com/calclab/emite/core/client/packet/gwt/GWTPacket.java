@@ -21,12 +21,14 @@
 package com.calclab.emite.core.client.packet.gwt;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import com.calclab.emite.core.client.packet.AbstractPacket;
 import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.IndexedAttributes;
 import com.calclab.emite.core.client.packet.PacketRenderer;
 import com.google.gwt.xml.client.Element;
 import com.google.gwt.xml.client.NamedNodeMap;
@@ -34,9 +36,23 @@ import com.google.gwt.xml.client.Node;
 import com.google.gwt.xml.client.NodeList;
 import com.google.gwt.xml.client.impl.DOMNodeException;
 
-public class GWTPacket extends AbstractPacket {
+/**
+ * A packet over a browser DOM element. The wrapper keeps the wrappers of its
+ * children and a copy of its attributes until they are changed through it, so
+ * a stanza inspected by several handlers is wrapped only once per node (the
+ * children wrappers are reused, and they know their parent wrapper).
+ * 
+ * Changes made to the DOM element without this wrapper are not seen by the
+ * cached children and attributes.
+ */
+public class GWTPacket extends AbstractPacket implements IndexedAttributes {
 	private static final List<IPacket> EMPTY_LIST = new ArrayList<IPacket>();
 	private final Element element;
+	private GWTPacket parent;
+	private ArrayList<IPacket> children;
+	private List<IPacket> childrenView;
+	private String[] attributeNames;
+	private String[] attributeValues;
 
 	public GWTPacket(final Element element) {
 		this.element = element;
@@ -44,8 +60,16 @@ public class GWTPacket extends AbstractPacket {
 
 	@Override
 	public IPacket addChild(final IPacket child) {
-		final Element childElement = ((GWTPacket) child).element;
-		element.appendChild(childElement);
+		final GWTPacket packet = (GWTPacket) child;
+		if (packet.parent != null && packet.parent.children != null) {
+			// the DOM moves the element from its previous parent
+			packet.parent.children.remove(packet);
+		}
+		element.appendChild(packet.element);
+		packet.parent = this;
+		if (children != null) {
+			children.add(packet);
+		}
 		return child;
 	}
 
@@ -57,26 +81,47 @@ public class GWTPacket extends AbstractPacket {
 	@Override
 	public IPacket addChild(final String nodeName, final String xmlns) {
 		final Element child = element.getOwnerDocument().createElement(nodeName);
-		element.appendChild(child);
-		return new GWTPacket(child);
+		return addChild(new GWTPacket(child));
 	}
 
 	@Override
 	public String getAttribute(final String name) {
-		return element.getAttribute(name);
+		loadAttributes();
+		for (int index = 0; index < attributeNames.length; index++) {
+			if (attributeNames[index].equals(name)) {
+				return attributeValues[index];
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int getAttributeCount() {
+		loadAttributes();
+		return attributeNames.length;
+	}
+
+	@Override
+	public String getAttributeName(final int index) {
+		loadAttributes();
+		return attributeNames[index];
+	}
+
+	@Override
+	public String getAttributeValue(final int index) {
+		loadAttributes();
+		return attributeValues[index];
 	}
 
+	/**
+	 * A copy of the attributes: changing the map doesn't change the packet
+	 */
 	@Override
 	public HashMap<String, String> getAttributes() {
+		loadAttributes();
 		final HashMap<String, String> map = new HashMap<String, String>();
-		final NamedNodeMap attributes = element.getAttributes();
-		for (int index = 0; index < attributes.getLength(); index++) {
-			final Node attrib = attributes.item(index);
-			if(attrib == null) {
-				continue;
-			}
-			
-			map.put(attrib.getNodeName(), attrib.getNodeValue());
+		for (int index = 0; index < attributeNames.length; index++) {
+			map.put(attributeNames[index], attributeValues[index]);
 		}
 		return map;
 	}
@@ -97,7 +142,19 @@ public class GWTPacket extends AbstractPacket {
 
 	@Override
 	public List<? extends IPacket> getChildren() {
-		return wrap(element.getChildNodes());
+		if (childrenView == null) {
+			final List<IPacket> wrapped = wrap(element.getChildNodes());
+			if (wrapped == EMPTY_LIST) {
+				children = new ArrayList<IPacket>(2);
+			} else {
+				children = (ArrayList<IPacket>) wrapped;
+				for (final IPacket child : children) {
+					((GWTPacket) child).parent = this;
+				}
+			}
+			childrenView = Collections.unmodifiableList(children);
+		}
+		return childrenView;
 	}
 
 	@Override
@@ -121,7 +178,10 @@ public class GWTPacket extends AbstractPacket {
 	}
 
 	public IPacket getParent() {
-		return new GWTPacket((Element) element.getParentNode());
+		if (parent == null) {
+			parent = new GWTPacket((Element) element.getParentNode());
+		}
+		return parent;
 	}
 
 	@Override
@@ -140,7 +200,13 @@ public class GWTPacket extends AbstractPacket {
 	public boolean removeChild(final IPacket child) {
 		final Element childElement = ((GWTPacket) child).element;
 		try {
-			return element.removeChild(childElement) != null;
+			final boolean removed = element.removeChild(childElement) != null;
+			if (removed && children != null && !children.remove(child)) {
+				// removed through another wrapper of the child
+				children = null;
+				childrenView = null;
+			}
+			return removed;
 		} catch (final DOMNodeException e) {
 			return false;
 		}
@@ -148,6 +214,8 @@ public class GWTPacket extends AbstractPacket {
 
 	@Override
 	public void setAttribute(final String name, final String value) {
+		attributeNames = null;
+		attributeValues = null;
 		if (value != null) {
 			element.setAttribute(name, value);
 		} else {
@@ -174,6 +242,27 @@ public class GWTPacket extends AbstractPacket {
 		return PacketRenderer.toString(this);
 	}
 
+	private void loadAttributes() {
+		if (attributeNames != null) {
+			return;
+		}
+		final NamedNodeMap attributes = element.getAttributes();
+		final int length = attributes.getLength();
+		final ArrayList<Node> nodes = new ArrayList<Node>(length);
+		for (int index = 0; index < length; index++) {
+			final Node attribute = attributes.item(index);
+			if (attribute != null) {
+				nodes.add(attribute);
+			}
+		}
+		attributeNames = new String[nodes.size()];
+		attributeValues = new String[nodes.size()];
+		for (int index = 0; index < attributeNames.length; index++) {
+			attributeNames[index] = nodes.get(index).getNodeName();
+			attributeValues[index] = nodes.get(index).getNodeValue();
+		}
+	}
+
 	private List<IPacket> wrap(final NodeList nodes) {
 		int length;
 		if (nodes == null || (length = nodes.getLength()) == 0)
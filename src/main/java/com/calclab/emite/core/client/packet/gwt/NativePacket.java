@@ -0,0 +1,301 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet.gwt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.IndexedAttributes;
+import com.calclab.emite.core.client.packet.MatcherFactory;
+import com.calclab.emite.core.client.packet.NoPacket;
+import com.calclab.emite.core.client.packet.PacketMatcher;
+import com.calclab.emite.core.client.packet.PacketRenderer;
+import com.calclab.emite.core.client.packet.PacketTraversal;
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * A packet that IS the browser native DOM element (an overlay type): parsing
+ * with {@link #parse(String)} doesn't create any Java object per node, and
+ * the children returned are the native child elements.
+ * 
+ * Being an overlay type, toString() can't be overridden: use
+ * PacketRenderer.toString to get the xml. The children added must be native
+ * packets; other packets are imported (as a copy) into the document.
+ */
+public class NativePacket extends JavaScriptObject implements IPacket, IndexedAttributes {
+
+	/**
+	 * Parse the xml with the browser DOMParser
+	 * 
+	 * @return the root element or null if the xml is not valid
+	 */
+	public static native NativePacket parse(String xml) /*-{
+		var document = new DOMParser().parseFromString(xml, "text/xml");
+		var root = document.documentElement;
+		if (!root || root.nodeName == "parsererror" || root.getElementsByTagName("parsererror").length > 0) {
+			return null;
+		}
+		return root;
+	}-*/;
+
+	protected NativePacket() {
+	}
+
+	@Override
+	public final IPacket addChild(final IPacket child) {
+		if (child instanceof NativePacket) {
+			appendChild((NativePacket) child);
+			return child;
+		}
+		return importChild(PacketRenderer.toString(child));
+	}
+
+	@Override
+	public final IPacket addChild(final String nodeName) {
+		return addChild(nodeName, null);
+	}
+
+	@Override
+	public final native IPacket addChild(String nodeName, String xmlns) /*-{
+		var child = this.ownerDocument.createElement(nodeName);
+		if (xmlns != null) {
+			child.setAttribute("xmlns", xmlns);
+		}
+		this.appendChild(child);
+		return child;
+	}-*/;
+
+	@Override
+	public final native String getAttribute(String name) /*-{
+		var attribute = this.getAttributeNode(name);
+		return attribute ? attribute.value : null;
+	}-*/;
+
+	@Override
+	public final native int getAttributeCount() /*-{
+		return this.attributes.length;
+	}-*/;
+
+	@Override
+	public final native String getAttributeName(int index) /*-{
+		return this.attributes[index].name;
+	}-*/;
+
+	/**
+	 * A copy of the attributes: changing the map doesn't change the packet
+	 */
+	@Override
+	public final HashMap<String, String> getAttributes() {
+		final HashMap<String, String> attributes = new HashMap<String, String>();
+		for (int index = 0, count = getAttributeCount(); index < count; index++) {
+			attributes.put(getAttributeName(index), getAttributeValue(index));
+		}
+		return attributes;
+	}
+
+	@Override
+	public final native String getAttributeValue(int index) /*-{
+		return this.attributes[index].value;
+	}-*/;
+
+	/**
+	 * The child elements (the text is not included)
+	 */
+	@Override
+	public final List<? extends IPacket> getChildren() {
+		final ArrayList<IPacket> children = new ArrayList<IPacket>();
+		for (NativePacket child = getFirstChildElement(); child != null; child = child.getNextSiblingElement()) {
+			children.add(child);
+		}
+		return children;
+	}
+
+	@Override
+	public final List<? extends IPacket> getChildren(final PacketMatcher filter) {
+		final ArrayList<IPacket> children = new ArrayList<IPacket>();
+		for (NativePacket child = getFirstChildElement(); child != null; child = child.getNextSiblingElement()) {
+			if (filter.matches(child)) {
+				children.add(child);
+			}
+		}
+		return children;
+	}
+
+	public final List<? extends IPacket> getChildren(final String name) {
+		return getChildren(MatcherFactory.byName(name));
+	}
+
+	/**
+	 * The number of child nodes (the text included)
+	 */
+	@Override
+	public final native int getChildrenCount() /*-{
+		return this.childNodes.length;
+	}-*/;
+
+	@Override
+	public final IPacket getFirstChild(final PacketMatcher filter) {
+		for (NativePacket child = getFirstChildElement(); child != null; child = child.getNextSiblingElement()) {
+			if (filter.matches(child)) {
+				return child;
+			}
+		}
+		return NoPacket.INSTANCE;
+	}
+
+	@Override
+	public final IPacket getFirstChild(final String childName) {
+		return getFirstChild(MatcherFactory.byName(childName));
+	}
+
+	@Override
+	public final IPacket getFirstChildInDeep(final PacketMatcher filter) {
+		return PacketTraversal.find(this, filter, PacketTraversal.Order.bfs, PacketTraversal.UNLIMITED);
+	}
+
+	@Override
+	public final IPacket getFirstChildInDeep(final String childName) {
+		return getFirstChildInDeep(MatcherFactory.byName(childName));
+	}
+
+	@Override
+	public final native String getName() /*-{
+		return this.nodeName;
+	}-*/;
+
+	/**
+	 * @return the parent element or null if this is the root
+	 */
+	public final native NativePacket getParent() /*-{
+		var parent = this.parentNode;
+		return parent && parent.nodeType == 1 ? parent : null;
+	}-*/;
+
+	@Override
+	public final native String getText() /*-{
+		for (var node = this.firstChild; node; node = node.nextSibling) {
+			if (node.nodeType == 3 || node.nodeType == 4) {
+				return node.nodeValue;
+			}
+		}
+		return null;
+	}-*/;
+
+	@Override
+	public final boolean hasAttribute(final String name) {
+		return getAttribute(name) != null;
+	}
+
+	@Override
+	public final boolean hasAttribute(final String name, final String value) {
+		return value.equals(getAttribute(name));
+	}
+
+	@Override
+	public final boolean hasChild(final String name) {
+		return getFirstChild(name) != NoPacket.INSTANCE;
+	}
+
+	@Override
+	public final boolean removeChild(final IPacket child) {
+		return child instanceof NativePacket && removeChildElement((NativePacket) child);
+	}
+
+	@Override
+	public final native void setAttribute(String name, String value) /*-{
+		if (value != null) {
+			this.setAttribute(name, value);
+		} else {
+			this.removeAttribute(name);
+		}
+	}-*/;
+
+	@Override
+	public final native void setText(String text) /*-{
+		var node = this.firstChild;
+		while (node) {
+			var next = node.nextSibling;
+			if (node.nodeType == 3 || node.nodeType == 4) {
+				this.removeChild(node);
+			}
+			node = next;
+		}
+		if (text != null) {
+			this.appendChild(this.ownerDocument.createTextNode(text));
+		}
+	}-*/;
+
+	@Override
+	public final void setTextToChild(final String nodeName, final String text) {
+		if (text != null) {
+			IPacket node = getFirstChild(nodeName);
+			if (node == NoPacket.INSTANCE) {
+				node = addChild(nodeName, null);
+			}
+			node.setText(text);
+		} else {
+			removeChild(getFirstChild(nodeName));
+		}
+	}
+
+	@Override
+	public final IPacket With(final String name, final String value) {
+		setAttribute(name, value);
+		return this;
+	}
+
+	private native void appendChild(NativePacket child) /*-{
+		this.appendChild(child);
+	}-*/;
+
+	private native NativePacket getFirstChildElement() /*-{
+		var node = this.firstChild;
+		while (node && node.nodeType != 1) {
+			node = node.nextSibling;
+		}
+		return node;
+	}-*/;
+
+	private native NativePacket getNextSiblingElement() /*-{
+		var node = this.nextSibling;
+		while (node && node.nodeType != 1) {
+			node = node.nextSibling;
+		}
+		return node;
+	}-*/;
+
+	private native NativePacket importChild(String xml) /*-{
+		var parsed = new DOMParser().parseFromString(xml, "text/xml").documentElement;
+		var child = this.ownerDocument.importNode(parsed, true);
+		this.appendChild(child);
+		return child;
+	}-*/;
+
+	private native boolean removeChildElement(NativePacket child) /*-{
+		if (child.parentNode !== this) {
+			return false;
+		}
+		this.removeChild(child);
+		return true;
+	}-*/;
+}
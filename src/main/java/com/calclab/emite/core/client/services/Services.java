@@ -27,7 +27,16 @@ public interface Services {
 	
 	long getCurrentTime();
 
-	void schedule(int msecs, ScheduledAction action);
+	/**
+	 * Schedule an action
+	 * 
+	 * @param msecs
+	 *            the delay in milliseconds
+	 * @param action
+	 *            the action to run
+	 * @return the handle to cancel the action
+	 */
+	TimerHandle schedule(int msecs, ScheduledAction action);
 
 	/**
 	 * Sends an http request.
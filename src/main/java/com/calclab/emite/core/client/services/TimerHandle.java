@@ -0,0 +1,41 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.services;
+
+/**
+ * A handle to a scheduled action
+ * 
+ * @see Services#schedule(int, ScheduledAction)
+ */
+public interface TimerHandle {
+
+	/**
+	 * Cancel the action if it has not been run yet
+	 * 
+	 * @return true if the action was pending and now it will never run
+	 */
+	boolean cancel();
+
+	/**
+	 * @return true if the action is still waiting to be run
+	 */
+	boolean isPending();
+}
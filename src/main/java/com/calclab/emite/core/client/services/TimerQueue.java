@@ -0,0 +1,145 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.services;
+
+import java.util.ArrayList;
+
+/**
+ * A queue of scheduled actions ordered by due time, to run all the actions of
+ * an application with a single (native) timer: only the timer of the first
+ * action needs to be armed.
+ * 
+ * It's not thread safe.
+ */
+public class TimerQueue {
+
+	private class Entry implements TimerHandle {
+		private final long due;
+		private final long sequence;
+		private final ScheduledAction action;
+		private boolean pending;
+
+		Entry(final long due, final long sequence, final ScheduledAction action) {
+			this.due = due;
+			this.sequence = sequence;
+			this.action = action;
+			pending = true;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (pending) {
+				pending = false;
+				entries.remove(this);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean isPending() {
+			return pending;
+		}
+
+		boolean isBefore(final Entry other) {
+			return due < other.due || due == other.due && sequence < other.sequence;
+		}
+	}
+
+	private final ArrayList<Entry> entries;
+	private long sequence;
+
+	public TimerQueue() {
+		entries = new ArrayList<Entry>();
+	}
+
+	/**
+	 * Add a new action
+	 * 
+	 * @param due
+	 *            the time the action should be run
+	 * @param action
+	 *            the action
+	 * @return the handle to cancel the action
+	 */
+	public TimerHandle add(final long due, final ScheduledAction action) {
+		final Entry entry = new Entry(due, sequence++, action);
+		int low = 0;
+		int high = entries.size();
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (entries.get(middle).isBefore(entry)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		entries.add(low, entry);
+		return entry;
+	}
+
+	public void clear() {
+		for (final Entry entry : entries) {
+			entry.pending = false;
+		}
+		entries.clear();
+	}
+
+	/**
+	 * @return the due time of the first action, or -1 if the queue is empty
+	 */
+	public long getNextDue() {
+		return entries.isEmpty() ? -1 : entries.get(0).due;
+	}
+
+	public boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * Run (in order) every action due at the given time. The actions scheduled
+	 * while running are not run, even if they are already due.
+	 * 
+	 * @param now
+	 *            the current time
+	 * @return the number of actions run
+	 */
+	public int runDue(final long now) {
+		final ArrayList<Entry> due = new ArrayList<Entry>();
+		while (!entries.isEmpty() && entries.get(0).due <= now) {
+			due.add(entries.remove(0));
+		}
+		int run = 0;
+		for (final Entry entry : due) {
+			// an action can cancel the next ones
+			if (entry.pending) {
+				entry.pending = false;
+				entry.action.run();
+				run++;
+			}
+		}
+		return run;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+}
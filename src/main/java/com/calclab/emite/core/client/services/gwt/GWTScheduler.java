@@ -23,21 +23,63 @@ package com.calclab.emite.core.client.services.gwt;
 import java.util.Date;
 
 import com.calclab.emite.core.client.services.ScheduledAction;
+import com.calclab.emite.core.client.services.TimerHandle;
+import com.calclab.emite.core.client.services.TimerQueue;
 import com.google.gwt.user.client.Timer;
 
+/**
+ * Runs all the scheduled actions with a single GWT Timer, armed for the first
+ * pending action
+ */
 public class GWTScheduler {
 
+	private static final TimerQueue queue = new TimerQueue();
+
+	private static final Timer timer = new Timer() {
+		@Override
+		public void run() {
+			armed = -1;
+			queue.runDue(getCurrentTime());
+			arm();
+		}
+	};
+
+	/**
+	 * The time the timer will fire, or -1 if it's not armed
+	 */
+	private static long armed = -1;
+
 	public static long getCurrentTime() {
 		return new Date().getTime();
 	}
 
-	public static void schedule(final int msecs, final ScheduledAction action) {
-		new Timer() {
+	public static TimerHandle schedule(final int msecs, final ScheduledAction action) {
+		final TimerHandle entry = queue.add(getCurrentTime() + msecs, action);
+		arm();
+		return new TimerHandle() {
 			@Override
-			public void run() {
-				action.run();
+			public boolean cancel() {
+				final boolean canceled = entry.cancel();
+				if (canceled && queue.isEmpty() && armed != -1) {
+					timer.cancel();
+					armed = -1;
+				}
+				return canceled;
 			}
-		}.schedule(msecs);
+
+			@Override
+			public boolean isPending() {
+				return entry.isPending();
+			}
+		};
+	}
+
+	private static void arm() {
+		final long next = queue.getNextDue();
+		if (next != -1 && (armed == -1 || next < armed)) {
+			armed = next;
+			timer.schedule((int) Math.max(1, next - getCurrentTime()));
+		}
 	}
 
 }
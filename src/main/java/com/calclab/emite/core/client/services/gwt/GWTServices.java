@@ -25,6 +25,7 @@ import com.calclab.emite.core.client.services.ConnectorCallback;
 import com.calclab.emite.core.client.services.ConnectorException;
 import com.calclab.emite.core.client.services.ScheduledAction;
 import com.calclab.emite.core.client.services.Services;
+import com.calclab.emite.core.client.services.TimerHandle;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
@@ -41,8 +42,8 @@ public class GWTServices implements Services {
 	}
 
 	@Override
-	public void schedule(final int msecs, final ScheduledAction action) {
-		GWTScheduler.schedule(msecs, action);
+	public TimerHandle schedule(final int msecs, final ScheduledAction action) {
+		return GWTScheduler.schedule(msecs, action);
 	}
 
 	@Override
@@ -0,0 +1,99 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.services.gwt;
+
+import com.calclab.emite.core.client.services.ConnectorException;
+import com.calclab.emite.core.client.services.WebSocketCallback;
+import com.calclab.emite.core.client.services.WebSocketChannel;
+import com.calclab.emite.core.client.services.WebSocketConnector;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * WebSocketConnector implementation using the browser native WebSocket
+ */
+@Singleton
+public class GWTWebSocketConnector implements WebSocketConnector {
+
+	private static class GWTWebSocketChannel implements WebSocketChannel {
+		private final JavaScriptObject socket;
+
+		GWTWebSocketChannel(final JavaScriptObject socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		public void close() {
+			close(socket);
+		}
+
+		@Override
+		public void send(final String message) {
+			send(socket, message);
+		}
+
+		private native void close(JavaScriptObject socket) /*-{
+			socket.close();
+		}-*/;
+
+		private native void send(JavaScriptObject socket, String message) /*-{
+			socket.send(message);
+		}-*/;
+	}
+
+	public static native boolean isSupported() /*-{
+		return !!$wnd.WebSocket;
+	}-*/;
+
+	private static native JavaScriptObject create(String url, String protocol, WebSocketCallback callback) /*-{
+		var socket = new $wnd.WebSocket(url, protocol);
+		socket.onopen = $entry(function() {
+			callback.@com.calclab.emite.core.client.services.WebSocketCallback::onOpen()();
+		});
+		socket.onmessage = $entry(function(event) {
+			callback.@com.calclab.emite.core.client.services.WebSocketCallback::onMessage(Ljava/lang/String;)(event.data);
+		});
+		socket.onerror = $entry(function() {
+			callback.@com.calclab.emite.core.client.services.WebSocketCallback::onError(Ljava/lang/String;)("WebSocket error");
+		});
+		socket.onclose = $entry(function(event) {
+			callback.@com.calclab.emite.core.client.services.WebSocketCallback::onClose(ILjava/lang/String;)(event.code, event.reason || "");
+		});
+		return socket;
+	}-*/;
+
+	@Inject
+	public GWTWebSocketConnector() {
+	}
+
+	@Override
+	public WebSocketChannel open(final String url, final String protocol, final WebSocketCallback callback) throws ConnectorException {
+		if (!isSupported()) {
+			throw new ConnectorException("WebSocket not supported by this browser");
+		}
+		try {
+			return new GWTWebSocketChannel(create(url, protocol, callback));
+		} catch (final Exception e) {
+			throw new ConnectorException(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.services.gwt;
+
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.NoPacket;
+import com.calclab.emite.core.client.packet.gwt.GWTPacket;
+import com.google.gwt.xml.client.Document;
+import com.google.gwt.xml.client.Element;
+import com.google.gwt.xml.client.Node;
+import com.google.gwt.xml.client.XMLParser;
+import com.google.gwt.xml.client.impl.DOMParseException;
+
+/**
+ * Parses xml into GWTPacket (over the GWT XML wrappers). This is the parser
+ * used by the browsers without DOMParser; the others get a NativeXMLParser by
+ * deferred binding (see EmiteCore.gwt.xml)
+ */
+public class GWTXMLParser {
+
+	public IPacket toXML(final String xml) {
+		try {
+			final Document parsed = XMLParser.parse(xml);
+			final Node body = parsed.getChildNodes().item(0);
+			return new GWTPacket((Element) body);
+		} catch (final DOMParseException exception) {
+			return NoPacket.INSTANCE;
+		}
+	}
+}
@@ -21,28 +21,20 @@
 package com.calclab.emite.core.client.services.gwt;
 
 import com.calclab.emite.core.client.packet.IPacket;
-import com.calclab.emite.core.client.packet.NoPacket;
-import com.calclab.emite.core.client.packet.gwt.GWTPacket;
-import com.google.gwt.xml.client.Document;
-import com.google.gwt.xml.client.Element;
-import com.google.gwt.xml.client.Node;
-import com.google.gwt.xml.client.XMLParser;
-import com.google.gwt.xml.client.impl.DOMParseException;
+import com.calclab.emite.core.client.packet.PacketRenderer;
+import com.google.gwt.core.client.GWT;
 
 public class GWTXMLService {
 
+	private static final GWTXMLParser parser = GWT.create(GWTXMLParser.class);
+
 	public static String toString(final IPacket packet) {
-		return packet.toString();
+		// not packet.toString(): the native packets can't override it
+		return PacketRenderer.toString(packet);
 	}
 
 	public static IPacket toXML(final String xml) {
-		try {
-			final Document parsed = XMLParser.parse(xml);
-			final Node body = parsed.getChildNodes().item(0);
-			return new GWTPacket((Element) body);
-		} catch (final DOMParseException exception) {
-			return NoPacket.INSTANCE;
-		}
+		return parser.toXML(xml);
 	}
 
 	private GWTXMLService() {
@@ -0,0 +1,38 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.services.gwt;
+
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.NoPacket;
+import com.calclab.emite.core.client.packet.gwt.NativePacket;
+
+/**
+ * Parses xml into NativePacket with the browser DOMParser, without any Java
+ * wrapper per node
+ */
+public class NativeXMLParser extends GWTXMLParser {
+
+	@Override
+	public IPacket toXML(final String xml) {
+		final NativePacket packet = NativePacket.parse(xml);
+		return packet != null ? packet : NoPacket.INSTANCE;
+	}
+}
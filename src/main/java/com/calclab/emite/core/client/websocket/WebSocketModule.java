@@ -0,0 +1,43 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.websocket;
+
+import com.calclab.emite.core.client.CoreModule;
+import com.calclab.emite.core.client.conn.XmppConnection;
+import com.calclab.emite.core.client.services.WebSocketConnector;
+import com.calclab.emite.core.client.services.gwt.GWTWebSocketConnector;
+import com.google.inject.Singleton;
+
+/**
+ * The Emite core module using the WebSocket transport instead of BOSH. Use it
+ * instead of CoreModule in your Ginjector modules.
+ * 
+ * @see XmppWebSocketConnection
+ */
+public class WebSocketModule extends CoreModule {
+
+	@Override
+	protected void bindConnection() {
+		bind(WebSocketConnector.class).to(GWTWebSocketConnector.class).in(Singleton.class);
+		bind(XmppConnection.class).to(XmppWebSocketConnection.class).in(Singleton.class);
+	}
+
+}
@@ -0,0 +1,274 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.websocket;
+
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.calclab.emite.core.client.bosh.StreamSettings;
+import com.calclab.emite.core.client.conn.StanzaSentEvent;
+import com.calclab.emite.core.client.conn.XmppConnection;
+import com.calclab.emite.core.client.conn.XmppConnectionBoilerPlate;
+import com.calclab.emite.core.client.events.EmiteEventBus;
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.NoPacket;
+import com.calclab.emite.core.client.packet.Packet;
+import com.calclab.emite.core.client.packet.PacketRenderer;
+import com.calclab.emite.core.client.services.ConnectorException;
+import com.calclab.emite.core.client.services.Services;
+import com.calclab.emite.core.client.services.WebSocketCallback;
+import com.calclab.emite.core.client.services.WebSocketChannel;
+import com.calclab.emite.core.client.services.WebSocketConnector;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * A WebSocket connection implementation (XMPP over WebSocket). Every frame
+ * is a complete XML element: the stanzas are sent and received as soon as
+ * they are available, without any HTTP request per message.
+ * 
+ * The ConnectionSettings httpBase is used as the WebSocket url (for example
+ * ws://example.com:5280/xmpp-websocket). Pause and resume are not supported.
+ * 
+ * @see http://tools.ietf.org/html/rfc7395
+ * @see XmppConnection
+ */
+@Singleton
+public class XmppWebSocketConnection extends XmppConnectionBoilerPlate {
+
+	public static final String FRAMING_XMLNS = "urn:ietf:params:xml:ns:xmpp-framing";
+	public static final String PROTOCOL = "xmpp";
+
+	private static final Logger logger = Logger.getLogger(XmppWebSocketConnection.class.getName());
+
+	private final Services services;
+	private final WebSocketConnector connector;
+	private final WebSocketCallback callback;
+
+	/**
+	 * Stanzas sent while the stream is being (re)opened
+	 */
+	private final ArrayList<IPacket> queued;
+	private WebSocketChannel socket;
+	private boolean streamOpen;
+
+	@Inject
+	public XmppWebSocketConnection(final EmiteEventBus eventBus, final Services services, final WebSocketConnector connector) {
+		super(eventBus);
+		this.services = services;
+		this.connector = connector;
+		queued = new ArrayList<IPacket>();
+
+		callback = new WebSocketCallback() {
+			@Override
+			public void onClose(final int code, final String reason) {
+				if (isActive()) {
+					logger.info("WebSocket closed: " + code + " " + reason);
+					socket = null;
+					closeStream();
+					if (code != 1000) {
+						fireError("WebSocket closed: " + code + " " + reason);
+					}
+					fireDisconnected("disconnected by server");
+				}
+			}
+
+			@Override
+			public void onError(final String message) {
+				if (isActive()) {
+					final int e = incrementErrors();
+					getLiveMetrics().recordError();
+					// The socket is always closed after an error: onClose will notify it
+					logger.warning("WebSocket error #" + e + ": " + message);
+				}
+			}
+
+			@Override
+			public void onMessage(final String message) {
+				if (isActive()) {
+					fireResponse(message);
+					final IPacket frame = services.toXML(message);
+					getLiveMetrics().recordResponse(message.length(), frame != null && !"open".equals(frame.getName()) ? 1 : 0);
+					handleFrame(frame);
+					fireMetrics(services.getCurrentTime());
+				}
+			}
+
+			@Override
+			public void onOpen() {
+				if (isActive()) {
+					sendOpen();
+				}
+			}
+		};
+	}
+
+	@Override
+	public void connect() {
+		assert getConnectionSettings() != null : "You should set user settings before connect!";
+		clearErrors();
+
+		if (!isActive()) {
+			setActive(true);
+			setStream(new StreamSettings());
+			streamOpen = false;
+			queued.clear();
+			try {
+				socket = connector.open(getConnectionSettings().httpBase, PROTOCOL, callback);
+			} catch (final ConnectorException e) {
+				logger.log(Level.SEVERE, "Can't open WebSocket", e);
+				closeStream();
+				fireError("Connection error: " + e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void disconnect() {
+		logger.finer("WebSocketConnection - Disconnected called - Clearing queued stanzas and closing the stream.");
+		queued.clear();
+		if (socket != null) {
+			if (streamOpen) {
+				socket.send(services.toString(new Packet("close", FRAMING_XMLNS)));
+			}
+			socket.close();
+			socket = null;
+		}
+		closeStream();
+		fireDisconnected("logged out");
+	}
+
+	@Override
+	public boolean isConnected() {
+		return isActive() && getStreamSettings() != null;
+	}
+
+	/**
+	 * WebSocket streams can't be paused
+	 * 
+	 * @return always null
+	 */
+	@Override
+	public StreamSettings pause() {
+		return null;
+	}
+
+	@Override
+	public void restartStream() {
+		streamOpen = false;
+		if (socket != null) {
+			sendOpen();
+		}
+	}
+
+	/**
+	 * WebSocket streams can't be resumed
+	 * 
+	 * @return always false
+	 */
+	@Override
+	public boolean resume(final StreamSettings settings) {
+		return false;
+	}
+
+	@Override
+	public void send(final IPacket packet) {
+		if (streamOpen && socket != null) {
+			write(packet);
+		} else {
+			queued.add(packet);
+			getLiveMetrics().recordQueued(queued.size());
+		}
+		eventBus.fireEvent(new StanzaSentEvent(packet));
+	}
+
+	@Override
+	public String toString() {
+		return "WebSocket in " + (isActive() ? "active" : "inactive") + " stream=" + getStreamSettings();
+	}
+
+	private void closeStream() {
+		setActive(false);
+		streamOpen = false;
+		if (getStreamSettings() != null) {
+			getStreamSettings().sid = null;
+		}
+	}
+
+	private void handleFrame(final IPacket frame) {
+		if (frame == null || frame == NoPacket.INSTANCE) {
+			logger.warning("Invalid WebSocket frame received");
+			return;
+		}
+		final String name = frame.getName();
+		if ("open".equals(name)) {
+			streamOpen = true;
+			if (getStreamSettings().sid == null) {
+				getStreamSettings().sid = frame.getAttribute("id");
+				fireConnected();
+			}
+			final ArrayList<IPacket> pending = new ArrayList<IPacket>(queued);
+			queued.clear();
+			for (final IPacket packet : pending) {
+				write(packet);
+			}
+		} else if ("close".equals(name)) {
+			if (socket != null) {
+				socket.close();
+				socket = null;
+			}
+			closeStream();
+			fireDisconnected("disconnected by server");
+		} else {
+			try {
+				fireStanzaReceived(frame);
+			} catch (final Exception e) {
+				logger.log(Level.WARNING, "Error occurred while processing received stanza: " + PacketRenderer.toString(frame), e);
+			}
+		}
+	}
+
+	private void sendOpen() {
+		final Packet open = new Packet("open", FRAMING_XMLNS);
+		open.setAttribute("to", getConnectionSettings().hostName);
+		open.setAttribute("version", "1.0");
+		open.setAttribute("xml:lang", "en");
+		socket.send(services.toString(open));
+	}
+
+	/**
+	 * Every frame is a standalone XML document, so the stanzas must declare
+	 * their namespace. It is added to the rendered frame: the packet of the
+	 * caller is not changed
+	 */
+	private void write(final IPacket packet) {
+		final String name = packet.getName();
+		String frame = services.toString(packet);
+		if (!packet.hasAttribute("xmlns") && ("message".equals(name) || "presence".equals(name) || "iq".equals(name))
+				&& frame.startsWith("<" + name)) {
+			final int end = name.length() + 1;
+			frame = frame.substring(0, end) + " xmlns=\"jabber:client\"" + frame.substring(end);
+		}
+		getLiveMetrics().recordRequest(frame.length(), 1, false);
+		socket.send(frame);
+	}
+}
@@ -0,0 +1,275 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.jvm;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.calclab.emite.core.client.services.ScheduledAction;
+import com.calclab.emite.core.client.services.TimerHandle;
+
+/**
+ * A hashed timer wheel: a single thread expires the buckets of the elapsed
+ * ticks (of tickMillis) and runs the actions whose rounds have elapsed.
+ * Scheduling and canceling are O(1). The thread doesn't tick while there's
+ * nothing to run: it sleeps until the next deadline, or until an action is
+ * scheduled (forever if the wheel is empty).
+ * 
+ * The due actions are run on the given executor, not on the tick thread.
+ * 
+ * @see <a href="http://www.cs.columbia.edu/~nahum/w6998/papers/sosp87-timing-wheels.pdf">Hashed and Hierarchical Timing Wheels</a>
+ */
+public class HashedWheelTimer {
+
+	private static final Logger logger = Logger.getLogger(HashedWheelTimer.class.getName());
+
+	private class Timeout implements TimerHandle {
+		private final ScheduledAction action;
+		private final int bucket;
+		private long rounds;
+		private boolean pending;
+
+		Timeout(final ScheduledAction action, final int bucket, final long rounds) {
+			this.action = action;
+			this.bucket = bucket;
+			this.rounds = rounds;
+			pending = true;
+		}
+
+		@Override
+		public boolean cancel() {
+			synchronized (wheel) {
+				if (pending) {
+					pending = false;
+					if (wheel[bucket].remove(this)) {
+						size--;
+					}
+					return true;
+				}
+				return false;
+			}
+		}
+
+		@Override
+		public boolean isPending() {
+			synchronized (wheel) {
+				return pending;
+			}
+		}
+	}
+
+	private final long tickMillis;
+	private final LinkedList<Timeout>[] wheel;
+	private final Executor executor;
+	private final Thread worker;
+	private final long start;
+	/**
+	 * The last expired tick
+	 */
+	private long tick;
+	private int size;
+	private volatile boolean stopped;
+	private volatile int wakeups;
+
+	/**
+	 * @param tickMillis
+	 *            the resolution of the timer
+	 * @param ticksPerWheel
+	 *            the number of buckets
+	 * @param executor
+	 *            the executor used to run the due actions
+	 * @param threadFactory
+	 *            the factory of the tick thread
+	 */
+	@SuppressWarnings("unchecked")
+	public HashedWheelTimer(final long tickMillis, final int ticksPerWheel, final Executor executor, final ThreadFactory threadFactory) {
+		this.tickMillis = tickMillis;
+		this.executor = executor;
+		start = System.currentTimeMillis();
+		wheel = new LinkedList[ticksPerWheel];
+		for (int index = 0; index < ticksPerWheel; index++) {
+			wheel[index] = new LinkedList<Timeout>();
+		}
+		worker = threadFactory.newThread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		});
+		worker.start();
+	}
+
+	/**
+	 * Schedule an action
+	 * 
+	 * @param msecs
+	 *            the delay (rounded up to the next tick)
+	 * @param action
+	 *            the action
+	 * @return the handle to cancel the action
+	 */
+	public TimerHandle schedule(final int msecs, final ScheduledAction action) {
+		final long ticks = Math.max(1, (msecs + tickMillis - 1) / tickMillis);
+		synchronized (wheel) {
+			// the worker may not have expired the elapsed ticks yet
+			final long due = Math.max(tick, currentTick()) + ticks;
+			final Timeout timeout = new Timeout(action, (int) (due % wheel.length), (due - tick - 1) / wheel.length);
+			wheel[timeout.bucket].add(timeout);
+			size++;
+			// the worker recalculates its deadline
+			wheel.notifyAll();
+			return timeout;
+		}
+	}
+
+	/**
+	 * Stop the tick thread. The pending actions are never run
+	 */
+	public void stop() {
+		stopped = true;
+		worker.interrupt();
+		synchronized (wheel) {
+			for (final LinkedList<Timeout> bucket : wheel) {
+				for (final Timeout timeout : bucket) {
+					timeout.pending = false;
+				}
+				bucket.clear();
+			}
+			size = 0;
+			wheel.notifyAll();
+		}
+	}
+
+	/**
+	 * @return the number of pending actions
+	 */
+	public int size() {
+		synchronized (wheel) {
+			return size;
+		}
+	}
+
+	/**
+	 * @return the number of times the thread has woken up (for tests)
+	 */
+	int getWakeups() {
+		return wakeups;
+	}
+
+	private long currentTick() {
+		return (System.currentTimeMillis() - start) / tickMillis;
+	}
+
+	/**
+	 * Expire the ticks elapsed until now (called with the wheel lock)
+	 */
+	private void expire(final ArrayList<Timeout> expired) {
+		final long now = currentTick();
+		while (tick < now && size > 0) {
+			tick++;
+			final LinkedList<Timeout> bucket = wheel[(int) (tick % wheel.length)];
+			final Iterator<Timeout> iterator = bucket.iterator();
+			while (iterator.hasNext()) {
+				final Timeout timeout = iterator.next();
+				if (timeout.rounds <= 0) {
+					// still pending (and cancelable) until it's run
+					iterator.remove();
+					size--;
+					expired.add(timeout);
+				} else {
+					timeout.rounds--;
+				}
+			}
+		}
+		// nothing is waiting: skip the empty ticks
+		tick = Math.max(tick, now);
+	}
+
+	/**
+	 * @return the tick of the first pending action, or -1 if the wheel is
+	 *         empty (called with the wheel lock)
+	 */
+	private long nextDeadline() {
+		long next = -1;
+		for (int index = 0; index < wheel.length; index++) {
+			if (!wheel[index].isEmpty()) {
+				final long visit = tick + 1 + ((index - (tick + 1)) % wheel.length + wheel.length) % wheel.length;
+				for (final Timeout timeout : wheel[index]) {
+					final long due = visit + timeout.rounds * wheel.length;
+					if (next == -1 || due < next) {
+						next = due;
+					}
+				}
+			}
+		}
+		return next;
+	}
+
+	private void work() {
+		final ArrayList<Timeout> expired = new ArrayList<Timeout>();
+		while (!stopped) {
+			expired.clear();
+			synchronized (wheel) {
+				expire(expired);
+				if (expired.isEmpty()) {
+					final long next = nextDeadline();
+					try {
+						if (next == -1) {
+							wheel.wait();
+						} else {
+							final long sleep = start + next * tickMillis - System.currentTimeMillis();
+							if (sleep > 0) {
+								wheel.wait(sleep);
+							}
+						}
+					} catch (final InterruptedException e) {
+						// stopped
+					}
+					wakeups++;
+					continue;
+				}
+			}
+			for (final Timeout timeout : expired) {
+				try {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							synchronized (wheel) {
+								if (!timeout.pending) {
+									return;
+								}
+								timeout.pending = false;
+							}
+							timeout.action.run();
+						}
+					});
+				} catch (final RuntimeException e) {
+					logger.log(Level.WARNING, "Can't run scheduled action", e);
+				}
+			}
+		}
+	}
+}
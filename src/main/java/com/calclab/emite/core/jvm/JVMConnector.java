@@ -0,0 +1,178 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.calclab.emite.core.client.services.ConnectorCallback;
+import com.calclab.emite.core.client.services.ConnectorException;
+
+/**
+ * The JVM http connector. Requests are posted by a bounded pool of I/O
+ * threads and the responses are delivered through the callback executor, so
+ * the caller is never blocked.
+ * 
+ * An I/O thread is busy for the whole life of its request, so a BOSH session
+ * holding its long-polls (hold + 1 requests, usually 2) keeps that many
+ * threads busy: maxConnections must be at least twice the number of sessions
+ * or the requests of the other sessions wait in the queue until a long-poll
+ * returns. The threads are created on demand up to maxConnections and stop
+ * after a minute without requests.
+ * 
+ * The connections are kept alive and reused by the JDK keep-alive cache (see
+ * the <code>http.maxConnections</code> system property). To allow the reuse,
+ * every response body is read completely and the connection is never
+ * explicitly disconnected.
+ */
+public class JVMConnector {
+
+	private static final Logger logger = Logger.getLogger(JVMConnector.class.getName());
+	private static final String CHARSET = "UTF-8";
+
+	private final ThreadPoolExecutor ioExecutor;
+	private final Executor callbackExecutor;
+
+	/**
+	 * Create a new connector
+	 * 
+	 * @param maxConnections
+	 *            the maximum number of simultaneous requests (at least twice
+	 *            the number of BOSH sessions)
+	 * @param maxQueued
+	 *            the maximum number of requests waiting for a free connection
+	 * @param callbackExecutor
+	 *            the executor used to deliver the responses
+	 */
+	public JVMConnector(final int maxConnections, final int maxQueued, final Executor callbackExecutor) {
+		this.callbackExecutor = callbackExecutor;
+		ioExecutor = new ThreadPoolExecutor(maxConnections, maxConnections, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(maxQueued),
+				new DaemonThreadFactory("emite-http"));
+		ioExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Post the request asynchronously
+	 * 
+	 * @param timeoutMillis
+	 *            the connect and read timeout, 0 or less for no timeout
+	 * @throws ConnectorException
+	 *             if there are too many pending requests or the connector is
+	 *             shut down
+	 */
+	public void send(final String httpBase, final String request, final ConnectorCallback listener, final int timeoutMillis) throws ConnectorException {
+		try {
+			ioExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					post(httpBase, request, listener, timeoutMillis);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			throw new ConnectorException("Too many pending requests: " + ioExecutor.getQueue().size());
+		}
+	}
+
+	/**
+	 * Stop accepting requests. The pending ones are still sent.
+	 */
+	public void shutdown() {
+		ioExecutor.shutdown();
+	}
+
+	private void deliverError(final String request, final ConnectorCallback listener, final Throwable throwable) {
+		callbackExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				listener.onError(request, throwable);
+			}
+		});
+	}
+
+	private void deliverResponse(final String request, final ConnectorCallback listener, final int status, final String content) {
+		callbackExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				listener.onResponseReceived(status, content, request);
+			}
+		});
+	}
+
+	private void post(final String httpBase, final String request, final ConnectorCallback listener, final int timeoutMillis) {
+		try {
+			final HttpURLConnection connection = (HttpURLConnection) new URL(httpBase).openConnection();
+			final byte[] body = request.getBytes(CHARSET);
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setUseCaches(false);
+			connection.setFixedLengthStreamingMode(body.length);
+			connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+			connection.setRequestProperty("Cache-Control", "no-cache");
+			connection.setRequestProperty("Pragma", "no-cache");
+			if (timeoutMillis > 0) {
+				connection.setConnectTimeout(timeoutMillis);
+				connection.setReadTimeout(timeoutMillis);
+			}
+
+			final OutputStream output = connection.getOutputStream();
+			try {
+				output.write(body);
+			} finally {
+				output.close();
+			}
+
+			final int status = connection.getResponseCode();
+			final InputStream input = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+			deliverResponse(request, listener, status, input != null ? read(input) : "");
+		} catch (final IOException e) {
+			logger.log(Level.FINE, "JVM connector error", e);
+			deliverError(request, listener, e);
+		} catch (final RuntimeException e) {
+			logger.log(Level.WARNING, "JVM connector error", e);
+			deliverError(request, listener, e);
+		}
+	}
+
+	private static String read(final InputStream input) throws IOException {
+		try {
+			final ByteArrayOutputStream content = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int count;
+			while ((count = input.read(buffer)) != -1) {
+				content.write(buffer, 0, count);
+			}
+			return content.toString(CHARSET);
+		} finally {
+			input.close();
+		}
+	}
+}
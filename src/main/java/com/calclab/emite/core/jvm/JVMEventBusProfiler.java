@@ -0,0 +1,51 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.jvm;
+
+import com.calclab.emite.core.client.events.EventBusProfiler;
+
+/**
+ * The event bus profiler to use outside the browser: the times are measured
+ * with System.nanoTime (not available in GWT).
+ * 
+ * @see EventBusProfiler
+ */
+public class JVMEventBusProfiler extends EventBusProfiler {
+
+	public JVMEventBusProfiler() {
+		super();
+	}
+
+	/**
+	 * @param slowThresholdMillis
+	 *            the time (in milliseconds) over which a handler is slow (0 to
+	 *            disable)
+	 */
+	public JVMEventBusProfiler(final int slowThresholdMillis) {
+		super(slowThresholdMillis);
+	}
+
+	@Override
+	protected double getCurrentTime() {
+		return System.nanoTime() / 1000000.0;
+	}
+
+}
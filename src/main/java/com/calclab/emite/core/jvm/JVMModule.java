@@ -0,0 +1,71 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.jvm;
+
+import com.calclab.emite.core.client.CoreModule;
+import com.calclab.emite.core.client.services.Services;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+
+/**
+ * The Emite core module for the JVM: uses JVMServices instead of the GWT
+ * services. Outside GWT, install it in Guice with GinModuleAdapter.
+ * 
+ * Every BOSH session keeps up to 2 http requests (and I/O threads) busy, so
+ * the maximum number of connections must be at least twice the number of
+ * sessions sharing the services. Use {@link #JVMModule(int, int)} to change
+ * the defaults.
+ * 
+ * @see JVMServices
+ */
+public class JVMModule extends CoreModule {
+
+	private final int maxConnections;
+	private final int maxQueued;
+
+	public JVMModule() {
+		this(JVMServices.DEFAULT_MAX_CONNECTIONS, JVMServices.DEFAULT_MAX_QUEUED);
+	}
+
+	/**
+	 * @param maxConnections
+	 *            the maximum number of simultaneous http requests: at least
+	 *            twice the number of BOSH sessions
+	 * @param maxQueued
+	 *            the maximum number of requests waiting for a connection
+	 */
+	public JVMModule(final int maxConnections, final int maxQueued) {
+		this.maxConnections = maxConnections;
+		this.maxQueued = maxQueued;
+	}
+
+	@Override
+	protected void bindServices() {
+		// see provideServices
+	}
+
+	@Provides
+	@Singleton
+	protected Services provideServices() {
+		return new JVMServices(maxConnections, maxQueued, null);
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.jvm;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.services.ConnectorCallback;
+import com.calclab.emite.core.client.services.ConnectorException;
+import com.calclab.emite.core.client.services.ScheduledAction;
+import com.calclab.emite.core.client.services.Services;
+import com.calclab.emite.core.client.services.TimerHandle;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * The Services implementation to run emite outside the browser (bots,
+ * monitoring...).
+ * 
+ * The http requests are sent by a bounded pool of I/O threads with keep-alive
+ * connections, and the scheduled actions are kept in a hashed timer wheel
+ * (whose thread sleeps until the next deadline). The
+ * http callbacks and the scheduled actions are run serially on the callback
+ * executor, so the emite components (and the event bus) see a single logical
+ * thread and are never blocked by the network. Any executor can be used as
+ * callback executor (for example a virtual thread per task executor): the
+ * tasks are always serialized.
+ */
+@Singleton
+public class JVMServices implements Services {
+
+	/**
+	 * Enough for 32 BOSH sessions (each one holds up to 2 requests). The I/O
+	 * threads are only created when needed.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 64;
+	public static final int DEFAULT_MAX_QUEUED = 64;
+	public static final int TIMER_TICK_MILLIS = 10;
+	public static final int TIMER_TICKS_PER_WHEEL = 512;
+
+	private final JVMConnector connector;
+	private final JVMXMLService xmler;
+	private final HashedWheelTimer timer;
+	private final Executor callbackExecutor;
+	private final ExecutorService ownedExecutor;
+
+	@Inject
+	public JVMServices() {
+		this(null);
+	}
+
+	public JVMServices(final Executor callbackExecutor) {
+		this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_QUEUED, callbackExecutor);
+	}
+
+	/**
+	 * @param maxConnections
+	 *            the maximum number of simultaneous http requests: at least
+	 *            twice the number of BOSH sessions using these services
+	 * @param maxQueued
+	 *            the maximum number of requests waiting for a connection
+	 * @param callbackExecutor
+	 *            the executor used to run the callbacks and scheduled
+	 *            actions, or null to use a dedicated thread
+	 */
+	public JVMServices(final int maxConnections, final int maxQueued, final Executor callbackExecutor) {
+		ownedExecutor = callbackExecutor == null ? Executors.newSingleThreadExecutor(new DaemonThreadFactory("emite-callback")) : null;
+		this.callbackExecutor = new SerialExecutor(callbackExecutor != null ? callbackExecutor : ownedExecutor);
+		connector = new JVMConnector(maxConnections, maxQueued, this.callbackExecutor);
+		xmler = new JVMXMLService();
+		timer = new HashedWheelTimer(TIMER_TICK_MILLIS, TIMER_TICKS_PER_WHEEL, this.callbackExecutor, new DaemonThreadFactory("emite-timer"));
+	}
+
+	/**
+	 * The executor where the callbacks are run. Use it to interact with the
+	 * emite components from other threads.
+	 */
+	public Executor getCallbackExecutor() {
+		return callbackExecutor;
+	}
+
+	@Override
+	public long getCurrentTime() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public TimerHandle schedule(final int msecs, final ScheduledAction action) {
+		return timer.schedule(msecs, action);
+	}
+
+	@Override
+	public void send(final String httpBase, final String request, final ConnectorCallback listener) throws ConnectorException {
+		connector.send(httpBase, request, listener, Services.DEFAULT_TIMEOUT_MILLIS);
+	}
+
+	@Override
+	public void send(final String httpBase, final String request, final ConnectorCallback listener, final int timeoutMillis) throws ConnectorException {
+		connector.send(httpBase, request, listener, timeoutMillis);
+	}
+
+	/**
+	 * Stop the http and timer threads. No more requests are accepted. A
+	 * callback executor given in the constructor is not shut down.
+	 */
+	public void shutdown() {
+		connector.shutdown();
+		timer.stop();
+		if (ownedExecutor != null) {
+			ownedExecutor.shutdown();
+		}
+	}
+
+	@Override
+	public String toString(final IPacket packet) {
+		return xmler.toString(packet);
+	}
+
+	@Override
+	public IPacket toXML(final String xml) {
+		return xmler.toXML(xml);
+	}
+
+}
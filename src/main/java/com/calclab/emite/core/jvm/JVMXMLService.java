@@ -0,0 +1,134 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.jvm;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.NoPacket;
+import com.calclab.emite.core.client.packet.Packet;
+import com.calclab.emite.core.client.packet.TextUtils;
+
+/**
+ * Converts between xml strings and packets using the JDK SAX parser. The
+ * parsed packets are plain Packet instances.
+ * 
+ * Document type declarations are rejected. The text between child elements
+ * (mixed content) is ignored.
+ */
+public class JVMXMLService {
+
+	private static final Logger logger = Logger.getLogger(JVMXMLService.class.getName());
+
+	private static class PacketBuilder extends DefaultHandler {
+		private final ArrayList<Packet> stack = new ArrayList<Packet>();
+		private final ArrayList<StringBuilder> texts = new ArrayList<StringBuilder>();
+		private Packet root;
+
+		@Override
+		public void characters(final char[] ch, final int start, final int length) {
+			if (!texts.isEmpty()) {
+				texts.get(texts.size() - 1).append(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endElement(final String uri, final String localName, final String qName) {
+			final int last = stack.size() - 1;
+			final Packet packet = stack.remove(last);
+			final String text = texts.remove(last).toString();
+			if (text.length() > 0 && packet.getChildrenCount() == 0) {
+				packet.setText(TextUtils.escape(text));
+			}
+		}
+
+		@Override
+		public void startElement(final String uri, final String localName, final String qName, final Attributes attributes) {
+			final Packet packet = new Packet(qName);
+			for (int index = 0; index < attributes.getLength(); index++) {
+				packet.setAttribute(attributes.getQName(index), attributes.getValue(index));
+			}
+			if (stack.isEmpty()) {
+				root = packet;
+			} else {
+				stack.get(stack.size() - 1).addChild(packet);
+			}
+			stack.add(packet);
+			texts.add(new StringBuilder());
+		}
+	}
+
+	private final SAXParserFactory factory;
+	private final ThreadLocal<SAXParser> parsers;
+
+	public JVMXMLService() {
+		factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(false);
+		factory.setValidating(false);
+		try {
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+		} catch (final Exception e) {
+			logger.warning("Can't disable doctype declarations: " + e.getMessage());
+		}
+		parsers = new ThreadLocal<SAXParser>();
+	}
+
+	public String toString(final IPacket packet) {
+		return packet != null ? packet.toString() : "null";
+	}
+
+	/**
+	 * Convert xml to IPacket
+	 * 
+	 * @return the packet or NoPacket.INSTANCE if the xml is not valid
+	 */
+	public IPacket toXML(final String xml) {
+		try {
+			final PacketBuilder builder = new PacketBuilder();
+			getParser().parse(new InputSource(new StringReader(xml)), builder);
+			return builder.root != null ? builder.root : NoPacket.INSTANCE;
+		} catch (final Exception e) {
+			logger.log(Level.FINE, "Not valid xml: " + xml, e);
+			return NoPacket.INSTANCE;
+		}
+	}
+
+	private SAXParser getParser() throws Exception {
+		SAXParser parser = parsers.get();
+		if (parser == null) {
+			parser = factory.newSAXParser();
+			parsers.set(parser);
+		} else {
+			parser.reset();
+		}
+		return parser;
+	}
+}
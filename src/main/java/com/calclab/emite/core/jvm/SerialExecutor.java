@@ -0,0 +1,86 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.jvm;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the tasks one at a time, in order, on top of any executor (a thread
+ * pool or a virtual thread per task executor, for example).
+ * 
+ * The emite components are not thread safe: all the http callbacks and the
+ * scheduled actions must be run serially.
+ */
+public class SerialExecutor implements Executor {
+
+	private final Executor executor;
+	private final LinkedList<Runnable> tasks;
+	private boolean running;
+
+	public SerialExecutor(final Executor executor) {
+		this.executor = executor;
+		tasks = new LinkedList<Runnable>();
+	}
+
+	@Override
+	public void execute(final Runnable task) {
+		synchronized (tasks) {
+			tasks.add(task);
+			if (running) {
+				return;
+			}
+			running = true;
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					drain();
+				}
+			});
+		} catch (final RuntimeException e) {
+			synchronized (tasks) {
+				tasks.remove(task);
+				running = false;
+			}
+			throw e;
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			final Runnable task;
+			synchronized (tasks) {
+				task = tasks.poll();
+				if (task == null) {
+					running = false;
+					return;
+				}
+			}
+			try {
+				task.run();
+			} catch (final RuntimeException e) {
+				Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+			}
+		}
+	}
+}
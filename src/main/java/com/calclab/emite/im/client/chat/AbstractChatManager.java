@@ -23,6 +23,7 @@ package com.calclab.emite.im.client.chat;
 import com.calclab.emite.core.client.events.ChangedEvent.ChangeTypes;
 import com.calclab.emite.core.client.events.MessageEvent;
 import com.calclab.emite.core.client.events.MessageHandler;
+import com.calclab.emite.core.client.events.ScopedEmiteEventBus;
 import com.calclab.emite.core.client.events.StateChangedEvent;
 import com.calclab.emite.core.client.events.StateChangedHandler;
 import com.calclab.emite.core.client.xmpp.session.SessionStates;
@@ -46,6 +47,9 @@ public abstract class AbstractChatManager extends ChatManagerBoilerplate {
 		chat.close();
 		getChats().remove(chat);
 		managerEventBus.fireEvent(new ChatChangedEvent(ChangeTypes.closed, chat));
+		if (chat.getChatEventBus() instanceof ScopedEmiteEventBus) {
+			((ScopedEmiteEventBus) chat.getChatEventBus()).dispose();
+		}
 	}
 
 	@Override
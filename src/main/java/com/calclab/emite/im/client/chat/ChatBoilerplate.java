@@ -23,9 +23,9 @@ package com.calclab.emite.im.client.chat;
 import com.calclab.emite.core.client.events.EmiteEventBus;
 import com.calclab.emite.core.client.events.ErrorEvent;
 import com.calclab.emite.core.client.events.ErrorHandler;
-import com.calclab.emite.core.client.events.EventBusFactory;
 import com.calclab.emite.core.client.events.MessageHandler;
 import com.calclab.emite.core.client.events.MessageReceivedEvent;
+import com.calclab.emite.core.client.events.ScopedEmiteEventBus;
 import com.calclab.emite.core.client.events.StateChangedHandler;
 import com.calclab.emite.core.client.xmpp.session.XmppSession;
 import com.calclab.emite.core.client.xmpp.stanzas.XmppURI;
@@ -45,7 +45,7 @@ public abstract class ChatBoilerplate implements Chat {
 	public ChatBoilerplate(final XmppSession session, final ChatProperties properties) {
 		this.session = session;
 		this.properties = properties;
-		chatEventBus = EventBusFactory.create(properties.getUri().toString());
+		chatEventBus = new ScopedEmiteEventBus(properties.getUri().toString());
 	}
 
 	@Override
@@ -29,7 +29,7 @@ import java.util.Iterator;
 
 import com.calclab.emite.core.client.events.ChangedEvent.ChangeTypes;
 import com.calclab.emite.core.client.events.EmiteEventBus;
-import com.calclab.emite.core.client.events.EventBusFactory;
+import com.calclab.emite.core.client.events.ScopedEmiteEventBus;
 import com.calclab.emite.core.client.xmpp.stanzas.XmppURI;
 import com.calclab.emite.im.client.roster.events.RosterItemChangedEvent;
 import com.calclab.emite.im.client.roster.events.RosterItemChangedHandler;
@@ -44,7 +44,7 @@ import com.google.gwt.event.shared.HandlerRegistration;
 public class RosterGroup implements Iterable<RosterItem> {
 	private final String name;
 	private final HashMap<XmppURI, RosterItem> itemsByJID;
-	private final EmiteEventBus rosterGroupEventBus;
+	private final ScopedEmiteEventBus rosterGroupEventBus;
 
 	/**
 	 * Creates a new roster group. If name is null, its supposed to be the
@@ -58,7 +58,7 @@ public class RosterGroup implements Iterable<RosterItem> {
 	public RosterGroup(final String groupName) {
 		name = groupName;
 		itemsByJID = new HashMap<XmppURI, RosterItem>();
-		rosterGroupEventBus = EventBusFactory.create("group-" + groupName);
+		rosterGroupEventBus = new ScopedEmiteEventBus("group-" + groupName);
 	}
 
 	/**
@@ -158,4 +158,11 @@ public class RosterGroup implements Iterable<RosterItem> {
 		itemsByJID.clear();
 	}
 
+	/**
+	 * Release the handlers of a removed group
+	 */
+	void dispose() {
+		rosterGroupEventBus.dispose();
+	}
+
 }
@@ -26,6 +26,7 @@ import java.util.Set;
 import com.calclab.emite.core.client.xmpp.stanzas.XmppURI;
 import com.calclab.emite.im.client.roster.events.RosterGroupChangedHandler;
 import com.calclab.emite.im.client.roster.events.RosterItemChangedHandler;
+import com.calclab.emite.im.client.roster.events.RosterItemsChangedHandler;
 import com.calclab.emite.im.client.roster.events.RosterRetrievedHandler;
 import com.google.gwt.event.shared.HandlerRegistration;
 
@@ -46,6 +47,15 @@ public interface XmppRoster {
 	 */
 	HandlerRegistration addRosterItemChangedHandler(RosterItemChangedHandler handler);
 
+	/**
+	 * Adds a handler to know when several roster items have changed. The
+	 * changes received in the same connection response are notified together
+	 * 
+	 * @param handler
+	 * @return
+	 */
+	HandlerRegistration addRosterItemsChangedHandler(RosterItemsChangedHandler handler);
+
 	/**
 	 * Adds a handler to know when the roster is retrieved
 	 * 
@@ -26,6 +26,8 @@ import com.calclab.emite.im.client.roster.events.RosterGroupChangedEvent;
 import com.calclab.emite.im.client.roster.events.RosterGroupChangedHandler;
 import com.calclab.emite.im.client.roster.events.RosterItemChangedEvent;
 import com.calclab.emite.im.client.roster.events.RosterItemChangedHandler;
+import com.calclab.emite.im.client.roster.events.RosterItemsChangedEvent;
+import com.calclab.emite.im.client.roster.events.RosterItemsChangedHandler;
 import com.calclab.emite.im.client.roster.events.RosterRetrievedEvent;
 import com.calclab.emite.im.client.roster.events.RosterRetrievedHandler;
 import com.google.gwt.event.shared.HandlerRegistration;
@@ -52,6 +54,11 @@ public abstract class XmppRosterBoilerplate implements XmppRoster {
 		return RosterItemChangedEvent.bind(eventBus, handler);
 	}
 
+	@Override
+	public HandlerRegistration addRosterItemsChangedHandler(final RosterItemsChangedHandler handler) {
+		return RosterItemsChangedEvent.bind(eventBus, handler);
+	}
+
 	@Override
 	public HandlerRegistration addRosterRetrievedHandler(final RosterRetrievedHandler handler) {
 		return RosterRetrievedEvent.bind(eventBus, handler);
@@ -105,6 +105,7 @@ public abstract class XmppRosterGroupsLogic extends XmppRosterBoilerplate {
 		final RosterGroup group = groups.remove(groupName);
 		if (groupName != null && group != null) {
 			eventBus.fireEvent(new RosterGroupChangedEvent(ChangeTypes.removed, group));
+			group.dispose();
 		}
 	}
 }
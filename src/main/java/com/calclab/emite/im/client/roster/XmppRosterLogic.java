@@ -22,8 +22,12 @@ package com.calclab.emite.im.client.roster;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 
+import com.calclab.emite.core.client.conn.StanzaBatchEvent;
+import com.calclab.emite.core.client.conn.StanzaBatchHandler;
 import com.calclab.emite.core.client.events.ChangedEvent.ChangeTypes;
 import com.calclab.emite.core.client.events.IQEvent;
 import com.calclab.emite.core.client.events.IQHandler;
@@ -47,6 +51,7 @@ import com.calclab.emite.core.client.xmpp.stanzas.XmppURI;
 import com.calclab.emite.im.client.roster.events.RosterGroupChangedEvent;
 import com.calclab.emite.im.client.roster.events.RosterGroupChangedHandler;
 import com.calclab.emite.im.client.roster.events.RosterItemChangedEvent;
+import com.calclab.emite.im.client.roster.events.RosterItemsChangedEvent;
 import com.calclab.emite.im.client.roster.events.RosterRetrievedEvent;
 import com.google.gwt.event.shared.HandlerRegistration;
 import com.google.inject.Inject;
@@ -57,9 +62,29 @@ public class XmppRosterLogic extends XmppRosterGroupsLogic {
 
 	private static final PacketMatcher ROSTER_QUERY_FILTER = MatcherFactory.byNameAndXMLNS("query", "jabber:iq:roster");
 
+	/**
+	 * The changes of the current stanza batch, merged per item
+	 */
+	private final LinkedHashMap<XmppURI, RosterItemChangedEvent> batchChanges;
+	private int batchDepth;
+
 	@Inject
 	public XmppRosterLogic(final XmppSession session) {
 		super(session);
+		batchChanges = new LinkedHashMap<XmppURI, RosterItemChangedEvent>();
+		batchDepth = 0;
+
+		// the session shares the event bus of the connection
+		StanzaBatchEvent.bind(eventBus, new StanzaBatchHandler() {
+			@Override
+			public void onStanzaBatch(final StanzaBatchEvent event) {
+				if (event.isStarted()) {
+					batchDepth++;
+				} else if (batchDepth > 0 && --batchDepth == 0) {
+					fireBatchChanges();
+				}
+			}
+		});
 
 		session.addSessionStateChangedHandler(true, new StateChangedHandler() {
 			@Override
@@ -121,7 +146,7 @@ public class XmppRosterLogic extends XmppRosterGroupsLogic {
 
 				if (hasChanged) {
 					final RosterItemChangedEvent event = new RosterItemChangedEvent(ChangeTypes.modified, item);
-					eventBus.fireEvent(event);
+					fireItemChanged(event);
 					fireItemChangedInGroups(event);
 				}
 			}
@@ -263,25 +288,56 @@ public class XmppRosterLogic extends XmppRosterGroupsLogic {
 
 	}
 
+	private void fireBatchChanges() {
+		if (!batchChanges.isEmpty()) {
+			final RosterItemsChangedEvent event = new RosterItemsChangedEvent(batchChanges.values());
+			batchChanges.clear();
+			eventBus.fireEvent(event);
+		}
+	}
+
+	/**
+	 * Fires the per item event and, inside a stanza batch, merges the change
+	 * with the previous changes of the same item: an added item stays added
+	 * (or disappears if removed later), otherwise the last change wins.
+	 */
+	private void fireItemChanged(final RosterItemChangedEvent event) {
+		eventBus.fireEvent(event);
+
+		if (batchDepth > 0) {
+			final XmppURI jid = event.getRosterItem().getJID();
+			final RosterItemChangedEvent previous = batchChanges.get(jid);
+			if (previous == null || !previous.isAdded()) {
+				batchChanges.put(jid, event);
+			} else if (event.isRemoved()) {
+				batchChanges.remove(jid);
+			} else {
+				batchChanges.put(jid, new RosterItemChangedEvent(ChangeTypes.added, event.getRosterItem()));
+			}
+		} else if (RosterItemsChangedEvent.isHandled(eventBus)) {
+			eventBus.fireEvent(new RosterItemsChangedEvent(Collections.singletonList(event)));
+		}
+	}
+
 	private void handleItemChanged(final RosterItem item, final boolean fireEvents) {
 		final RosterItem old = getItemByJID(item.getJID());
 
 		if (old == null) { // new item
 			storeItem(item);
 			if (fireEvents) {
-				eventBus.fireEvent(new RosterItemChangedEvent(ChangeTypes.added, item));
+				fireItemChanged(new RosterItemChangedEvent(ChangeTypes.added, item));
 			}
 		} else { // update or remove
 			final SubscriptionState subscriptionState = item.getSubscriptionState();
 			if (subscriptionState == SubscriptionState.remove) {
 				removeItem(old);
 				if (fireEvents) {
-					eventBus.fireEvent(new RosterItemChangedEvent(ChangeTypes.removed, old));
+					fireItemChanged(new RosterItemChangedEvent(ChangeTypes.removed, old));
 				}
 			} else {
 				updateExistingItem(old, item);
 				if (fireEvents) {
-					eventBus.fireEvent(new RosterItemChangedEvent(ChangeTypes.modified, old));
+					fireItemChanged(new RosterItemChangedEvent(ChangeTypes.modified, old));
 				}
 			}
 		}
@@ -0,0 +1,106 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.im.client.roster.events;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.calclab.emite.core.client.events.EmiteEventBus;
+import com.calclab.emite.im.client.roster.RosterItem;
+import com.google.gwt.event.shared.GwtEvent;
+import com.google.gwt.event.shared.HandlerRegistration;
+
+/**
+ * Several roster items have changed. When the roster changes while the stanzas
+ * of one connection response are processed, the changes are merged per item
+ * and notified with only one of this events at the end of the response.
+ * Otherwise, each change is notified alone.
+ * 
+ * The per item RosterItemChangedEvent is fired as before.
+ * 
+ * @see RosterItemChangedEvent
+ */
+public class RosterItemsChangedEvent extends GwtEvent<RosterItemsChangedHandler> {
+
+	private static final Type<RosterItemsChangedHandler> TYPE = new Type<RosterItemsChangedHandler>();
+
+	public static HandlerRegistration bind(final EmiteEventBus eventBus, final RosterItemsChangedHandler handler) {
+		return eventBus.addHandler(TYPE, handler);
+	}
+
+	/**
+	 * @param eventBus
+	 *            the event bus
+	 * @return true if someone listens to this event
+	 */
+	public static boolean isHandled(final EmiteEventBus eventBus) {
+		return eventBus.isEventHandled(TYPE);
+	}
+
+	private final List<RosterItemChangedEvent> changes;
+
+	/**
+	 * @param changes
+	 *            the changes, one per roster item
+	 */
+	public RosterItemsChangedEvent(final Collection<RosterItemChangedEvent> changes) {
+		this.changes = Collections.unmodifiableList(new ArrayList<RosterItemChangedEvent>(changes));
+	}
+
+	@Override
+	public Type<RosterItemsChangedHandler> getAssociatedType() {
+		return TYPE;
+	}
+
+	/**
+	 * The changes of this event, one per item and in the order they first
+	 * changed
+	 * 
+	 * @return an unmodifiable list of changes
+	 */
+	public List<RosterItemChangedEvent> getChanges() {
+		return changes;
+	}
+
+	/**
+	 * @return the items changed
+	 */
+	public List<RosterItem> getRosterItems() {
+		final ArrayList<RosterItem> items = new ArrayList<RosterItem>(changes.size());
+		for (final RosterItemChangedEvent change : changes) {
+			items.add(change.getRosterItem());
+		}
+		return items;
+	}
+
+	@Override
+	public String toDebugString() {
+		return super.toDebugString() + changes.size() + " items";
+	}
+
+	@Override
+	protected void dispatch(final RosterItemsChangedHandler handler) {
+		handler.onRosterItemsChanged(this);
+	}
+
+}
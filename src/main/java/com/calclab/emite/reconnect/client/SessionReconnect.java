@@ -22,33 +22,49 @@ package com.calclab.emite.reconnect.client;
 
 import java.util.logging.Logger;
 
+import com.calclab.emite.core.client.bosh.DecorrelatedJitterPolicy;
+import com.calclab.emite.core.client.bosh.RetryPolicy;
 import com.calclab.emite.core.client.conn.ConnectionStateChangedEvent;
 import com.calclab.emite.core.client.conn.ConnectionStateChangedEvent.ConnectionState;
 import com.calclab.emite.core.client.conn.ConnectionStateChangedHandler;
 import com.calclab.emite.core.client.conn.XmppConnection;
 import com.calclab.emite.core.client.events.StateChangedEvent;
 import com.calclab.emite.core.client.events.StateChangedHandler;
+import com.calclab.emite.core.client.services.ScheduledAction;
+import com.calclab.emite.core.client.services.Services;
+import com.calclab.emite.core.client.services.TimerHandle;
 import com.calclab.emite.core.client.xmpp.sasl.AuthorizationResultEvent;
 import com.calclab.emite.core.client.xmpp.sasl.AuthorizationResultHandler;
 import com.calclab.emite.core.client.xmpp.sasl.SASLManager;
 import com.calclab.emite.core.client.xmpp.session.Credentials;
 import com.calclab.emite.core.client.xmpp.session.SessionStates;
 import com.calclab.emite.core.client.xmpp.session.XmppSession;
-import com.google.gwt.user.client.Timer;
 import com.google.inject.Inject;
 
+/**
+ * Logs in again when the session is lost. The reconnections are spread with a
+ * jittered exponential backoff, so the clients don't reconnect in lock-step
+ * when the connection manager comes back.
+ */
 public class SessionReconnect {
 	
 	private static final Logger logger = Logger.getLogger(SessionReconnect.class.getName());
 	
+	private static final int MIN_RECONNECT_MILLIS = 1000;
+	private static final int MAX_RECONNECT_MILLIS = 120000;
+	
 	private boolean shouldReconnect;
 	private Credentials lastSuccessfulCredentials;
 	protected int reconnectionAttempts;
+	private RetryPolicy retryPolicy;
+	private int lastDelay;
+	private TimerHandle reconnection;
 
 	@Inject
-	public SessionReconnect(final XmppConnection connection, final XmppSession session, final SASLManager saslManager) {
+	public SessionReconnect(final XmppConnection connection, final XmppSession session, final SASLManager saslManager, final Services services) {
 		shouldReconnect = false;
 		reconnectionAttempts = 0;
+		retryPolicy = new DecorrelatedJitterPolicy(MIN_RECONNECT_MILLIS, MAX_RECONNECT_MILLIS);
 		logger.info("RECONNECT BEHAVIOUR");
 
 		saslManager.addAuthorizationResultHandler(new AuthorizationResultHandler() {
@@ -63,24 +79,28 @@ public class SessionReconnect {
 			public void onStateChanged(final StateChangedEvent event) {
 				if (event.is(SessionStates.connecting)) {
 					shouldReconnect = false;
+					cancelReconnection();
 				} else if (event.is(SessionStates.disconnected) && shouldReconnect) {
 					if (lastSuccessfulCredentials != null) {
-						final double seconds = Math.pow(2, reconnectionAttempts - 1);
-						new Timer() {
+						lastDelay = retryPolicy.getRetryDelay(reconnectionAttempts, lastDelay);
+						cancelReconnection();
+						reconnection = services.schedule(lastDelay, new ScheduledAction() {
 							@Override
 							public void run() {
+								reconnection = null;
 								logger.info("Reconnecting...");
 								if (shouldReconnect) {
 									shouldReconnect = false;
 									session.login(lastSuccessfulCredentials);
 								}
 							}
-						}.schedule((int) (1000 * seconds));
-						logger.info("Reconnecting in " + seconds + " seconds.");
+						});
+						logger.info("Reconnecting in " + lastDelay + " milliseconds.");
 					}
 				} else if (event.is(SessionStates.ready)) {
 					logger.finer("CLEAR RECONNECTION ATTEMPS");
 					reconnectionAttempts = 0;
+					lastDelay = 0;
 				}
 			}
 		});
@@ -88,14 +108,37 @@ public class SessionReconnect {
 		connection.addConnectionStateChangedHandler(new ConnectionStateChangedHandler() {
 			@Override
 			public void onStateChanged(final ConnectionStateChangedEvent event) {
-				if (event.is(ConnectionState.error) || event.is(ConnectionState.waitingForRetry)) {
+				if (event.is(ConnectionState.error)) {
 					shouldReconnect();
+				} else if (event.is(ConnectionState.waitingForRetry)) {
+					// The connection retries by itself: only an error counts
+					// as a reconnection attempt
+					shouldReconnect = true;
 				}
 			}
 		});
 
 	}
 
+	/**
+	 * Change the policy that decides the delay before every reconnection. By
+	 * default a decorrelated jitter backoff between 1 second and 2 minutes is
+	 * used
+	 * 
+	 * @param retryPolicy
+	 *            the new policy
+	 */
+	public void setRetryPolicy(final RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	private void cancelReconnection() {
+		if (reconnection != null) {
+			reconnection.cancel();
+			reconnection = null;
+		}
+	}
+
 	private void shouldReconnect() {
 		shouldReconnect = true;
 		reconnectionAttempts++;
@@ -20,13 +20,10 @@
 
 package com.calclab.emite.xep.avatar.client;
 
-import java.util.List;
-
 import com.calclab.emite.core.client.events.PresenceEvent;
 import com.calclab.emite.core.client.events.PresenceHandler;
 import com.calclab.emite.core.client.packet.IPacket;
-import com.calclab.emite.core.client.packet.MatcherFactory;
-import com.calclab.emite.core.client.packet.PacketMatcher;
+import com.calclab.emite.core.client.packet.PacketQuery;
 import com.calclab.emite.core.client.xmpp.session.IQResponseHandler;
 import com.calclab.emite.core.client.xmpp.session.XmppSession;
 import com.calclab.emite.core.client.xmpp.stanzas.IQ;
@@ -43,12 +40,13 @@ import com.google.inject.Inject;
  * XEP-0153: vCard-Based Avatars (Version 1.0)
  */
 public class AvatarManager {
-	private static final PacketMatcher FILTER_X = MatcherFactory.byName("x");
 	private static final String VCARD = "vCard";
 	private static final String XMLNS = "vcard-temp";
 	private static final String PHOTO = "PHOTO";
-	private static final String TYPE = "TYPE";
 	private static final String BINVAL = "BINVAL";
+	private static final PacketQuery HASH_UPDATE = PacketQuery.compile("{vcard-temp:x:update}x");
+	private static final PacketQuery PHOTO_TYPE = PacketQuery.compile("vCard/PHOTO/TYPE/text()");
+	private static final PacketQuery PHOTO_BINVAL = PacketQuery.compile("vCard/PHOTO/BINVAL/text()");
 	private final XmppSession session;
 
 	@Inject
@@ -59,11 +57,8 @@ public class AvatarManager {
 			@Override
 			public void onPresence(final PresenceEvent event) {
 				final Presence presence = event.getPresence();
-				final List<? extends IPacket> children = presence.getChildren(FILTER_X);
-				for (final IPacket child : children) {
-					if (child.hasAttribute("xmlns", XMLNS + ":x:update")) {
-						session.getEventBus().fireEvent(new HashPresenceReceivedEvent(presence));
-					}
+				if (HASH_UPDATE.matches(presence)) {
+					session.getEventBus().fireEvent(new HashPresenceReceivedEvent(presence));
 				}
 			}
 		});
@@ -96,9 +91,8 @@ public class AvatarManager {
 			public void onIQ(final IQ received) {
 				if (IQ.isSuccess(received) && received.hasChild(VCARD) && received.hasAttribute("to", session.getCurrentUserURI().toString())) {
 					final XmppURI from = XmppURI.jid(received.getAttribute("from"));
-					final IPacket photo = received.getFirstChild(VCARD).getFirstChild(PHOTO);
-					final String photoType = photo.getFirstChild(TYPE).getText();
-					final String photoBinval = photo.getFirstChild(BINVAL).getText();
+					final String photoType = PHOTO_TYPE.value(received);
+					final String photoBinval = PHOTO_BINVAL.value(received);
 					final AvatarVCard avatar = new AvatarVCard(from, null, photoType, photoBinval);
 					session.getEventBus().fireEvent(new AvatarVCardReceivedEvent(avatar));
 				}
@@ -33,6 +33,7 @@ import com.calclab.emite.core.client.events.PresenceHandler;
 import com.calclab.emite.core.client.packet.IPacket;
 import com.calclab.emite.core.client.packet.MatcherFactory;
 import com.calclab.emite.core.client.packet.PacketMatcher;
+import com.calclab.emite.core.client.packet.PacketQuery;
 import com.calclab.emite.core.client.xmpp.datetime.XmppDateTime;
 import com.calclab.emite.core.client.xmpp.session.IQResponseHandler;
 import com.calclab.emite.core.client.xmpp.session.XmppSession;
@@ -59,6 +60,7 @@ import com.calclab.emite.xep.muc.client.events.RoomInvitationSentEvent;
  */
 public class RoomChat extends RoomBoilerplate {
 	protected static final PacketMatcher ROOM_CREATED = MatcherFactory.byNameAndXMLNS("x", "http://jabber.org/protocol/muc#user");
+	private static final PacketQuery NEW_ROOM = PacketQuery.compile("status[@code='201']");
 
 	private Date lastMessageReceived;
 	
@@ -287,8 +289,7 @@ public class RoomChat extends RoomBoilerplate {
 	}
 
 	protected boolean isNewRoom(final IPacket xtension) {
-		final String code = xtension.getFirstChild("status").getAttribute("code");
-		return code != null && code.equals("201");
+		return NEW_ROOM.matches(xtension);
 	}
 
 	protected void requestCreateInstantRoom() {
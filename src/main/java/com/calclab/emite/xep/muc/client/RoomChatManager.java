@@ -27,9 +27,8 @@ import com.calclab.emite.core.client.events.MessageHandler;
 import com.calclab.emite.core.client.events.PresenceEvent;
 import com.calclab.emite.core.client.events.PresenceHandler;
 import com.calclab.emite.core.client.packet.IPacket;
-import com.calclab.emite.core.client.packet.MatcherFactory;
 import com.calclab.emite.core.client.packet.NoPacket;
-import com.calclab.emite.core.client.packet.PacketMatcher;
+import com.calclab.emite.core.client.packet.PacketQuery;
 import com.calclab.emite.core.client.xmpp.session.XmppSession;
 import com.calclab.emite.core.client.xmpp.stanzas.BasicStanza;
 import com.calclab.emite.core.client.xmpp.stanzas.Message;
@@ -54,8 +53,7 @@ import com.google.inject.name.Named;
  */
 public class RoomChatManager extends AbstractChatManager implements RoomManager {
 
-	private static final PacketMatcher FILTER_X = MatcherFactory.byNameAndXMLNS("x", "http://jabber.org/protocol/muc#user");
-	private static final PacketMatcher FILTER_INVITE = MatcherFactory.byName("invite");
+	private static final PacketQuery INVITE = PacketQuery.compile("{http://jabber.org/protocol/muc#user}x/invite");
 	private static final String HISTORY_OPTIONS_PROP = "history.options";
 	private final HashMap<XmppURI, Room> roomsByJID;
 	private HistoryOptions defaultHistoryOptions;
@@ -152,7 +150,7 @@ public class RoomChatManager extends AbstractChatManager implements RoomManager
 			public void onMessage(final MessageEvent event) {
 				final Message message = event.getMessage();
 				IPacket child;
-				if ((child = message.getFirstChild(FILTER_X).getFirstChild(FILTER_INVITE)) != NoPacket.INSTANCE) {
+				if ((child = INVITE.selectFirst(message)) != NoPacket.INSTANCE) {
 					final Stanza invitationStanza = new BasicStanza(child);
 
 					// We extract the chat properties from the message
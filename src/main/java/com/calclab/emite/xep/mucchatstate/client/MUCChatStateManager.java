@@ -22,6 +22,7 @@ package com.calclab.emite.xep.mucchatstate.client;
 
 import java.util.logging.Logger;
 
+import com.calclab.emite.core.client.services.Services;
 import com.calclab.emite.im.client.chat.Chat;
 import com.calclab.emite.im.client.chat.events.ChatChangedEvent;
 import com.calclab.emite.im.client.chat.events.ChatChangedHandler;
@@ -42,8 +43,11 @@ public class MUCChatStateManager {
 	
 	private static final Logger logger = Logger.getLogger(MUCChatStateManager.class.getName());
 	
+	private final Services services;
+
 	@Inject
-	public MUCChatStateManager(final RoomManager chatManager) {
+	public MUCChatStateManager(final RoomManager chatManager, final Services services) {
+		this.services = services;
 
 		chatManager.addChatChangedHandler(new ChatChangedHandler() {
 			@Override
@@ -70,7 +74,7 @@ public class MUCChatStateManager {
 
 	private RoomChatStateManager createChatState(final Room room) {
 		logger.finer("Adding chat state to chat: " + room.getID());
-		final RoomChatStateManager stateManager = new RoomChatStateManager(room);
+		final RoomChatStateManager stateManager = new RoomChatStateManager(room, services);
 		room.getProperties().setData(RoomChatStateManager.KEY, stateManager);
 		return stateManager;
 	}
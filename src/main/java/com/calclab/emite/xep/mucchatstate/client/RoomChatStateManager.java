@@ -31,6 +31,9 @@ import com.calclab.emite.core.client.events.MessageHandler;
 import com.calclab.emite.core.client.packet.IPacket;
 import com.calclab.emite.core.client.packet.NoPacket;
 import com.calclab.emite.core.client.packet.PacketMatcher;
+import com.calclab.emite.core.client.services.ScheduledAction;
+import com.calclab.emite.core.client.services.Services;
+import com.calclab.emite.core.client.services.TimerHandle;
 import com.calclab.emite.core.client.xmpp.stanzas.Message;
 import com.calclab.emite.core.client.xmpp.stanzas.XmppURI;
 import com.calclab.emite.xep.chatstate.client.ChatStateManager.ChatState;
@@ -38,7 +41,6 @@ import com.calclab.emite.xep.muc.client.Room;
 import com.calclab.emite.xep.mucchatstate.client.events.RoomChatStateNotificationEvent;
 import com.calclab.emite.xep.mucchatstate.client.events.RoomChatStateNotificationHandler;
 import com.google.gwt.event.shared.HandlerRegistration;
-import com.google.gwt.user.client.Timer;
 
 /**
  * XEP-0085: Chat State Notifications
@@ -100,22 +102,29 @@ public class RoomChatStateManager {
 	 * </ul>
 	 */
 
-	private final Timer inactiveTimer = new Timer() {
+	private final ScheduledAction inactiveAction = new ScheduledAction() {
 		@Override
 		public void run() {
+			inactiveTimer = null;
 			setOwnState(ChatState.inactive);
 		}
 	};
 
-	private final Timer pauseTimer = new Timer() {
+	private final ScheduledAction pauseAction = new ScheduledAction() {
 		@Override
 		public void run() {
+			pauseTimer = null;
 			setOwnState(ChatState.pause);
 		}
 	};
 
-	public RoomChatStateManager(final Room room) {
+	private final Services services;
+	private TimerHandle inactiveTimer;
+	private TimerHandle pauseTimer;
+
+	public RoomChatStateManager(final Room room, final Services services) {
 		this.room = room;
+		this.services = services;
 		othersState = new HashMap<XmppURI, ChatState>();
 
 		room.addBeforeSendMessageHandler(new MessageHandler() {
@@ -127,7 +136,8 @@ public class RoomChatStateManager {
 				final boolean alreadyWithState = getStateFromMessage(message) != null;
 				if (!alreadyWithState && ownState != ChatState.active && NoPacket.INSTANCE != message.getFirstChild(bodySubjectThreadMatchter)) {
 					if (ownState == ChatState.composing) {
-						pauseTimer.cancel();
+						cancel(pauseTimer);
+						pauseTimer = null;
 					}
 
 					logger.finer("Setting own status to: " + ownState + " because we send a body or a subject");
@@ -135,7 +145,8 @@ public class RoomChatStateManager {
 					message.addChild(ChatState.active.toString(), XMLNS);
 				}
 				if (ownState != ChatState.inactive) {
-					inactiveTimer.schedule(inactiveDelay);
+					cancel(inactiveTimer);
+					inactiveTimer = services.schedule(inactiveDelay, inactiveAction);
 				}
 			}
 		});
@@ -182,7 +193,14 @@ public class RoomChatStateManager {
 			room.send(message);
 		}
 		if (ownState == ChatState.composing) {
-			pauseTimer.schedule(pauseDelay);
+			cancel(pauseTimer);
+			pauseTimer = services.schedule(pauseDelay, pauseAction);
+		}
+	}
+
+	private static void cancel(final TimerHandle timer) {
+		if (timer != null) {
+			timer.cancel();
 		}
 	}
 
@@ -0,0 +1,213 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.calclab.emite.core.client.conn.ConnectionSettings;
+import com.calclab.emite.core.client.conn.ConnectionStateChangedEvent;
+import com.calclab.emite.core.client.conn.ConnectionStateChangedHandler;
+import com.calclab.emite.core.client.conn.StanzaEvent;
+import com.calclab.emite.core.client.conn.StanzaHandler;
+import com.calclab.emite.core.client.conn.XmppConnection;
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.Packet;
+import com.calclab.emite.xtesting.EmiteTestsEventBus;
+import com.calclab.emite.xtesting.ServicesTester;
+import com.calclab.emite.xtesting.ServicesTester.Request;
+
+public class BoshStreamTests {
+
+	private final ServicesTester services;
+	private final XmppBoshConnection connection;
+	private final BoshStream stream;
+
+	public BoshStreamTests() {
+		services = new ServicesTester();
+		connection = new XmppBoshConnection(EmiteTestsEventBus.create("first"), services);
+		stream = connection.createStream(EmiteTestsEventBus.create("second"));
+	}
+
+	@Test
+	public void shouldOpenStreamInTheSameSession() {
+		connect("<body sid='sid' wait='60' inactivity='30' stream='s1' />");
+		assertEquals("s1", connection.getStreamName());
+		final ArrayList<IPacket> received = collectStanzas(stream);
+
+		stream.connect();
+		assertEquals(2, services.requestSentCount());
+		final IPacket open = services.getSentPacket(1);
+		assertEquals("sid", open.getAttribute("sid"));
+		assertEquals("localhost", open.getAttribute("to"));
+		assertNull(open.getAttribute("stream"));
+		assertFalse(stream.isConnected());
+
+		respond(1, "<body stream='s2' from='localhost'><features /></body>");
+		assertTrue(stream.isConnected());
+		assertEquals("s2", stream.getName());
+		assertEquals(1, received.size());
+		assertEquals("features", received.get(0).getName());
+	}
+
+	@Test
+	public void shouldNotMixStanzasOfDifferentStreams() {
+		openStream();
+		connection.send(new Packet("first"));
+		stream.send(new Packet("second"));
+
+		assertEquals(4, services.requestSentCount());
+		final IPacket first = services.getSentPacket(2);
+		assertEquals("s1", first.getAttribute("stream"));
+		assertEquals(1, first.getChildrenCount());
+		assertEquals("first", first.getFirstChild("first").getName());
+		final IPacket second = services.getSentPacket(3);
+		assertEquals("s2", second.getAttribute("stream"));
+		assertEquals(1, second.getChildrenCount());
+		assertEquals("second", second.getFirstChild("second").getName());
+		assertEquals(Long.parseLong(first.getAttribute("rid")) + 1, Long.parseLong(second.getAttribute("rid")));
+	}
+
+	@Test
+	public void shouldDemultiplexResponsesByStream() {
+		openStream();
+		final ArrayList<IPacket> firstReceived = collectStanzas(connection);
+		final ArrayList<IPacket> secondReceived = collectStanzas(stream);
+
+		connection.send(new Packet("first"));
+		stream.send(new Packet("second"));
+		respond(2, "<body stream='s2'><message id='to-second' /></body>");
+		respond(3, "<body stream='s1'><message id='to-first' /></body>");
+
+		assertEquals(1, firstReceived.size());
+		assertEquals("to-first", firstReceived.get(0).getAttribute("id"));
+		assertEquals(1, secondReceived.size());
+		assertEquals("to-second", secondReceived.get(0).getAttribute("id"));
+	}
+
+	@Test
+	public void shouldDemultiplexStanzasMarkedWithTheirStream() {
+		openStream();
+		final ArrayList<IPacket> firstReceived = collectStanzas(connection);
+		final ArrayList<IPacket> secondReceived = collectStanzas(stream);
+
+		connection.send(new Packet("first"));
+		stream.send(new Packet("second"));
+		respond(2, "<body stream='s1'><message id='a' /><message id='b' stream='s2' /><message id='c' /></body>");
+		respond(3, "<body stream='s2'><message id='d' stream='s1' /><message id='e' /></body>");
+
+		assertEquals(3, firstReceived.size());
+		assertEquals("a", firstReceived.get(0).getAttribute("id"));
+		assertEquals("c", firstReceived.get(1).getAttribute("id"));
+		assertEquals("d", firstReceived.get(2).getAttribute("id"));
+		assertEquals(2, secondReceived.size());
+		assertEquals("b", secondReceived.get(0).getAttribute("id"));
+		assertEquals("e", secondReceived.get(1).getAttribute("id"));
+	}
+
+	@Test
+	public void shouldTerminateOnlyTheStream() {
+		openStream();
+		final ArrayList<String> states = collectStates(stream);
+
+		stream.disconnect();
+		final IPacket terminate = services.getSentPacket(services.requestSentCount() - 1);
+		assertEquals("terminate", terminate.getAttribute("type"));
+		assertEquals("s2", terminate.getAttribute("stream"));
+		assertEquals(1, states.size());
+		assertEquals(ConnectionStateChangedEvent.ConnectionState.disconnected, states.get(0));
+		assertTrue(connection.isConnected());
+		assertFalse(stream.isConnected());
+	}
+
+	@Test
+	public void shouldCloseStreamsWhenSessionEnds() {
+		openStream();
+		final ArrayList<String> states = collectStates(stream);
+
+		connection.disconnect();
+		assertEquals(1, states.size());
+		assertEquals(ConnectionStateChangedEvent.ConnectionState.disconnected, states.get(0));
+		assertFalse(stream.isConnected());
+	}
+
+	@Test
+	public void shouldRefuseStreamsWithoutConnectionManagerSupport() {
+		final ArrayList<String> states = collectStates(stream);
+		connection.setSettings(new ConnectionSettings("httpBase", "localhost"));
+		connection.connect();
+		stream.connect();
+		respond(0, "<body sid='sid' wait='60' inactivity='30' />");
+
+		assertEquals(1, services.requestSentCount());
+		assertEquals(1, states.size());
+		assertEquals(ConnectionStateChangedEvent.ConnectionState.disconnected, states.get(0));
+		assertNull(connection.getStreamName());
+	}
+
+	private ArrayList<IPacket> collectStanzas(final XmppConnection target) {
+		final ArrayList<IPacket> received = new ArrayList<IPacket>();
+		target.addStanzaReceivedHandler(new StanzaHandler() {
+			@Override
+			public void onStanza(final StanzaEvent event) {
+				received.add(event.getStanza());
+			}
+		});
+		return received;
+	}
+
+	private ArrayList<String> collectStates(final XmppConnection target) {
+		final ArrayList<String> states = new ArrayList<String>();
+		target.addConnectionStateChangedHandler(new ConnectionStateChangedHandler() {
+			@Override
+			public void onStateChanged(final ConnectionStateChangedEvent event) {
+				states.add(event.getState());
+			}
+		});
+		return states;
+	}
+
+	private void connect(final String response) {
+		connection.setSettings(new ConnectionSettings("httpBase", "localhost"));
+		connection.connect();
+		respond(0, response);
+	}
+
+	/**
+	 * Connects the first stream and opens the second one
+	 */
+	private void openStream() {
+		connect("<body sid='sid' wait='60' inactivity='30' stream='s1' />");
+		stream.connect();
+		respond(1, "<body stream='s2' from='localhost' />");
+	}
+
+	private void respond(final int index, final String response) {
+		final Request request = services.getRequest(index);
+		request.listener.onResponseReceived(200, response, request.request);
+	}
+}
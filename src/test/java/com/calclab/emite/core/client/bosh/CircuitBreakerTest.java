@@ -0,0 +1,62 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	@Test
+	public void shouldOpenAfterConsecutiveFailures() {
+		final CircuitBreaker breaker = new CircuitBreaker(2);
+		assertFalse(breaker.recordFailure());
+		assertTrue(breaker.isClosed());
+		assertTrue(breaker.recordFailure());
+		assertTrue(breaker.isOpen());
+	}
+
+	@Test
+	public void shouldReopenWhenProbeFails() {
+		final CircuitBreaker breaker = new CircuitBreaker(1);
+		breaker.recordFailure();
+		breaker.halfOpen();
+		assertTrue(breaker.isHalfOpen());
+		assertTrue(breaker.recordFailure());
+		assertTrue(breaker.isOpen());
+		breaker.halfOpen();
+		breaker.recordSuccess();
+		assertTrue(breaker.isClosed());
+		assertEquals(0, breaker.getFailures());
+	}
+
+	@Test
+	public void shouldNeverOpenWithoutThreshold() {
+		final CircuitBreaker breaker = new CircuitBreaker(0);
+		for (int index = 0; index < 10; index++) {
+			assertFalse(breaker.recordFailure());
+		}
+		assertTrue(breaker.isClosed());
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DecorrelatedJitterPolicyTest {
+
+	private static class FixedRandomPolicy extends DecorrelatedJitterPolicy {
+		private final double random;
+
+		FixedRandomPolicy(final double random) {
+			super(1000, 10000);
+			this.random = random;
+		}
+
+		@Override
+		protected double random() {
+			return random;
+		}
+	}
+
+	@Test
+	public void shouldStayBetweenBaseAndThreeTimesPrevious() {
+		assertEquals(1000, new FixedRandomPolicy(0).getRetryDelay(1, 0));
+		assertEquals(2000, new FixedRandomPolicy(0.5).getRetryDelay(1, 0));
+		assertEquals(3500, new FixedRandomPolicy(0.5).getRetryDelay(2, 2000));
+	}
+
+	@Test
+	public void shouldBeCapped() {
+		assertEquals(10000, new FixedRandomPolicy(0.99).getRetryDelay(5, 8000));
+	}
+
+	@Test
+	public void shouldSpreadRetries() {
+		final DecorrelatedJitterPolicy policy = new DecorrelatedJitterPolicy(1000, 60000);
+		int delay = 0;
+		for (int attempt = 1; attempt < 20; attempt++) {
+			delay = policy.getRetryDelay(attempt, delay);
+			assertTrue(delay >= 1000 && delay <= 60000);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.calclab.emite.xtesting.ServicesTester;
+
+public class EndpointSelectorTest {
+
+	private final ServicesTester services;
+	private final EndpointSelector selector;
+	private final List<String> endpoints;
+	private final ArrayList<String> selected;
+	private final EndpointSelector.SelectionCallback callback;
+
+	public EndpointSelectorTest() {
+		services = new ServicesTester();
+		selector = new EndpointSelector(services);
+		endpoints = Arrays.asList("http://a/http-bind", "http://b/http-bind");
+		selected = new ArrayList<String>();
+		callback = new EndpointSelector.SelectionCallback() {
+			@Override
+			public void onSelected(final String endpoint) {
+				selected.add(endpoint);
+			}
+		};
+	}
+
+	@Test
+	public void shouldNotProbeASingleEndpoint() {
+		assertFalse(selector.needsProbe(Arrays.asList("http://a/http-bind")));
+		assertTrue(selector.needsProbe(endpoints));
+	}
+
+	@Test
+	public void shouldSelectTheLowestLatencyAfterProbing() {
+		selector.probe(endpoints, callback);
+		assertEquals(2, services.requestSentCount());
+		assertEquals("http://a/http-bind", services.getRequest(0).httpBase);
+		assertEquals("http://b/http-bind", services.getRequest(1).httpBase);
+
+		services.setCurrentTime(40);
+		respond(1, 200);
+		assertTrue(selected.isEmpty());
+		services.setCurrentTime(150);
+		respond(0, 400);
+
+		assertEquals(1, selected.size());
+		assertEquals("http://b/http-bind", selected.get(0));
+		assertEquals(150, selector.getLatency("http://a/http-bind"));
+		assertEquals(40, selector.getLatency("http://b/http-bind"));
+		assertFalse(selector.needsProbe(endpoints));
+	}
+
+	@Test
+	public void shouldNotWaitForADeadEndpoint() {
+		selector.probe(endpoints, callback);
+		services.setCurrentTime(40);
+		respond(1, 200);
+		assertTrue(selected.isEmpty());
+
+		// the grace window ends before the probe of the first endpoint
+		services.runScheduled();
+		assertEquals(Arrays.asList("http://b/http-bind"), selected);
+
+		final ServicesTester.Request first = services.getRequest(0);
+		services.setCurrentTime(5000);
+		first.listener.onError(first.request, new Exception("timeout"));
+		assertEquals(1, selected.size());
+		assertEquals(1, selector.getFailures("http://a/http-bind"));
+	}
+
+	@Test
+	public void shouldAvoidFailedEndpoints() {
+		selector.probe(endpoints, callback);
+		services.setCurrentTime(10);
+		final ServicesTester.Request first = services.getRequest(0);
+		first.listener.onError(first.request, new Exception("unreachable"));
+		services.setCurrentTime(300);
+		respond(1, 200);
+
+		assertEquals("http://b/http-bind", selected.get(0));
+		assertEquals(1, selector.getFailures("http://a/http-bind"));
+		assertEquals("http://b/http-bind", selector.select(endpoints));
+	}
+
+	@Test
+	public void shouldProbeAgainWhenTheFailureExpires() {
+		selector.setFailureExpiry(1000);
+		selector.recordLatency("http://a/http-bind", 100);
+		selector.recordLatency("http://b/http-bind", 200);
+		selector.recordFailure("http://a/http-bind");
+		assertFalse(selector.needsProbe(endpoints));
+		assertEquals("http://b/http-bind", selector.select(endpoints));
+
+		services.setCurrentTime(2000);
+		assertEquals(0, selector.getFailures("http://a/http-bind"));
+		assertTrue(selector.needsProbe(endpoints));
+	}
+
+	@Test
+	public void shouldSmoothTheLatency() {
+		selector.recordLatency("http://a/http-bind", 100);
+		selector.recordLatency("http://a/http-bind", 200);
+		assertEquals(130, selector.getLatency("http://a/http-bind"));
+	}
+
+	private void respond(final int index, final int statusCode) {
+		final ServicesTester.Request request = services.getRequest(index);
+		request.listener.onResponseReceived(statusCode, "<body type='terminate' condition='bad-request' />", request.request);
+	}
+}
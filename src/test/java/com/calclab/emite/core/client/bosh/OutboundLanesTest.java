@@ -0,0 +1,103 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.calclab.emite.core.client.bosh.OutboundLanes.Lane;
+import com.calclab.emite.core.client.packet.Packet;
+
+public class OutboundLanesTest {
+
+	@Test
+	public void shouldClassifyStanzas() {
+		assertEquals(Lane.interactive, OutboundLanes.classify(new Packet("message")));
+		assertEquals(Lane.presence, OutboundLanes.classify(new Packet("presence")));
+		assertEquals(Lane.bulk, OutboundLanes.classify(new Packet("iq")));
+	}
+
+	@Test
+	public void shouldKeepSendingOrder() {
+		final OutboundLanes lanes = new OutboundLanes();
+		lanes.add(new Packet("message").With("id", "1"), 0);
+		lanes.add(new Packet("iq"), 0);
+		lanes.add(new Packet("message").With("id", "2"), 0);
+		final Packet body = new Packet("body");
+		assertEquals(3, lanes.drainInto(body));
+		assertEquals("1", body.getChildren().get(0).getAttribute("id"));
+		assertEquals("iq", body.getChildren().get(1).getName());
+		assertEquals("2", body.getChildren().get(2).getAttribute("id"));
+		assertTrue(lanes.isEmpty());
+	}
+
+	@Test
+	public void shouldOnlyLetMessagesGoAheadOfADeferredIQ() {
+		final OutboundLanes lanes = new OutboundLanes();
+		lanes.setByteBudget(10);
+		lanes.add(new Packet("message").With("id", "1"), 2);
+		lanes.add(new Packet("iq").With("id", "big"), 20);
+		lanes.add(new Packet("iq").With("id", "small"), 1);
+		lanes.add(new Packet("message").With("id", "2"), 2);
+		final Packet body = new Packet("body");
+		assertEquals(2, lanes.drainInto(body));
+		assertEquals("1", body.getChildren().get(0).getAttribute("id"));
+		assertEquals("2", body.getChildren().get(1).getAttribute("id"));
+		assertEquals(2, lanes.size(Lane.bulk));
+
+		final Packet next = new Packet("body");
+		assertEquals(1, lanes.drainInto(next));
+		assertEquals("big", next.getChildren().get(0).getAttribute("id"));
+	}
+
+	@Test
+	public void shouldKeepPresencesBehindADeferredIQ() {
+		final OutboundLanes lanes = new OutboundLanes();
+		lanes.setByteBudget(10);
+		lanes.add(new Packet("iq").With("type", "set"), 20);
+		lanes.add(new Packet("presence").With("type", "subscribe"), 2);
+		lanes.add(new Packet("message"), 2);
+		final Packet body = new Packet("body");
+		assertEquals(1, lanes.drainInto(body));
+		assertEquals("iq", body.getChildren().get(0).getName());
+		assertEquals(2, lanes.size());
+
+		final Packet next = new Packet("body");
+		assertEquals(2, lanes.drainInto(next));
+		assertEquals("presence", next.getChildren().get(0).getName());
+		assertEquals("message", next.getChildren().get(1).getName());
+	}
+
+	@Test
+	public void shouldAlwaysDrainOneStanza() {
+		final OutboundLanes lanes = new OutboundLanes();
+		lanes.setByteBudget(10);
+		lanes.add(new Packet("iq"), 100);
+		lanes.add(new Packet("iq"), 5);
+		final Packet body = new Packet("body");
+		assertEquals(1, lanes.drainInto(body));
+		assertEquals(1, lanes.size());
+		assertEquals(1, lanes.drainInto(body));
+		assertTrue(lanes.isEmpty());
+	}
+}
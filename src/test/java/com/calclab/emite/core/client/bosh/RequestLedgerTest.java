@@ -0,0 +1,107 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.bosh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class RequestLedgerTest {
+
+	private final RequestLedger ledger;
+
+	public RequestLedgerTest() {
+		ledger = new RequestLedger();
+	}
+
+	@Test
+	public void shouldFindEntriesByRequest() {
+		final RequestLedger.Entry entry = ledger.add(10, "<body rid='10' />");
+		ledger.add(11, "<body rid='11' />");
+		assertSame(entry, ledger.find("<body rid='10' />"));
+		assertNull(ledger.find("<body rid='12' />"));
+	}
+
+	@Test
+	public void shouldReturnMissingRequestsSentBeforeTheAnsweredOne() {
+		final RequestLedger.Entry first = ledger.add(10, "first");
+		ledger.sent(first, 0);
+		final RequestLedger.Entry second = ledger.add(11, "second");
+		ledger.sent(second, 0);
+		final RequestLedger.Entry third = ledger.add(12, "third");
+		ledger.sent(third, 0);
+
+		final List<RequestLedger.Entry> missing = ledger.acknowledge(9, third);
+		assertEquals(2, missing.size());
+		assertSame(first, missing.get(0));
+		assertSame(second, missing.get(1));
+	}
+
+	@Test
+	public void shouldNotReturnRetransmittedRequestsAsMissing() {
+		final RequestLedger.Entry first = ledger.add(10, "first");
+		ledger.sent(first, 0);
+		final RequestLedger.Entry second = ledger.add(11, "second");
+		ledger.sent(second, 0);
+		ledger.sent(first, 0);
+
+		assertTrue(ledger.acknowledge(9, second).isEmpty());
+		assertEquals(2, first.getAttempts());
+	}
+
+	@Test
+	public void shouldMarkAcknowledgedRequests() {
+		final RequestLedger.Entry first = ledger.add(10, "first");
+		ledger.sent(first, 0);
+		final RequestLedger.Entry second = ledger.add(11, "second");
+		ledger.sent(second, 0);
+
+		assertTrue(ledger.acknowledge(10, second).isEmpty());
+		assertTrue(first.isAcknowledged());
+		assertFalse(second.isAcknowledged());
+	}
+
+	@Test
+	public void shouldAckLastResponseInSequence() {
+		ledger.setAcknowledging(true);
+		assertEquals(-1, ledger.getAckFor(10));
+		ledger.add(10, "held");
+		assertEquals(9, ledger.getAckFor(11));
+		ledger.remove(10);
+		assertEquals(-1, ledger.getAckFor(11));
+	}
+
+	@Test
+	public void shouldTrackErrors() {
+		final RequestLedger.Entry entry = ledger.add(10, "request");
+		assertFalse(ledger.hasErrors());
+		entry.setErrored(true);
+		assertTrue(ledger.hasErrors());
+		ledger.remove(10);
+		assertFalse(ledger.hasErrors());
+	}
+}
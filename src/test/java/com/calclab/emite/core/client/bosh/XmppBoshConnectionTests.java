@@ -21,13 +21,33 @@
 package com.calclab.emite.core.client.bosh;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 import org.junit.Test;
 
+import com.calclab.emite.core.client.conn.ConnectionMetrics;
+import com.calclab.emite.core.client.conn.ConnectionMetricsEvent;
+import com.calclab.emite.core.client.conn.ConnectionMetricsHandler;
 import com.calclab.emite.core.client.conn.ConnectionSettings;
+import com.calclab.emite.core.client.conn.ConnectionStateChangedEvent;
+import com.calclab.emite.core.client.conn.ConnectionStateChangedEvent.ConnectionState;
+import com.calclab.emite.core.client.conn.ConnectionStateChangedHandler;
+import com.calclab.emite.core.client.conn.StanzaBatchEvent;
+import com.calclab.emite.core.client.conn.StanzaBatchHandler;
+import com.calclab.emite.core.client.conn.StanzaEvent;
+import com.calclab.emite.core.client.conn.StanzaHandler;
 import com.calclab.emite.core.client.events.EmiteEventBus;
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.MatcherFactory;
 import com.calclab.emite.core.client.packet.Packet;
+import com.calclab.emite.core.client.services.ConnectorException;
 import com.calclab.emite.xtesting.EmiteTestsEventBus;
 import com.calclab.emite.xtesting.ServicesTester;
 import com.calclab.emite.xtesting.ServicesTester.Request;
@@ -66,4 +86,451 @@ public class XmppBoshConnectionTests {
 		int expectedTimeout = 55000; // 30s + (50s / 2)
 		assertEquals("Incorrect connection timeout", expectedTimeout, request.timeoutMillis);
 	}
+
+	@Test
+	public void shouldKeepSendingWhileErroredRequestIsRetried() {
+		final long rid = connectWithAcks();
+		connection.send(new Packet("first"));
+		final Request first = services.getLastRequest();
+		first.listener.onError(first.request, new Exception("network down"));
+		assertTrue(connection.hasErrors());
+
+		connection.send(new Packet("second"));
+		assertEquals(3, services.requestSentCount());
+		assertEquals("" + (rid + 2), services.getSentPacket(2).getAttribute("rid"));
+	}
+
+	@Test
+	public void shouldRetransmitReportedRequest() {
+		final long rid = connectWithAcks();
+		connection.send(new Packet("first"));
+		connection.send(new Packet("second"));
+		final Request first = services.getRequest(1);
+		final Request second = services.getRequest(2);
+
+		second.listener.onResponseReceived(200, "<body report='" + (rid + 1) + "' time='1500' />", second.request);
+		assertEquals(4, services.requestSentCount());
+		assertSame(first.request, services.getLastRequest().request);
+	}
+
+	@Test
+	public void shouldRetransmitNotAcknowledgedRequests() {
+		final long rid = connectWithAcks();
+		connection.send(new Packet("first"));
+		connection.send(new Packet("second"));
+		final Request first = services.getRequest(1);
+		final Request second = services.getRequest(2);
+
+		second.listener.onResponseReceived(200, "<body ack='" + rid + "' />", second.request);
+		assertEquals(4, services.requestSentCount());
+		assertSame(first.request, services.getLastRequest().request);
+	}
+
+	@Test
+	public void shouldDiscardDuplicatedResponses() {
+		final long rid = connectWithAcks();
+		final int[] received = new int[1];
+		connection.addStanzaReceivedHandler(new StanzaHandler() {
+			@Override
+			public void onStanza(final StanzaEvent event) {
+				received[0]++;
+			}
+		});
+		connection.send(new Packet("first"));
+		connection.send(new Packet("second"));
+		final Request second = services.getRequest(2);
+		second.listener.onResponseReceived(200, "<body report='" + (rid + 1) + "' time='1500' />", second.request);
+
+		final Request retransmitted = services.getLastRequest();
+		final Request original = services.getRequest(1);
+		retransmitted.listener.onResponseReceived(200, "<body><message /></body>", retransmitted.request);
+		original.listener.onResponseReceived(200, "<body><message /></body>", original.request);
+		assertEquals(1, received[0]);
+		assertFalse(connection.hasErrors());
+	}
+
+	@Test
+	public void shouldAcknowledgeLastResponseInSequence() {
+		final long rid = connectWithAcks();
+		connection.send(new Packet("first"));
+		connection.send(new Packet("second"));
+		final Request second = services.getRequest(2);
+		second.listener.onResponseReceived(200, "<body />", second.request);
+
+		connection.send(new Packet("third"));
+		assertEquals("" + rid, services.getSentPacket(3).getAttribute("ack"));
+	}
+
+	@Test
+	public void shouldSendEveryStanzaWithoutCoalescing() {
+		connectWithAcks();
+		connection.send(new Packet("first"));
+		connection.send(new Packet("second"));
+		assertEquals(3, services.requestSentCount());
+	}
+
+	@Test
+	public void shouldMergeStanzasSentInTheSameWindow() {
+		connectWithAcks();
+		connection.setCoalescing(10, 0, 0);
+		connection.send(new Packet("first"));
+		connection.send(new Packet("second"));
+		connection.send(new Packet("third"));
+		assertEquals(1, services.requestSentCount());
+
+		services.runScheduled();
+		assertEquals(2, services.requestSentCount());
+		assertEquals(3, services.getSentPacket(1).getChildrenCount());
+		assertEquals(3, connection.getCoalescingWindow().getLastMerged());
+	}
+
+	@Test
+	public void shouldFlushWhenStanzaLimitIsReached() {
+		connectWithAcks();
+		connection.setCoalescing(10, 2, 0);
+		connection.send(new Packet("first"));
+		assertEquals(1, services.requestSentCount());
+		connection.send(new Packet("second"));
+		assertEquals(2, services.requestSentCount());
+		assertEquals(2, services.getSentPacket(1).getChildrenCount());
+	}
+
+	@Test
+	public void shouldFlushImmediatelyLatencyCriticalStanzas() {
+		connectWithAcks();
+		connection.setCoalescing(10, 0, 0);
+		connection.getCoalescingWindow().setImmediateFlush(MatcherFactory.byName("message"));
+		connection.send(new Packet("presence"));
+		assertEquals(1, services.requestSentCount());
+		connection.send(new Packet("message"));
+		assertEquals(2, services.requestSentCount());
+		assertEquals(2, services.getSentPacket(1).getChildrenCount());
+	}
+
+	@Test
+	public void shouldKeepTheOrderOfAnIQSetFollowedByPresences() {
+		connectWithAcks();
+		connection.setCoalescing(10, 0, 0);
+		connection.send(new Packet("iq").With("type", "set"));
+		connection.send(new Packet("presence").With("type", "subscribe"));
+		connection.send(new Packet("presence").With("type", "subscribed"));
+		services.runScheduled();
+		final IPacket body = services.getSentPacket(1);
+		assertEquals("iq", body.getChildren().get(0).getName());
+		assertEquals("subscribe", body.getChildren().get(1).getAttribute("type"));
+		assertEquals("subscribed", body.getChildren().get(2).getAttribute("type"));
+	}
+
+	@Test
+	public void shouldKeepPresencesAfterAnIQSetOverTheByteBudget() {
+		connectWithAcks();
+		connection.setCoalescing(10, 0, 0);
+		connection.setByteBudget(40);
+		final IPacket roster = new Packet("iq").With("type", "set");
+		roster.addChild("query", "jabber:iq:roster").addChild("item").setText("0123456789012345678901234567890123456789");
+		connection.send(roster);
+		connection.send(new Packet("presence").With("type", "subscribe"));
+		connection.flush();
+		assertEquals(2, services.requestSentCount());
+		assertEquals(1, services.getSentPacket(1).getChildrenCount());
+		assertEquals("iq", services.getSentPacket(1).getChildren().get(0).getName());
+
+		final Request request = services.getLastRequest();
+		request.listener.onResponseReceived(200, "<body />", request.request);
+		assertEquals(3, services.requestSentCount());
+		assertEquals("subscribe", services.getSentPacket(2).getChildren().get(0).getAttribute("type"));
+	}
+
+	@Test
+	public void shouldSplitStanzasOverTheByteBudget() {
+		connectWithAcks();
+		connection.setCoalescing(10, 0, 0);
+		connection.setByteBudget(40);
+		final Packet upload = new Packet("iq");
+		upload.addChild("vCard", "vcard-temp").addChild("PHOTO").setText("0123456789012345678901234567890123456789");
+		connection.send(upload);
+		connection.send(new Packet("message"));
+		connection.flush();
+		assertEquals(2, services.requestSentCount());
+		assertEquals(1, services.getSentPacket(1).getChildrenCount());
+		assertEquals("message", services.getSentPacket(1).getFirstChild("message").getName());
+		assertEquals(1, connection.getOutboundLanes().size(OutboundLanes.Lane.bulk));
+
+		final Request request = services.getLastRequest();
+		request.listener.onResponseReceived(200, "<body />", request.request);
+		assertEquals(3, services.requestSentCount());
+		assertEquals("iq", services.getSentPacket(2).getChildren().get(0).getName());
+		assertTrue(connection.getOutboundLanes().isEmpty());
+	}
+
+	@Test
+	public void shouldCancelTimersOnDisconnect() {
+		assertEquals(0, services.getScheduledCount());
+		connectWithAcks();
+		assertTrue(services.getScheduledCount() > 0);
+		connection.disconnect();
+		assertEquals(0, services.getScheduledCount());
+	}
+
+	@Test
+	public void shouldKeepOnlyOneKeepAliveScheduled() {
+		connectWithAcks();
+		final int scheduled = services.getScheduledCount();
+		connection.send(new Packet("first"));
+		final Request request = services.getLastRequest();
+		request.listener.onResponseReceived(200, "<body />", request.request);
+		assertEquals(scheduled, services.getScheduledCount());
+	}
+
+	@Test
+	public void shouldOpenCircuitAndProbeWithSingleRequest() {
+		final ArrayList<String> states = new ArrayList<String>();
+		connection.addConnectionStateChangedHandler(new ConnectionStateChangedHandler() {
+			@Override
+			public void onStateChanged(final ConnectionStateChangedEvent event) {
+				states.add(event.getState());
+			}
+		});
+		connection.setRetryPolicy(new RetryPolicy() {
+			@Override
+			public int getRetryDelay(final int attempt, final int previousDelay) {
+				return 100;
+			}
+		});
+		connectWithAcks();
+		connection.send(new Packet("first"));
+		connection.send(new Packet("second"));
+		final Request first = services.getRequest(1);
+		final Request second = services.getRequest(2);
+		first.listener.onError(first.request, new Exception("down"));
+		second.listener.onError(second.request, new Exception("down"));
+		services.runScheduled();
+		assertEquals(5, services.requestSentCount());
+		services.getRequest(3).listener.onError(first.request, new Exception("down"));
+		assertTrue(connection.getCircuitBreaker().isOpen());
+		assertTrue(states.contains(ConnectionState.circuitOpen));
+		services.getRequest(4).listener.onError(second.request, new Exception("down"));
+
+		connection.send(new Packet("third"));
+		services.runScheduled();
+		assertEquals(6, services.requestSentCount());
+		assertSame(first.request, services.getLastRequest().request);
+		assertTrue(connection.getCircuitBreaker().isHalfOpen());
+
+		services.getLastRequest().listener.onResponseReceived(200, "<body />", first.request);
+		assertTrue(connection.getCircuitBreaker().isClosed());
+		assertTrue(states.contains(ConnectionState.circuitClosed));
+		assertSame(second.request, services.getRequest(6).request);
+	}
+
+	@Test
+	public void shouldRecordTransportMetrics() {
+		connectWithAcks();
+		final ConnectionMetrics[] fired = new ConnectionMetrics[1];
+		connection.setMetricsInterval(0);
+		connection.addConnectionMetricsHandler(new ConnectionMetricsHandler() {
+			@Override
+			public void onMetrics(final ConnectionMetricsEvent event) {
+				fired[0] = event.getMetrics();
+			}
+		});
+		services.setCurrentTime(1000);
+		connection.send(new Packet("first"));
+		final Request request = services.getLastRequest();
+		services.setCurrentTime(1250);
+		request.listener.onResponseReceived(200, "<body><message /></body>", request.request);
+
+		final ConnectionMetrics metrics = connection.getMetrics();
+		assertEquals(2, metrics.getRequestsSent());
+		assertEquals(2, metrics.getResponsesReceived());
+		assertEquals(1, metrics.getStanzasSent());
+		assertEquals(1, metrics.getStanzasReceived());
+		assertEquals(250, metrics.getRoundTrip().getLast());
+		assertEquals(1, metrics.getHold().getCount());
+		assertEquals(request.request.length() + services.getRequest(0).request.length(), metrics.getBytesSent());
+		assertNotNull(fired[0]);
+		assertEquals(1, fired[0].getStanzasReceived());
+	}
+
+	@Test
+	public void shouldFailOverToTheNextEndpoint() {
+		final ArrayList<String> states = new ArrayList<String>();
+		connection.addConnectionStateChangedHandler(new ConnectionStateChangedHandler() {
+			@Override
+			public void onStateChanged(final ConnectionStateChangedEvent event) {
+				states.add(event.getState());
+			}
+		});
+		connection.setSettings(new ConnectionSettings(Arrays.asList("http://a/http-bind", "http://b/http-bind"), "localhost"));
+		connection.connect();
+		assertEquals(2, services.requestSentCount());
+		assertNull(connection.getEndpoint());
+
+		services.setCurrentTime(20);
+		respond(services.getRequest(0), "<body type='terminate' condition='bad-request' />");
+		services.setCurrentTime(80);
+		respond(services.getRequest(1), "<body type='terminate' condition='bad-request' />");
+		assertEquals("http://a/http-bind", connection.getEndpoint());
+		assertEquals("http://a/http-bind", services.getLastRequest().httpBase);
+		respond(services.getLastRequest(), "<body sid='sid' wait='60' inactivity='60' />");
+
+		connection.send(new Packet("message"));
+		final Request failing = services.getLastRequest();
+		for (int i = 0; i < 3; i++) {
+			failing.listener.onError(failing.request, new Exception("unreachable"));
+		}
+		assertTrue(states.contains(ConnectionState.error));
+		assertEquals(ConnectionState.disconnected, states.get(states.size() - 1));
+		assertEquals(1, connection.getEndpointSelector().getFailures("http://a/http-bind"));
+
+		// the health is known: the new session goes straight to the other endpoint
+		final int sent = services.requestSentCount();
+		connection.connect();
+		assertEquals(sent + 1, services.requestSentCount());
+		assertEquals("http://b/http-bind", services.getLastRequest().httpBase);
+	}
+
+	private void respond(final Request request, final String response) {
+		request.listener.onResponseReceived(200, response, request.request);
+	}
+
+	/**
+	 * Connects to a connection manager that supports acknowledgements
+	 * 
+	 * @return the RID of the session creation request
+	 */
+	@Test
+	public void shouldDispatchStanzasInSlicesAndHoldRequestsWhileBacklogged() {
+		connection.setSlicedDispatch(8, 1);
+		connectWithAcks();
+		connection.send(new Packet("first"));
+		final int requests = services.requestSentCount();
+		final ArrayList<String> received = new ArrayList<String>();
+		connection.addStanzaReceivedHandler(new StanzaHandler() {
+			@Override
+			public void onStanza(final StanzaEvent event) {
+				received.add(event.getStanza().getName());
+				if (received.size() == 1) {
+					connection.send(new Packet("reply"));
+				}
+				// every stanza takes 5 milliseconds
+				services.setCurrentTime(services.getCurrentTime() + 5);
+			}
+		});
+
+		final Request first = services.getLastRequest();
+		first.listener.onResponseReceived(200, "<body><a/><b/><c/><d/><e/></body>", first.request);
+		assertEquals(0, received.size());
+		assertEquals(requests, services.requestSentCount());
+
+		services.runScheduled();
+		assertEquals(Arrays.asList("a", "b"), received);
+		// the reply waits until the backlog is dispatched
+		assertEquals(requests, services.requestSentCount());
+
+		services.runScheduled();
+		assertEquals(Arrays.asList("a", "b", "c", "d"), received);
+		assertEquals(requests + 1, services.requestSentCount());
+		assertEquals("reply", services.getSentPacket(requests).getFirstChild("reply").getName());
+
+		services.runScheduled();
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e"), received);
+		assertEquals(3, connection.getDispatchQueue().getSlices());
+	}
+
+	@Test
+	public void shouldRetryARequestThatFailedToBeSent() {
+		connectWithAcks();
+		final int requests = services.requestSentCount();
+		services.setSendFailure(new ConnectorException("queue full"));
+		connection.send(new Packet("first"));
+		assertEquals(requests, services.requestSentCount());
+
+		services.setSendFailure(null);
+		services.runScheduled();
+		assertEquals(requests, services.requestSentCount());
+		services.runScheduled();
+		assertEquals(requests + 1, services.requestSentCount());
+		assertEquals("first", services.getSentPacket(requests).getChildren().get(0).getName());
+
+		final Request request = services.getLastRequest();
+		request.listener.onResponseReceived(200, "<body />", request.request);
+		connection.send(new Packet("second"));
+		assertEquals(requests + 2, services.requestSentCount());
+	}
+
+	@Test
+	public void shouldDropTheDispatchBacklogWhenDisconnected() {
+		connection.setSlicedDispatch(8, 1);
+		connectWithAcks();
+		connection.send(new Packet("first"));
+		final ArrayList<String> received = new ArrayList<String>();
+		connection.addStanzaReceivedHandler(new StanzaHandler() {
+			@Override
+			public void onStanza(final StanzaEvent event) {
+				received.add(event.getStanza().getName());
+				services.setCurrentTime(services.getCurrentTime() + 5);
+			}
+		});
+		final ArrayList<Boolean> batches = new ArrayList<Boolean>();
+		StanzaBatchEvent.bind(connection.getEventBus(), new StanzaBatchHandler() {
+			@Override
+			public void onStanzaBatch(final StanzaBatchEvent event) {
+				batches.add(event.isStarted());
+			}
+		});
+
+		final Request first = services.getLastRequest();
+		first.listener.onResponseReceived(200, "<body><a/><b/><c/><d/><e/></body>", first.request);
+		services.runScheduled();
+		assertEquals(Arrays.asList("a", "b"), received);
+
+		connection.disconnect();
+		assertTrue(connection.getDispatchQueue().isEmpty());
+		assertEquals(Arrays.asList(true, false), batches);
+		services.runScheduled();
+		services.runScheduled();
+		assertEquals(Arrays.asList("a", "b"), received);
+	}
+
+	@Test
+	public void shouldMeasureTheErrorTimeSinceTheFirstFailure() {
+		final ArrayList<String> states = new ArrayList<String>();
+		connection.addConnectionStateChangedHandler(new ConnectionStateChangedHandler() {
+			@Override
+			public void onStateChanged(final ConnectionStateChangedEvent event) {
+				states.add(event.getState());
+			}
+		});
+		connection.setRetryPolicy(new RetryPolicy() {
+			@Override
+			public int getRetryDelay(final int attempt, final int previousDelay) {
+				return 16000;
+			}
+		});
+		// the inactivity is 30 seconds
+		connectWithAcks();
+		connection.send(new Packet("first"));
+		connection.send(new Packet("second"));
+		final Request first = services.getRequest(1);
+		final Request second = services.getRequest(2);
+		first.listener.onError(first.request, new Exception("down"));
+		second.listener.onError(second.request, new Exception("down"));
+		// two concurrent failures don't add up their delays
+		assertFalse(states.contains(ConnectionState.error));
+
+		services.setCurrentTime(20000);
+		services.runScheduled();
+		services.getLastRequest().listener.onError(first.request, new Exception("down"));
+		assertTrue(states.contains(ConnectionState.error));
+	}
+
+	private long connectWithAcks() {
+		connection.setSettings(new ConnectionSettings("httpBase", "localhost"));
+		connection.connect();
+		final Request request = services.getLastRequest();
+		final String rid = services.getSentPacket(0).getAttribute("rid");
+		request.listener.onResponseReceived(200, "<body sid='sid' wait='60' inactivity='30' ack='" + rid + "' />", request.request);
+		return Long.parseLong(rid);
+	}
 }
@@ -0,0 +1,65 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.conn;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RollingHistogramTest {
+
+	@Test
+	public void shouldKeepOnlyTheLastSamples() {
+		final RollingHistogram histogram = new RollingHistogram(3);
+		histogram.add(100);
+		histogram.add(1);
+		histogram.add(2);
+		histogram.add(3);
+		assertEquals(4, histogram.getCount());
+		assertEquals(3, histogram.getSize());
+		assertEquals(1, histogram.getMin());
+		assertEquals(3, histogram.getMax());
+		assertEquals(2.0, histogram.getMean(), 0.001);
+		assertEquals(3, histogram.getLast());
+	}
+
+	@Test
+	public void shouldCalculatePercentiles() {
+		final RollingHistogram histogram = new RollingHistogram(100);
+		for (int value = 100; value > 0; value--) {
+			histogram.add(value);
+		}
+		assertEquals(50, histogram.getPercentile(50));
+		assertEquals(95, histogram.getPercentile(95));
+		assertEquals(100, histogram.getPercentile(100));
+		assertEquals(1, histogram.getPercentile(0));
+	}
+
+	@Test
+	public void shouldCopyIndependently() {
+		final RollingHistogram histogram = new RollingHistogram(10);
+		histogram.add(5);
+		final RollingHistogram copy = histogram.copy();
+		histogram.add(7);
+		assertEquals(1, copy.getCount());
+		assertEquals(5, copy.getLast());
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.events;
+
+import com.calclab.emite.core.client.xmpp.stanzas.Message;
+import com.calclab.emite.core.client.xmpp.stanzas.Presence;
+
+/**
+ * Compares the GwtEmiteEventBus (a HandlerManager) with the FastEmiteEventBus
+ * firing the events of an inbound stanza (a presence and a message, with the
+ * handlers of a typical session). It's not a unit test: run it from the test
+ * classpath.
+ */
+public class EventBusBenchmark {
+
+	private static final int ITERATIONS = 200000;
+	private static final int ROUNDS = 5;
+	private static final int HANDLERS = 6;
+
+	private static int sink;
+
+	public static void main(final String[] args) {
+		for (int round = 0; round < ROUNDS; round++) {
+			System.out.println("Round " + round);
+			final long gwt = run(new GwtEmiteEventBus("gwt"));
+			final long fast = run(new FastEmiteEventBus("fast"));
+			System.out.println("  " + perCall(gwt) + " -> " + perCall(fast) + " per stanza [" + sink + "]");
+		}
+	}
+
+	private static String perCall(final long nanos) {
+		return (nanos / ITERATIONS) + "ns";
+	}
+
+	private static long run(final EmiteEventBus eventBus) {
+		for (int i = 0; i < HANDLERS; i++) {
+			PresenceReceivedEvent.bind(eventBus, new PresenceHandler() {
+				@Override
+				public void onPresence(final PresenceEvent event) {
+					sink++;
+				}
+			});
+			MessageReceivedEvent.bind(eventBus, new MessageHandler() {
+				@Override
+				public void onMessage(final MessageEvent event) {
+					sink++;
+				}
+			});
+		}
+		final PresenceReceivedEvent presence = new PresenceReceivedEvent(new Presence());
+		final MessageReceivedEvent message = new MessageReceivedEvent(new Message("hi"));
+		final long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			eventBus.fireEvent(presence);
+			eventBus.fireEvent(message);
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.calclab.emite.core.client.xmpp.stanzas.Message;
+import com.calclab.emite.core.client.xmpp.stanzas.Presence;
+import com.google.gwt.event.shared.GwtEvent.Type;
+import com.google.gwt.event.shared.HandlerRegistration;
+import com.google.gwt.event.shared.UmbrellaException;
+
+public class FastEmiteEventBusTest {
+
+	private static final Type<PresenceHandler> PRESENCE = new PresenceReceivedEvent(new Presence()).getAssociatedType();
+
+	private FastEmiteEventBus eventBus;
+	private ArrayList<String> received;
+
+	@Before
+	public void beforeTests() {
+		eventBus = new FastEmiteEventBus("test");
+		received = new ArrayList<String>();
+	}
+
+	@Test
+	public void shouldDispatchToTheHandlersOfTheType() {
+		eventBus.addHandler(PRESENCE, handler("a"));
+		eventBus.addHandler(PRESENCE, handler("b"));
+		eventBus.fireEvent(new PresenceReceivedEvent(new Presence()));
+		eventBus.fireEvent(new MessageReceivedEvent(new Message("hi")));
+		assertEquals("[a, b]", received.toString());
+		assertEquals(2, eventBus.getHandlerCount(PRESENCE));
+		assertFalse(eventBus.isEventHandled(new Type<PresenceHandler>()));
+	}
+
+	@Test
+	public void shouldRemoveHandlers() {
+		final PresenceHandler a = handler("a");
+		final HandlerRegistration registration = eventBus.addHandler(PRESENCE, a);
+		final PresenceHandler b = handler("b");
+		eventBus.addHandler(PRESENCE, b);
+		registration.removeHandler();
+		registration.removeHandler();
+		assertSame(b, eventBus.getHandler(PRESENCE, 0));
+		eventBus.fireEvent(new PresenceReceivedEvent(new Presence()));
+		assertEquals("[b]", received.toString());
+	}
+
+	@Test
+	public void shouldApplyChangesMadeWhileDispatchingToTheNextEvent() {
+		final HandlerRegistration[] registration = new HandlerRegistration[1];
+		registration[0] = eventBus.addHandler(PRESENCE, new PresenceHandler() {
+			@Override
+			public void onPresence(final PresenceEvent event) {
+				received.add("first");
+				registration[0].removeHandler();
+				eventBus.addHandler(PRESENCE, handler("added"));
+			}
+		});
+		eventBus.addHandler(PRESENCE, handler("second"));
+		eventBus.fireEvent(new PresenceReceivedEvent(new Presence()));
+		assertEquals("[first, second]", received.toString());
+		eventBus.fireEvent(new PresenceReceivedEvent(new Presence()));
+		assertEquals("[first, second, second, added]", received.toString());
+	}
+
+	@Test
+	public void shouldCallAllTheHandlersWhenOneFails() {
+		eventBus.addHandler(PRESENCE, new PresenceHandler() {
+			@Override
+			public void onPresence(final PresenceEvent event) {
+				throw new IllegalStateException("failed");
+			}
+		});
+		eventBus.addHandler(PRESENCE, handler("b"));
+		try {
+			eventBus.fireEvent(new PresenceReceivedEvent(new Presence()));
+			fail("Expected an umbrella exception");
+		} catch (final UmbrellaException e) {
+			assertEquals(1, e.getCauses().size());
+		}
+		assertEquals("[b]", received.toString());
+	}
+
+	@Test
+	public void shouldDispatchToTheHandlersOfTheSource() {
+		final Object source = new Object();
+		eventBus.addHandler(PRESENCE, handler("type"));
+		final HandlerRegistration registration = eventBus.addHandlerToSource(PRESENCE, source, handler("source"));
+		eventBus.addHandlerToSource(PRESENCE, new Object(), handler("other"));
+		eventBus.fireEventFromSource(new PresenceReceivedEvent(new Presence()), source);
+		eventBus.fireEvent(new PresenceReceivedEvent(new Presence()));
+		assertEquals("[source, type, type]", received.toString());
+		assertEquals(1, eventBus.getHandlerCount(PRESENCE));
+
+		registration.removeHandler();
+		eventBus.fireEventFromSource(new PresenceReceivedEvent(new Presence()), source);
+		assertEquals("[source, type, type, type]", received.toString());
+	}
+
+	@Test
+	public void shouldBeHandledByTheHandlersOfASource() {
+		final HandlerRegistration registration = eventBus.addHandlerToSource(PRESENCE, this, handler("source"));
+		assertTrue(eventBus.isEventHandled(PRESENCE));
+		registration.removeHandler();
+		assertFalse(eventBus.isEventHandled(PRESENCE));
+	}
+
+	private PresenceHandler handler(final String name) {
+		return new PresenceHandler() {
+			@Override
+			public void onPresence(final PresenceEvent event) {
+				received.add(name);
+			}
+		};
+	}
+}
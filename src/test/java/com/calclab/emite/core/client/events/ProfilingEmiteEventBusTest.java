@@ -0,0 +1,193 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.calclab.emite.core.client.xmpp.stanzas.Presence;
+import com.google.gwt.event.shared.GwtEvent.Type;
+import com.google.gwt.event.shared.HandlerRegistration;
+
+public class ProfilingEmiteEventBusTest {
+
+	private static class SlowHandler implements PresenceHandler {
+		@Override
+		public void onPresence(final PresenceEvent event) {
+			time += 60;
+		}
+	}
+
+	private static class FastHandler implements PresenceHandler {
+		@Override
+		public void onPresence(final PresenceEvent event) {
+			time += 2;
+		}
+	}
+
+	private static final Type<PresenceHandler> PRESENCE = new PresenceReceivedEvent(new Presence()).getAssociatedType();
+
+	private static double time;
+
+	private EventBusProfiler profiler;
+	private ProfilingEmiteEventBus eventBus;
+
+	@After
+	public void afterTests() {
+		EventBusFactory.setProfiler(null);
+	}
+
+	@Before
+	public void beforeTests() {
+		time = 0;
+		profiler = new EventBusProfiler(50) {
+			@Override
+			protected double getCurrentTime() {
+				return time;
+			}
+		};
+		eventBus = new ProfilingEmiteEventBus(new FastEmiteEventBus("test"), "test", profiler);
+	}
+
+	@Test
+	public void shouldRecordTypesAndHandlers() {
+		eventBus.addHandler(PRESENCE, new FastHandler());
+		eventBus.addHandler(PRESENCE, new SlowHandler());
+		eventBus.fireEvent(new PresenceReceivedEvent(new Presence()));
+		eventBus.fireEvent(new PresenceReceivedEvent(new Presence()));
+
+		final List<EventBusProfiler.Stats> types = profiler.getTypeStats();
+		assertEquals(1, types.size());
+		assertEquals(PresenceReceivedEvent.class.getName(), types.get(0).getName());
+		assertEquals(2, types.get(0).getCount());
+		assertEquals(124, types.get(0).getTotalMillis(), 0);
+		assertEquals(62, types.get(0).getMaxMillis(), 0);
+
+		final List<EventBusProfiler.Stats> handlers = profiler.getHandlerStats();
+		assertEquals(2, handlers.size());
+		assertEquals(SlowHandler.class.getName(), handlers.get(0).getName());
+		assertEquals(120, handlers.get(0).getTotalMillis(), 0);
+		assertEquals(FastHandler.class.getName(), handlers.get(1).getName());
+		assertEquals(2, handlers.get(1).getCount());
+	}
+
+	@Test
+	public void shouldFlagSlowHandlers() {
+		eventBus.addHandler(PRESENCE, new FastHandler());
+		eventBus.addHandler(PRESENCE, new SlowHandler());
+		eventBus.fireEvent(new PresenceReceivedEvent(new Presence()));
+
+		final List<EventBusProfiler.Stats> slow = profiler.getSlowHandlers();
+		assertEquals(1, slow.size());
+		assertEquals(SlowHandler.class.getName(), slow.get(0).getName());
+		assertEquals(1, slow.get(0).getSlowCount());
+		assertTrue(profiler.getReport().contains(SlowHandler.class.getName()));
+	}
+
+	@Test
+	public void shouldOnlyFireWhenDisabled() {
+		final ArrayList<String> received = new ArrayList<String>();
+		eventBus.addHandler(PRESENCE, new PresenceHandler() {
+			@Override
+			public void onPresence(final PresenceEvent event) {
+				received.add("handled");
+			}
+		});
+		profiler.setEnabled(false);
+		eventBus.fireEvent(new PresenceReceivedEvent(new Presence()));
+		assertEquals(1, received.size());
+		assertEquals(0, profiler.getTypeStats().size());
+	}
+
+	@Test
+	public void shouldTimeTheHandlersOfASource() {
+		final Object source = new Object();
+		final HandlerRegistration registration = eventBus.addHandlerToSource(PRESENCE, source, new SlowHandler());
+		eventBus.addHandler(PRESENCE, new FastHandler());
+		eventBus.fireEventFromSource(new PresenceReceivedEvent(new Presence()), source);
+		eventBus.fireEvent(new PresenceReceivedEvent(new Presence()));
+		registration.removeHandler();
+		eventBus.fireEventFromSource(new PresenceReceivedEvent(new Presence()), source);
+
+		final List<EventBusProfiler.Stats> handlers = profiler.getHandlerStats();
+		assertEquals(SlowHandler.class.getName(), handlers.get(0).getName());
+		assertEquals(1, handlers.get(0).getCount());
+		assertEquals(FastHandler.class.getName(), handlers.get(1).getName());
+		assertEquals(3, handlers.get(1).getCount());
+		assertEquals(66, profiler.getTypeStats().get(0).getTotalMillis(), 0);
+	}
+
+	@Test
+	public void shouldKeepTheHandlersOfASourceForOtherBuses() {
+		final ProfilingEmiteEventBus profiled = new ProfilingEmiteEventBus(new GwtEmiteEventBus("gwt"), "gwt", profiler);
+		final Object source = new Object();
+		final HandlerRegistration registration = profiled.addHandlerToSource(PRESENCE, source, new SlowHandler());
+		assertTrue(profiled.isEventHandled(PRESENCE));
+		profiled.addHandler(PRESENCE, new FastHandler());
+
+		profiled.fireEventFromSource(new PresenceReceivedEvent(new Presence()), source);
+		assertEquals(62, time, 0);
+		assertEquals(1, profiler.getSlowHandlers().size());
+
+		profiler.setEnabled(false);
+		profiled.fireEventFromSource(new PresenceReceivedEvent(new Presence()), source);
+		profiled.fireEventFromSource(new PresenceReceivedEvent(new Presence()), new Object());
+		assertEquals(126, time, 0);
+
+		registration.removeHandler();
+		profiled.fireEventFromSource(new PresenceReceivedEvent(new Presence()), source);
+		assertEquals(128, time, 0);
+	}
+
+	@Test
+	public void shouldProfileTheFastBusesAlreadyCreated() {
+		final FastEmiteEventBus existing = new FastEmiteEventBus("existing");
+		existing.addHandler(PRESENCE, new SlowHandler());
+		existing.fireEvent(new PresenceReceivedEvent(new Presence()));
+		assertEquals(0, profiler.getTypeStats().size());
+
+		EventBusFactory.setProfiler(profiler);
+		existing.fireEvent(new PresenceReceivedEvent(new Presence()));
+		assertEquals(1, profiler.getTypeStats().size());
+		assertEquals(1, profiler.getSlowHandlers().size());
+		assertEquals(60, profiler.getHandlerStats().get(0).getTotalMillis(), 0);
+	}
+
+	@Test
+	public void shouldProfileTheBusesCreatedByTheFactory() {
+		final EmiteEventBus plain = EventBusFactory.create("plain");
+		assertNotSame(ProfilingEmiteEventBus.class, plain.getClass());
+		EventBusFactory.setProfiler(profiler);
+		final EmiteEventBus profiled = EventBusFactory.create("profiled");
+		assertSame(ProfilingEmiteEventBus.class, profiled.getClass());
+		assertSame(profiler, ((ProfilingEmiteEventBus) profiled).getProfiler());
+	}
+
+}
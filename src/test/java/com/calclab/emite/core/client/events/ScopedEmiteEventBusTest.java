@@ -0,0 +1,90 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.calclab.emite.core.client.xmpp.stanzas.Presence;
+import com.google.gwt.event.shared.GwtEvent.Type;
+import com.google.gwt.event.shared.HandlerRegistration;
+
+public class ScopedEmiteEventBusTest {
+
+	private static final Type<PresenceHandler> PRESENCE = new PresenceReceivedEvent(new Presence()).getAssociatedType();
+
+	private int received;
+
+	@Test
+	public void shouldFireWithoutHandlers() {
+		final ScopedEmiteEventBus scope = new ScopedEmiteEventBus("empty");
+		scope.fireEvent(new PresenceReceivedEvent(new Presence()));
+		assertFalse(scope.isEventHandled(PRESENCE));
+		assertEquals(0, scope.getHandlerCount(PRESENCE));
+	}
+
+	@Test
+	public void shouldDispatchAndDispose() {
+		final ScopedEmiteEventBus scope = new ScopedEmiteEventBus("chat");
+		final HandlerRegistration registration = PresenceReceivedEvent.bind(scope, handler());
+		PresenceReceivedEvent.bind(scope, handler());
+		scope.fireEvent(new PresenceReceivedEvent(new Presence()));
+		assertEquals(2, received);
+		assertTrue(scope.isEventHandled(PRESENCE));
+
+		scope.dispose();
+		scope.fireEvent(new PresenceReceivedEvent(new Presence()));
+		assertEquals(2, received);
+		assertFalse(scope.isEventHandled(PRESENCE));
+		registration.removeHandler();
+
+		PresenceReceivedEvent.bind(scope, handler());
+		scope.fireEvent(new PresenceReceivedEvent(new Presence()));
+		assertEquals(3, received);
+	}
+
+	@Test
+	public void shouldCreateTheBusOfTheScopeWithTheFactory() {
+		final EventBusProfiler profiler = new EventBusProfiler(50);
+		EventBusFactory.setProfiler(profiler);
+		try {
+			final ScopedEmiteEventBus scope = new ScopedEmiteEventBus("profiled");
+			PresenceReceivedEvent.bind(scope, handler());
+			scope.fireEvent(new PresenceReceivedEvent(new Presence()));
+			assertEquals(1, received);
+			assertEquals(1, profiler.getTypeStats().size());
+		} finally {
+			EventBusFactory.setProfiler(null);
+		}
+	}
+
+	private PresenceHandler handler() {
+		return new PresenceHandler() {
+			@Override
+			public void onPresence(final PresenceEvent event) {
+				received++;
+			}
+		};
+	}
+}
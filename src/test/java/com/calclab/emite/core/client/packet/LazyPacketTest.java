@@ -0,0 +1,101 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class LazyPacketTest {
+
+	@Test
+	public void testPacket() {
+		PacketTestSuite.runPacketTests(new AbstractHelperTest() {
+			@Override
+			public IPacket createPacket(final String name) {
+				return LazyPacket.parse("<" + name + "/>");
+			}
+		});
+	}
+
+	@Test
+	public void shouldReadNamesAttributesAndChildren() {
+		final IPacket body = LazyPacket.parse("<?xml version='1.0'?><body xmlns='http://jabber.org/protocol/httpbind' sid=\"s&amp;1\">"
+				+ "<message from='a@host' type='chat'><body>hi &lt;3</body></message>\n<presence from='b@host'><show>away</show></presence></body>");
+		assertEquals("body", body.getName());
+		assertEquals("s&1", body.getAttribute("sid"));
+		assertEquals("http://jabber.org/protocol/httpbind", body.getAttribute("xmlns"));
+
+		final List<? extends IPacket> stanzas = body.getChildren();
+		assertEquals(2, stanzas.size());
+		assertEquals("message", stanzas.get(0).getName());
+		assertEquals("chat", stanzas.get(0).getAttribute("type"));
+		assertEquals("hi <3", stanzas.get(0).getFirstChild("body").getText());
+		assertEquals("away", stanzas.get(1).getFirstChild("show").getText());
+		assertSame(stanzas.get(1), body.getChildren().get(1));
+	}
+
+	@Test
+	public void shouldHandleSelfClosingAndPrefixedElements() {
+		final IPacket body = LazyPacket.parse("<body><stream:features xmlns:stream='http://etherx.jabber.org/streams'>"
+				+ "<bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/><session /></stream:features></body>");
+		final IPacket features = body.getFirstChild("stream:features");
+		assertEquals(2, features.getChildrenCount());
+		assertEquals("urn:ietf:params:xml:ns:xmpp-bind", features.getFirstChild("bind").getAttribute("xmlns"));
+		assertEquals(0, features.getFirstChild("session").getAttributes().size());
+	}
+
+	@Test
+	public void shouldReadCDataAndSkipComments() {
+		final IPacket message = LazyPacket.parse("<message><body><![CDATA[1 < 2]]> is <!-- not --> true</body></message>");
+		assertEquals("1 < 2 is  true", message.getFirstChild("body").getText());
+	}
+
+	@Test
+	public void shouldKeepTheTextAroundChildElements() {
+		final IPacket message = LazyPacket.parse("<message><body>hi <b>you</b> &amp; <i/>bye</body>\n <x/>\n</message>");
+		final IPacket body = message.getFirstChild("body");
+		assertEquals("hi  & bye", body.getText());
+		assertEquals("you", body.getFirstChild("b").getText());
+		assertNull(message.getText());
+		assertEquals("<message><body>hi <b>you</b> &amp; <i />bye</body><x /></message>", message.toString());
+	}
+
+	@Test
+	public void shouldRenderLikeAPacket() {
+		final IPacket presence = LazyPacket.parse("<presence from='a@host' type='unavailable'><status>bye &amp; see you</status></presence>");
+		presence.setAttribute("to", "b@host");
+		assertEquals("<presence from=\"a@host\" type=\"unavailable\" to=\"b@host\"><status>bye &amp; see you</status></presence>", presence.toString());
+	}
+
+	@Test
+	public void shouldRejectMalformedXml() {
+		assertNull(LazyPacket.parse("<body><message></body>"));
+		assertNull(LazyPacket.parse("<body>"));
+		assertNull(LazyPacket.parse("<a/><b/>"));
+		assertNull(LazyPacket.parse("not xml"));
+		assertNull(LazyPacket.parse("<body attr='unclosed></body>"));
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Compares the memory used by a big roster result built with {@link Packet}
+ * and with the previous layout (a HashMap of attributes and an ArrayList of
+ * children per node, even for text nodes). It's not a unit test: run it with
+ * <code>-Xmx512m</code> (or similar) from the test classpath.
+ */
+public class PacketMemoryBenchmark {
+
+	/**
+	 * The previous packet layout
+	 */
+	static class LegacyPacket {
+		final HashMap<String, String> attributes = new HashMap<String, String>();
+		final ArrayList<LegacyPacket> children = new ArrayList<LegacyPacket>();
+		final String name;
+
+		LegacyPacket(final String name) {
+			this.name = name;
+		}
+
+		LegacyPacket addChild(final String name) {
+			final LegacyPacket child = new LegacyPacket(name);
+			children.add(child);
+			return child;
+		}
+
+		void setText(final String text) {
+			children.clear();
+			children.add(new LegacyText(text));
+		}
+	}
+
+	static class LegacyText extends LegacyPacket {
+		final String value;
+
+		LegacyText(final String value) {
+			super(null);
+			this.value = value;
+		}
+	}
+
+	private static final int ITEMS = 5000;
+	private static final int ROUNDS = 5;
+
+	public static void main(final String[] args) {
+		final String[] jids = new String[ITEMS];
+		final String[] names = new String[ITEMS];
+		for (int i = 0; i < ITEMS; i++) {
+			jids[i] = "user" + i + "@example.com";
+			names[i] = "User " + i;
+		}
+
+		for (int round = 0; round < ROUNDS; round++) {
+			final long before = usedMemory();
+			final Object legacy = buildLegacy(jids, names);
+			final long legacyBytes = usedMemory() - before;
+			keep(legacy);
+
+			final long middle = usedMemory();
+			final Object compact = buildCompact(jids, names);
+			final long compactBytes = usedMemory() - middle;
+			keep(compact);
+
+			System.out.println("Round " + round + ": legacy " + legacyBytes / 1024 + "KB, compact " + compactBytes / 1024 + "KB ("
+					+ (100 - compactBytes * 100 / legacyBytes) + "% less)");
+		}
+	}
+
+	/**
+	 * A roster result: every item with three attributes and a group, and a
+	 * presence with show and priority
+	 */
+	private static IPacket buildCompact(final String[] jids, final String[] names) {
+		final Packet iq = new Packet("iq");
+		iq.setAttribute("type", "result");
+		final IPacket query = iq.addChild("query", "jabber:iq:roster");
+		for (int i = 0; i < jids.length; i++) {
+			final IPacket item = query.addChild("item");
+			item.setAttribute("jid", jids[i]);
+			item.setAttribute("name", names[i]);
+			item.setAttribute("subscription", "both");
+			item.addChild("group").setText("Friends");
+			final IPacket presence = query.addChild("presence");
+			presence.setAttribute("from", jids[i]);
+			presence.addChild("show").setText("away");
+			presence.addChild("priority").setText("1");
+		}
+		return iq;
+	}
+
+	private static LegacyPacket buildLegacy(final String[] jids, final String[] names) {
+		final LegacyPacket iq = new LegacyPacket("iq");
+		iq.attributes.put("type", "result");
+		final LegacyPacket query = iq.addChild("query");
+		query.attributes.put("xmlns", "jabber:iq:roster");
+		for (int i = 0; i < jids.length; i++) {
+			final LegacyPacket item = query.addChild("item");
+			item.attributes.put("jid", jids[i]);
+			item.attributes.put("name", names[i]);
+			item.attributes.put("subscription", "both");
+			item.addChild("group").setText("Friends");
+			final LegacyPacket presence = query.addChild("presence");
+			presence.attributes.put("from", jids[i]);
+			presence.addChild("show").setText("away");
+			presence.addChild("priority").setText("1");
+		}
+		return iq;
+	}
+
+	private static Object kept;
+
+	private static void keep(final Object tree) {
+		kept = tree;
+		kept = null;
+	}
+
+	private static long usedMemory() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PacketQueryTest {
+
+	private Packet presence;
+
+	@Before
+	public void beforeTests() {
+		presence = new Packet("presence");
+		presence.addChild("x", "vcard-temp:x:update").addChild("photo", null).setText("hash");
+		final IPacket x = presence.addChild("x", "http://jabber.org/protocol/muc#user");
+		x.addChild("item", null).With("affiliation", "none").With("role", "participant");
+		x.addChild("item", null).With("affiliation", "owner").With("role", "moderator").With("jid", "owner@host/res");
+		x.addChild("status", null).With("code", "110");
+		x.addChild("status", null).With("code", "201");
+	}
+
+	@Test
+	public void shouldCacheCompiledQueries() {
+		assertSame(PacketQuery.compile("x/item"), PacketQuery.compile("x/item"));
+	}
+
+	@Test
+	public void shouldSelectByNameAndNamespace() {
+		assertEquals(2, PacketQuery.compile("x").selectAll(presence).size());
+		final IPacket x = PacketQuery.compile("{http://jabber.org/protocol/muc#user}x").selectFirst(presence);
+		assertEquals("http://jabber.org/protocol/muc#user", x.getAttribute("xmlns"));
+		assertEquals(5, PacketQuery.compile("x/*").selectAll(presence).size());
+		assertEquals(1, PacketQuery.compile("{vcard-temp:x:update}*").selectAll(presence).size());
+		assertSame(NoPacket.INSTANCE, PacketQuery.compile("{other}x").selectFirst(presence));
+	}
+
+	@Test
+	public void shouldSearchAllTheBranches() {
+		// the first x has no items
+		final List<IPacket> items = PacketQuery.compile("x/item").selectAll(presence);
+		assertEquals(2, items.size());
+		assertEquals("none", items.get(0).getAttribute("affiliation"));
+		assertEquals("none", PacketQuery.compile("x/item").selectFirst(presence).getAttribute("affiliation"));
+	}
+
+	@Test
+	public void shouldFilterByAttributePredicates() {
+		assertEquals("owner", PacketQuery.compile("x/item[@role='moderator']").selectFirst(presence).getAttribute("affiliation"));
+		assertEquals("owner", PacketQuery.compile("x/item[@jid][@role=\"moderator\"]").selectFirst(presence).getAttribute("affiliation"));
+		assertTrue(PacketQuery.compile("x/status[@code='201']").matches(presence));
+		assertFalse(PacketQuery.compile("x/status[@code='100']").matches(presence));
+	}
+
+	@Test
+	public void shouldSelectAttributesAndText() {
+		assertEquals("owner@host/res", PacketQuery.compile("x/item/@jid").value(presence));
+		assertEquals("hash", PacketQuery.compile("/x/photo/text()").value(presence));
+		assertEquals("hash", PacketQuery.compile("x/photo").value(presence));
+		assertNull(PacketQuery.compile("x/item/@other").value(presence));
+		assertEquals(1, PacketQuery.compile("x/item/@jid").selectAll(presence).size());
+	}
+
+	@Test
+	public void shouldRejectInvalidQueries() {
+		for (final String expression : new String[] { "", "/", "x/", "@jid", "x/@jid/item", "{ns", "x[@a", "x[a='b']", "x[@a=b]", "x[@]", "x//y" }) {
+			try {
+				PacketQuery.compile(expression);
+				fail("Expected invalid query: " + expression);
+			} catch (final IllegalArgumentException e) {
+			}
+		}
+	}
+}
@@ -24,6 +24,8 @@ import static org.junit.Assert.assertEquals;
 
 import org.junit.Test;
 
+import com.calclab.emite.core.client.xmpp.stanzas.Message;
+
 /**
  * @author Ash
  * 
@@ -56,4 +58,40 @@ public class PacketRendererTest {
 				"<test attr=\"&quot;&lt;&amp;&gt;&#39;\"><child /><childWithText>&quot;&lt;&amp;&gt;&#39;</childWithText></test>", result);
 	}
 
+	@Test
+	public void shouldRenderAtTheEndOfTheBuilder() {
+		final StringBuilder builder = new StringBuilder("<body>");
+		final Packet message = new Packet("message");
+		message.setAttribute("to", "me@host");
+		message.setTextToChild("body", "hi & bye");
+		PacketRenderer.render(message, builder);
+		assertEquals("<body><message to=\"me@host\"><body>hi &amp; bye</body></message>", builder.toString());
+
+		builder.setLength(0);
+		PacketRenderer.render(new Packet("presence"), builder);
+		assertEquals("<presence />", builder.toString());
+	}
+
+	@Test
+	public void shouldRenderDelegatedPackets() {
+		final Packet presence = new Packet("presence");
+		presence.setAttribute("type", "unavailable");
+		final DelegatedPacket delegated = new DelegatedPacket(presence);
+		assertEquals("<presence type=\"unavailable\" />", PacketRenderer.toString(delegated));
+	}
+
+	@Test
+	public void shouldRenderReceivedPacketsWithoutTheirToString() {
+		// like a native DOM overlay, that can't override toString
+		final Packet received = new Packet("message") {
+			@Override
+			public String toString() {
+				return "[object Element]";
+			}
+		};
+		received.setAttribute("from", "a@host");
+		received.setTextToChild("body", "hi");
+		assertEquals("<message from=\"a@host\"><body>hi</body></message>", new Message(received).toString());
+	}
+
 }
@@ -0,0 +1,60 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class PacketSymbolsTest {
+
+	@Test
+	public void shouldInternCoreSymbols() {
+		assertSame("presence", PacketSymbols.intern(new String("presence")));
+		assertSame("jabber:iq:roster", PacketSymbols.intern(new String("jabber:iq:roster")));
+		assertNull(PacketSymbols.intern(null));
+	}
+
+	@Test
+	public void shouldInternParsedNamesAndNamespaces() {
+		final IPacket first = LazyPacket.parse("<iq from='a@host'><query xmlns='jabber:iq:roster'/></iq>");
+		final IPacket second = LazyPacket.parse("<iq from='b@host'><query xmlns='jabber:iq:roster'/></iq>");
+		assertSame(first.getName(), second.getName());
+		assertSame("jabber:iq:roster", second.getFirstChild("query").getAttribute("xmlns"));
+		assertSame(((Packet) first).getAttributeName(0), ((Packet) second).getAttributeName(0));
+	}
+
+	@Test
+	public void shouldBoundThePool() {
+		for (int i = 0; i <= PacketSymbols.MAX_SYMBOLS; i++) {
+			PacketSymbols.intern("filler-" + i);
+		}
+		assertSame("message", PacketSymbols.intern(new String("message")));
+		final String other = "other-test-" + System.identityHashCode(this);
+		final String notInterned = new String(other);
+		assertSame(notInterned, PacketSymbols.intern(notInterned));
+		assertNotSame(notInterned, PacketSymbols.intern(new String(other)));
+		assertEquals(other, PacketSymbols.intern(other));
+	}
+}
@@ -20,6 +20,12 @@
 
 package com.calclab.emite.core.client.packet;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 public class PacketTest {
@@ -33,4 +39,82 @@ public class PacketTest {
 		});
 	}
 
+	@Test
+	public void shouldKeepAttributesInInsertionOrder() {
+		final Packet packet = new Packet("presence");
+		packet.setAttribute("from", "me@host");
+		packet.setAttribute("to", "you@host");
+		packet.setAttribute("type", "unavailable");
+		packet.setAttribute("to", "other@host");
+		assertEquals("<presence from=\"me@host\" to=\"other@host\" type=\"unavailable\" />", packet.toString());
+	}
+
+	@Test
+	public void shouldRemoveAttributeWhenValueIsNull() {
+		final Packet packet = new Packet("message");
+		packet.setAttribute("id", "1");
+		packet.setAttribute("type", "chat");
+		packet.setAttribute("id", null);
+		assertFalse(packet.hasAttribute("id"));
+		assertNull(packet.getAttribute("id"));
+		assertEquals(1, packet.getAttributes().size());
+		assertEquals("chat", packet.getAttribute("type"));
+	}
+
+	@Test
+	public void shouldNotChangePacketThroughAttributesCopy() {
+		final Packet packet = new Packet("message");
+		packet.getAttributes().put("id", "1");
+		assertFalse(packet.hasAttribute("id"));
+	}
+
+	@Test
+	public void shouldCreateChildrenOnlyWhenNeeded() {
+		final Packet packet = new Packet("show");
+		assertTrue(packet.getChildren().isEmpty());
+		assertFalse(packet.removeChild(new Packet("other")));
+		packet.setText("away");
+		assertEquals(1, packet.getChildrenCount());
+		assertEquals("away", packet.getText());
+		packet.setText(null);
+		assertEquals(0, packet.getChildrenCount());
+		assertNull(packet.getText());
+	}
+
+	@Test
+	public void shouldFindIndexedChildrenByNameAndNamespace() {
+		final Packet query = new Packet("query");
+		for (int i = 0; i < 6; i++) {
+			query.addChild("item", null).setAttribute("jid", "user" + i + "@host");
+		}
+		final IPacket x = query.addChild("x", "jabber:x:data");
+		query.addChild("x", "vcard-temp:x:update");
+		assertEquals(6, query.getChildren("item").size());
+		assertEquals("user0@host", query.getFirstChild("item").getAttribute("jid"));
+		assertSame(x, query.getFirstChild(MatcherFactory.byNameAndXMLNS("x", "jabber:x:data")));
+		assertEquals(1, query.getChildren(MatcherFactory.byNameAndXMLNS("x", "vcard-temp:x:update")).size());
+		assertSame(NoPacket.INSTANCE, query.getFirstChild("other"));
+		assertFalse(query.hasChild("other"));
+	}
+
+	@Test
+	public void shouldUpdateChildIndexWhenChildrenChange() {
+		final Packet query = new Packet("query");
+		for (int i = 0; i < 6; i++) {
+			query.addChild("item", null);
+		}
+		assertFalse(query.hasChild("group"));
+		final IPacket group = query.addChild("group", null);
+		assertSame(group, query.getFirstChild("group"));
+		query.removeChild(group);
+		assertFalse(query.hasChild("group"));
+		final Packet other = new Packet("group");
+		query.addChild(other);
+		assertSame(other, query.getFirstChild("group"));
+		query.getFirstChild("item").setAttribute("xmlns", "jabber:iq:roster");
+		assertEquals(1, query.getChildren(MatcherFactory.byNameAndXMLNS("item", "jabber:iq:roster")).size());
+		query.setText("text");
+		assertFalse(query.hasChild("item"));
+	}
+
 }
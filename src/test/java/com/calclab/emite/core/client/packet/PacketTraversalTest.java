@@ -0,0 +1,129 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.calclab.emite.core.client.packet.PacketTraversal.Order;
+
+public class PacketTraversalTest {
+
+	private Packet root;
+
+	@Before
+	public void beforeTests() {
+		root = new Packet("a");
+		final IPacket b = root.addChild("b", null);
+		b.addChild("d", null).addChild("f", null);
+		root.addChild("c", null).addChild("e", null);
+	}
+
+	@Test
+	public void shouldVisitInBreadthFirstOrder() {
+		assertEquals("a0 b1 c1 d2 e2 f3 ", visitAll(new PacketTraversal(Order.bfs)));
+	}
+
+	@Test
+	public void shouldVisitInDepthFirstOrder() {
+		assertEquals("a0 b1 d2 f3 c1 e2 ", visitAll(new PacketTraversal(Order.dfs)));
+	}
+
+	@Test
+	public void shouldFindFromInsideAnotherFind() {
+		final PacketMatcher nested = new PacketMatcher() {
+			@Override
+			public boolean matches(final IPacket packet) {
+				return packet.getFirstChildInDeep(MatcherFactory.byName("f")) != NoPacket.INSTANCE && !"a".equals(packet.getName());
+			}
+		};
+		assertEquals("b", root.getFirstChildInDeep(nested).getName());
+		assertEquals("e", root.getFirstChildInDeep(MatcherFactory.byName("e")).getName());
+		assertSame(NoPacket.INSTANCE, root.getFirstChildInDeep(MatcherFactory.byName("g")));
+	}
+
+	@Test
+	public void shouldLimitTheDepth() {
+		assertEquals("a0 b1 c1 ", visitAll(new PacketTraversal(Order.bfs, 1)));
+		assertEquals("a0 b1 d2 c1 e2 ", visitAll(new PacketTraversal(Order.dfs, 2)));
+		assertEquals("a0 ", visitAll(new PacketTraversal(Order.dfs, 0)));
+	}
+
+	@Test
+	public void shouldStopWhenVisitorSaysSo() {
+		final StringBuilder visited = new StringBuilder();
+		final boolean completed = new PacketTraversal(Order.dfs).traverse(root, new PacketVisitor() {
+			@Override
+			public boolean visit(final IPacket packet, final int depth) {
+				visited.append(packet.getName());
+				return !"d".equals(packet.getName());
+			}
+		});
+		assertFalse(completed);
+		assertEquals("abd", visited.toString());
+	}
+
+	@Test
+	public void shouldBeReusable() {
+		final PacketTraversal traversal = new PacketTraversal(Order.bfs);
+		assertSame(root.getFirstChild("c"), traversal.find(root, MatcherFactory.byName("c")));
+		assertSame(NoPacket.INSTANCE, traversal.find(root, MatcherFactory.byName("x")));
+		assertEquals("a0 b1 c1 d2 e2 f3 ", visitAll(traversal));
+	}
+
+	@Test
+	public void shouldSearchDeepTreesWithoutRecursion() {
+		final Packet deep = new Packet("root");
+		IPacket current = deep;
+		for (int i = 0; i < 20000; i++) {
+			current = current.addChild("node", null);
+		}
+		current.addChild("x", "urn:test");
+		for (int i = 0; i < 100; i++) {
+			deep.addChild("sibling", null);
+		}
+		assertEquals("urn:test", deep.getFirstChildInDeep(MatcherFactory.byNameAndXMLNS("x", "urn:test")).getAttribute("xmlns"));
+		assertSame(NoPacket.INSTANCE, PacketTraversal.find(deep, MatcherFactory.byName("x"), Order.dfs, 100));
+		assertTrue(new PacketTraversal(Order.bfs).traverse(deep, new PacketVisitor() {
+			@Override
+			public boolean visit(final IPacket packet, final int depth) {
+				return true;
+			}
+		}));
+	}
+
+	private String visitAll(final PacketTraversal traversal) {
+		final StringBuilder visited = new StringBuilder();
+		assertTrue(traversal.traverse(root, new PacketVisitor() {
+			@Override
+			public boolean visit(final IPacket packet, final int depth) {
+				visited.append(packet.getName()).append(depth).append(' ');
+				return true;
+			}
+		}));
+		return visited.toString();
+	}
+}
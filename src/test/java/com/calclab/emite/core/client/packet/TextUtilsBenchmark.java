@@ -0,0 +1,119 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet;
+
+import java.util.Random;
+
+/**
+ * Compares the single scan escaper and unescaper of {@link TextUtils} with the
+ * previous chain of replacements (one pass per entity) on typical chat bodies
+ * and on a large base64 avatar. It's not a unit test: run it from the test
+ * classpath.
+ */
+public class TextUtilsBenchmark {
+
+	private static final int ITERATIONS = 20000;
+	private static final int ROUNDS = 5;
+
+	private static final String[] ENTITIES = { "&amp;", "&lt;", "&gt;", "&quot;", "&#39;" };
+	private static final String[] CHARS = { "&", "<", ">", "\"", "'" };
+
+	public static void main(final String[] args) {
+		final String chat = "Hey, are we still on for lunch? I'll be there at 12 :) Tom said \"maybe\" & Ann <3";
+		final String plainChat = "ok see you there";
+		final String avatar = createAvatar(16 * 1024);
+
+		for (int round = 0; round < ROUNDS; round++) {
+			System.out.println("Round " + round);
+			compare("chat body", chat);
+			compare("plain chat body", plainChat);
+			compare("base64 avatar", avatar);
+		}
+	}
+
+	private static void compare(final String name, final String text) {
+		final String escaped = TextUtils.escape(text);
+		int sink = 0;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			sink += legacyEscape(text).length();
+		}
+		final long legacyEscape = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			sink += TextUtils.escape(text).length();
+		}
+		final long escape = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			sink += legacyUnescape(escaped).length();
+		}
+		final long legacyUnescape = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			sink += TextUtils.unescape(escaped).length();
+		}
+		final long unescape = System.nanoTime() - start;
+
+		System.out.println("  " + name + " (" + text.length() + " chars): escape " + perCall(legacyEscape) + " -> " + perCall(escape)
+				+ ", unescape " + perCall(legacyUnescape) + " -> " + perCall(unescape) + " [" + sink + "]");
+	}
+
+	private static String createAvatar(final int length) {
+		final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		final Random random = new Random(42);
+		final StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * The previous escaper: one replacement pass per entity
+	 */
+	private static String legacyEscape(String source) {
+		for (int i = 0; i < CHARS.length; i++) {
+			if (source.indexOf(CHARS[i]) != -1) {
+				source = source.replaceAll(CHARS[i], ENTITIES[i]);
+			}
+		}
+		return source;
+	}
+
+	/**
+	 * The previous unescaper: one replacement pass per entity
+	 */
+	private static String legacyUnescape(String source) {
+		for (int i = 0; i < ENTITIES.length; i++) {
+			if (source.indexOf(ENTITIES[i]) != -1) {
+				source = source.replaceAll(ENTITIES[i], CHARS[i]);
+			}
+		}
+		return source;
+	}
+
+	private static String perCall(final long nanos) {
+		return nanos / ITERATIONS + "ns";
+	}
+}
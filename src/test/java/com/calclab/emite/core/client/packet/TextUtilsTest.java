@@ -20,12 +20,48 @@
 
 package com.calclab.emite.core.client.packet;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
 public class TextUtilsTest {
 
+	@Test
+	public void shouldEscapeInOneScan() {
+		assertEquals("a&lt;b&gt; &amp; &quot;c&quot; &#39;d&#39;", TextUtils.escape("a<b> & \"c\" 'd'"));
+	}
+
+	@Test
+	public void shouldReturnTheSameInstanceWhenNothingChanges() {
+		final String text = "Nothing to escape here";
+		assertSame(text, TextUtils.escape(text));
+		assertSame(text, TextUtils.unescape(text));
+		final String unknown = "fish &chips; & more";
+		assertSame(unknown, TextUtils.unescape(unknown));
+	}
+
+	@Test
+	public void shouldUnescapeEntitiesOnce() {
+		assertEquals("a<b> & \"c\" 'd' 'e'", TextUtils.unescape("a&lt;b&gt; &amp; &quot;c&quot; &#39;d&#39; &apos;e&apos;"));
+		assertEquals("&lt;", TextUtils.unescape("&amp;lt;"));
+	}
+
+	@Test
+	public void shouldUnescapeNumericCharacterReferences() {
+		assertEquals("\u00e9t\u00e9", TextUtils.unescape("&#233;t&#xE9;"));
+		assertEquals("\ud83d\ude00", TextUtils.unescape("&#x1F600;"));
+		assertEquals("&#xZZ; &#; &#x110000;", TextUtils.unescape("&#xZZ; &#; &#x110000;"));
+	}
+
+	@Test
+	public void shouldEscapeIntoBuilder() {
+		final StringBuilder builder = new StringBuilder("prefix:");
+		TextUtils.escape("a<b> & \"c\" 'd'", builder);
+		assertEquals("prefix:a&lt;b&gt; &amp; &quot;c&quot; &#39;d&#39;", builder.toString());
+	}
+
 	@Test
 	public void matchDemoEmail() {
 		final String email = "test100@emitedemo.ourproject.org";
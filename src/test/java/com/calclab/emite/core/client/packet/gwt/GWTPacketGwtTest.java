@@ -0,0 +1,93 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet.gwt;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.services.gwt.GWTXMLService;
+import com.google.gwt.junit.client.GWTTestCase;
+
+public class GWTPacketGwtTest extends GWTTestCase {
+
+	private static final String PRESENCE = "<presence from='room@conference.host/nick' to='me@host/res'>"
+			+ "<show>away</show><status>out</status><priority>1</priority>" + "<x xmlns='vcard-temp:x:update'><photo>hash</photo></x>"
+			+ "<x xmlns='http://jabber.org/protocol/muc#user'><item affiliation='none' role='participant'/></x></presence>";
+
+	@Override
+	public String getModuleName() {
+		return "com.calclab.emite.core.EmiteCore";
+	}
+
+	@Test
+	public void testShouldWrapEachNodeOncePerStanza() {
+		final IPacket presence = GWTXMLService.toXML(PRESENCE);
+		final IdentityHashMap<IPacket, Boolean> wrappers = new IdentityHashMap<IPacket, Boolean>();
+		// the handlers of roster, presence, muc, avatar and subscription
+		for (int handler = 0; handler < 5; handler++) {
+			inspect(presence, wrappers);
+		}
+		assertEquals("One wrapper per element", 8, wrappers.size());
+	}
+
+	@Test
+	public void testShouldReuseParentWrapper() {
+		final IPacket presence = GWTXMLService.toXML(PRESENCE);
+		final GWTPacket show = (GWTPacket) presence.getFirstChild("show");
+		assertSame(presence, show.getParent());
+		final GWTPacket photo = (GWTPacket) presence.getChildren().get(3).getFirstChild("photo");
+		assertSame(photo.getParent(), photo.getParent());
+	}
+
+	@Test
+	public void testShouldUpdateCachesOnMutation() {
+		final IPacket presence = GWTXMLService.toXML(PRESENCE);
+		assertEquals(5, presence.getChildren().size());
+		final IPacket added = presence.addChild("nick", null);
+		assertEquals(6, presence.getChildren().size());
+		assertSame(added, presence.getFirstChild("nick"));
+		assertTrue(presence.removeChild(presence.getFirstChild("status")));
+		assertEquals(5, presence.getChildren().size());
+		assertFalse(presence.hasChild("status"));
+
+		assertEquals("me@host/res", presence.getAttribute("to"));
+		presence.setAttribute("to", "other@host");
+		presence.setAttribute("type", "unavailable");
+		assertEquals("other@host", presence.getAttribute("to"));
+		assertEquals(3, presence.getAttributes().size());
+		presence.setAttribute("type", null);
+		assertNull(presence.getAttribute("type"));
+	}
+
+	private void inspect(final IPacket packet, final IdentityHashMap<IPacket, Boolean> wrappers) {
+		wrappers.put(packet, Boolean.TRUE);
+		final List<? extends IPacket> children = packet.getChildren();
+		for (final IPacket child : children) {
+			child.getAttribute("xmlns");
+			wrappers.put(((GWTPacket) child).getParent(), Boolean.TRUE);
+			inspect(child, wrappers);
+		}
+		packet.getFirstChild("x");
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.packet.gwt;
+
+import org.junit.Test;
+
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.MatcherFactory;
+import com.calclab.emite.core.client.packet.NoPacket;
+import com.calclab.emite.core.client.packet.Packet;
+import com.calclab.emite.core.client.packet.PacketRenderer;
+import com.calclab.emite.core.client.xmpp.stanzas.Message;
+import com.google.gwt.junit.client.GWTTestCase;
+
+public class NativePacketGwtTest extends GWTTestCase {
+
+	@Override
+	public String getModuleName() {
+		return "com.calclab.emite.core.EmiteCore";
+	}
+
+	@Test
+	public void testShouldReadNativeElements() {
+		final NativePacket message = NativePacket.parse("<message from='a@host' type='chat'><body>&lt;hi&gt;</body>"
+				+ "<x xmlns='jabber:x:data'><field var='a'/></x></message>");
+		assertEquals("message", message.getName());
+		assertEquals("a@host", message.getAttribute("from"));
+		assertNull(message.getAttribute("to"));
+		assertEquals(2, message.getAttributes().size());
+		assertEquals(2, message.getChildren().size());
+		assertEquals("<hi>", message.getFirstChild("body").getText());
+		assertSame(message, ((NativePacket) message.getFirstChild("body")).getParent());
+		assertEquals("a", message.getFirstChild(MatcherFactory.byNameAndXMLNS("x", "jabber:x:data")).getFirstChild("field").getAttribute("var"));
+		assertEquals("field", message.getFirstChildInDeep("field").getName());
+		assertSame(NoPacket.INSTANCE, message.getFirstChild("subject"));
+	}
+
+	@Test
+	public void testShouldChangeNativeElements() {
+		final NativePacket iq = NativePacket.parse("<iq type='result'/>");
+		final IPacket query = iq.addChild("query", "jabber:iq:roster");
+		query.setAttribute("ver", "1");
+		iq.addChild(new Packet("error").With("code", "404"));
+		iq.setTextToChild("status", "a&b");
+		assertEquals("<iq type=\"result\"><query xmlns=\"jabber:iq:roster\" ver=\"1\" /><error code=\"404\" />"
+				+ "<status>a&amp;b</status></iq>", PacketRenderer.toString(iq));
+		assertTrue(iq.removeChild(query));
+		assertFalse(iq.removeChild(query));
+		iq.setAttribute("type", null);
+		assertFalse(iq.hasAttribute("type"));
+	}
+
+	@Test
+	public void testShouldRenderReceivedStanzas() {
+		final Message message = new Message(NativePacket.parse("<message from='a@host'><body>a &amp; b</body></message>"));
+		assertEquals("<message from=\"a@host\"><body>a &amp; b</body></message>", message.toString());
+	}
+
+	@Test
+	public void testShouldNotParseInvalidXml() {
+		assertNull(NativePacket.parse("<message><body></message>"));
+	}
+}
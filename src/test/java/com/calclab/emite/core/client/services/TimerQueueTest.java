@@ -0,0 +1,91 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class TimerQueueTest {
+
+	private static class Recorder {
+		final ArrayList<String> runs = new ArrayList<String>();
+
+		ScheduledAction action(final String name) {
+			return new ScheduledAction() {
+				@Override
+				public void run() {
+					runs.add(name);
+				}
+			};
+		}
+	}
+
+	@Test
+	public void shouldRunDueActionsInOrder() {
+		final TimerQueue queue = new TimerQueue();
+		final Recorder recorder = new Recorder();
+		queue.add(300, recorder.action("c"));
+		queue.add(100, recorder.action("a"));
+		queue.add(200, recorder.action("b"));
+		queue.add(100, recorder.action("a2"));
+		assertEquals(100, queue.getNextDue());
+		assertEquals(3, queue.runDue(200));
+		assertEquals("a", recorder.runs.get(0));
+		assertEquals("a2", recorder.runs.get(1));
+		assertEquals("b", recorder.runs.get(2));
+		assertEquals(300, queue.getNextDue());
+	}
+
+	@Test
+	public void shouldNotRunCanceledActions() {
+		final TimerQueue queue = new TimerQueue();
+		final Recorder recorder = new Recorder();
+		final TimerHandle handle = queue.add(100, recorder.action("a"));
+		assertTrue(handle.isPending());
+		assertTrue(handle.cancel());
+		assertFalse(handle.cancel());
+		assertFalse(handle.isPending());
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.runDue(100));
+		assertEquals(-1, queue.getNextDue());
+	}
+
+	@Test
+	public void shouldAllowActionsToCancelOtherDueActions() {
+		final TimerQueue queue = new TimerQueue();
+		final Recorder recorder = new Recorder();
+		final TimerHandle[] second = new TimerHandle[1];
+		queue.add(100, new ScheduledAction() {
+			@Override
+			public void run() {
+				second[0].cancel();
+			}
+		});
+		second[0] = queue.add(100, recorder.action("second"));
+		assertEquals(1, queue.runDue(100));
+		assertTrue(recorder.runs.isEmpty());
+	}
+}
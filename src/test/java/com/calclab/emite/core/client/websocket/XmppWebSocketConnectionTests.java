@@ -0,0 +1,157 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.client.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.calclab.emite.core.client.conn.ConnectionSettings;
+import com.calclab.emite.core.client.conn.ConnectionStateChangedEvent;
+import com.calclab.emite.core.client.conn.ConnectionStateChangedEvent.ConnectionState;
+import com.calclab.emite.core.client.conn.ConnectionStateChangedHandler;
+import com.calclab.emite.core.client.conn.StanzaEvent;
+import com.calclab.emite.core.client.conn.StanzaHandler;
+import com.calclab.emite.core.client.events.EmiteEventBus;
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.Packet;
+import com.calclab.emite.xtesting.EmiteTestsEventBus;
+import com.calclab.emite.xtesting.ServicesTester;
+import com.calclab.emite.xtesting.WebSocketConnectorTester;
+
+public class XmppWebSocketConnectionTests {
+
+	private static final String SERVER_OPEN = "<open xmlns='urn:ietf:params:xml:ns:xmpp-framing' from='localhost' id='stream-1' version='1.0' />";
+
+	private final WebSocketConnectorTester connector;
+	private final XmppWebSocketConnection connection;
+
+	public XmppWebSocketConnectionTests() {
+		final EmiteEventBus eventBus = EmiteTestsEventBus.create("et");
+		connector = new WebSocketConnectorTester();
+		connection = new XmppWebSocketConnection(eventBus, new ServicesTester(), connector);
+		connection.setSettings(new ConnectionSettings("ws://localhost/xmpp", "localhost"));
+	}
+
+	@Test
+	public void shouldOpenTheStreamWhenSocketIsOpen() {
+		connection.connect();
+		assertEquals("ws://localhost/xmpp", connector.url);
+		assertEquals(XmppWebSocketConnection.PROTOCOL, connector.protocol);
+		assertTrue(connector.frames.isEmpty());
+		connector.callback.onOpen();
+		assertEquals(1, connector.frames.size());
+		final String open = connector.getLastFrame();
+		assertTrue(open.contains("<open"));
+		assertTrue(open.contains(XmppWebSocketConnection.FRAMING_XMLNS));
+		assertTrue(open.contains("to=\"localhost\""));
+	}
+
+	@Test
+	public void shouldBeConnectedWhenServerOpensTheStream() {
+		final StateCollector states = new StateCollector();
+		connection.addConnectionStateChangedHandler(states);
+		final StanzaCollector received = new StanzaCollector();
+		connection.addStanzaReceivedHandler(received);
+
+		open();
+		assertEquals(ConnectionState.connected, states.last);
+		assertEquals("stream-1", connection.getStreamSettings().sid);
+
+		connector.callback.onMessage("<message xmlns='jabber:client' to='me@localhost'><body>hi</body></message>");
+		assertNotNull(received.last);
+		assertEquals("message", received.last.getName());
+	}
+
+	@Test
+	public void shouldQueueStanzasUntilTheStreamIsRestarted() {
+		open();
+		final int sent = connector.frames.size();
+		connection.restartStream();
+		assertEquals(sent + 1, connector.frames.size());
+		final Packet iq = new Packet("iq");
+		connection.send(iq);
+		assertEquals(sent + 1, connector.frames.size());
+		connector.callback.onMessage(SERVER_OPEN);
+		assertEquals(sent + 2, connector.frames.size());
+		assertTrue(connector.getLastFrame().contains("jabber:client"));
+		assertFalse(iq.hasAttribute("xmlns"));
+	}
+
+	@Test
+	public void shouldSendCloseFrameOnDisconnect() {
+		final StateCollector states = new StateCollector();
+		connection.addConnectionStateChangedHandler(states);
+		open();
+		connection.disconnect();
+		assertTrue(connector.getLastFrame().contains("<close"));
+		assertTrue(connector.closed);
+		assertEquals(ConnectionState.disconnected, states.last);
+		assertFalse(connection.isConnected());
+	}
+
+	@Test
+	public void shouldDisconnectWhenServerClosesTheStream() {
+		final StateCollector states = new StateCollector();
+		connection.addConnectionStateChangedHandler(states);
+		open();
+		connector.callback.onMessage("<close xmlns='urn:ietf:params:xml:ns:xmpp-framing' />");
+		assertTrue(connector.closed);
+		assertEquals(ConnectionState.disconnected, states.last);
+	}
+
+	@Test
+	public void shouldNotifyErrorWhenSocketCantBeOpened() {
+		final StateCollector states = new StateCollector();
+		connection.addConnectionStateChangedHandler(states);
+		connector.setFailing(true);
+		connection.connect();
+		assertEquals(ConnectionState.error, states.last);
+		assertFalse(connection.isConnected());
+	}
+
+	private void open() {
+		connection.connect();
+		connector.callback.onOpen();
+		connector.callback.onMessage(SERVER_OPEN);
+	}
+
+	private static class StanzaCollector implements StanzaHandler {
+		IPacket last;
+
+		@Override
+		public void onStanza(final StanzaEvent event) {
+			last = event.getStanza();
+		}
+	}
+
+	private static class StateCollector implements ConnectionStateChangedHandler {
+		String last;
+
+		@Override
+		public void onStateChanged(final ConnectionStateChangedEvent event) {
+			last = event.getState();
+		}
+	}
+}
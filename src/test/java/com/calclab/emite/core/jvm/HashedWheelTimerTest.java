@@ -0,0 +1,101 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.jvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.calclab.emite.core.client.services.ScheduledAction;
+import com.calclab.emite.core.client.services.TimerHandle;
+
+public class HashedWheelTimerTest {
+
+	private final HashedWheelTimer timer = new HashedWheelTimer(5, 8, Executors.newSingleThreadExecutor(new DaemonThreadFactory("test")),
+			new DaemonThreadFactory("test-timer"));
+
+	@After
+	public void tearDown() {
+		timer.stop();
+	}
+
+	@Test
+	public void shouldRunActionsAfterSeveralRounds() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		final long start = System.currentTimeMillis();
+		timer.schedule(100, new ScheduledAction() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertEquals(1, timer.size());
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start >= 95);
+	}
+
+	@Test
+	public void shouldSleepUntilTheNextDeadline() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread.sleep(50);
+		// an empty wheel doesn't tick
+		assertTrue(timer.getWakeups() <= 1);
+		timer.schedule(200, new ScheduledAction() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		// 40 ticks of 5 milliseconds, but only a few wake ups
+		assertTrue(timer.getWakeups() < 10);
+	}
+
+	@Test
+	public void shouldNotRunCanceledActions() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		final boolean[] canceledRun = new boolean[1];
+		final TimerHandle handle = timer.schedule(20, new ScheduledAction() {
+			@Override
+			public void run() {
+				canceledRun[0] = true;
+			}
+		});
+		timer.schedule(60, new ScheduledAction() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue(handle.cancel());
+		assertFalse(handle.isPending());
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertFalse(canceledRun[0]);
+		assertEquals(0, timer.size());
+	}
+}
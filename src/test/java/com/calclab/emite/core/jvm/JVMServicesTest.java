@@ -0,0 +1,159 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.core.jvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.calclab.emite.core.client.packet.IPacket;
+import com.calclab.emite.core.client.packet.NoPacket;
+import com.calclab.emite.core.client.services.ConnectorCallback;
+import com.calclab.emite.core.client.services.ScheduledAction;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class JVMServicesTest {
+
+	private static class Callback implements ConnectorCallback {
+		final CountDownLatch done = new CountDownLatch(1);
+		int status;
+		String content;
+		Throwable error;
+		String thread;
+
+		@Override
+		public void onError(final String request, final Throwable throwable) {
+			error = throwable;
+			thread = Thread.currentThread().getName();
+			done.countDown();
+		}
+
+		@Override
+		public void onResponseReceived(final int statusCode, final String content, final String originalRequest) {
+			status = statusCode;
+			this.content = content;
+			thread = Thread.currentThread().getName();
+			done.countDown();
+		}
+	}
+
+	private HttpServer server;
+	private JVMServices services;
+	private String url;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/echo", new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				final InputStream input = exchange.getRequestBody();
+				final byte[] buffer = new byte[1024];
+				final StringBuilder body = new StringBuilder();
+				int count;
+				while ((count = input.read(buffer)) != -1) {
+					body.append(new String(buffer, 0, count, "UTF-8"));
+				}
+				final byte[] response = body.toString().getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, response.length);
+				final OutputStream output = exchange.getResponseBody();
+				output.write(response);
+				output.close();
+			}
+		});
+		server.createContext("/slow", new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				try {
+					Thread.sleep(2000);
+				} catch (final InterruptedException e) {
+				}
+				exchange.sendResponseHeaders(200, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort();
+		services = new JVMServices();
+	}
+
+	@After
+	public void tearDown() {
+		services.shutdown();
+		server.stop(0);
+	}
+
+	@Test
+	public void shouldDeliverResponsesInTheCallbackExecutor() throws Exception {
+		final Callback callback = new Callback();
+		services.send(url + "/echo", "<body rid='1' />", callback, 5000);
+		assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+		assertEquals(200, callback.status);
+		assertEquals("<body rid='1' />", callback.content);
+		assertTrue(callback.thread.startsWith("emite-callback"));
+	}
+
+	@Test
+	public void shouldHonorTheRequestTimeout() throws Exception {
+		final Callback callback = new Callback();
+		services.send(url + "/slow", "<body />", callback, 200);
+		assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+		assertNotNull(callback.error);
+	}
+
+	@Test
+	public void shouldRunScheduledActionsInTheCallbackExecutor() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		final String[] thread = new String[1];
+		services.schedule(10, new ScheduledAction() {
+			@Override
+			public void run() {
+				thread[0] = Thread.currentThread().getName();
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(thread[0].startsWith("emite-callback"));
+	}
+
+	@Test
+	public void shouldParseXml() {
+		final IPacket packet = services.toXML("<body sid='s1'><message to='a@b'><body>1 &lt; 2</body></message></body>");
+		assertEquals("body", packet.getName());
+		assertEquals("s1", packet.getAttribute("sid"));
+		assertEquals("1 < 2", packet.getFirstChild("message").getFirstChild("body").getText());
+		assertSame(NoPacket.INSTANCE, services.toXML("<body>"));
+	}
+}
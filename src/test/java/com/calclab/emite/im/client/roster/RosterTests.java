@@ -29,14 +29,20 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.calclab.emite.core.client.conn.StanzaBatchEvent;
+import com.calclab.emite.core.client.conn.StanzaBatchEvent.BatchStates;
 import com.calclab.emite.core.client.xmpp.stanzas.IQ;
 import com.calclab.emite.core.client.xmpp.stanzas.IQ.Type;
 import com.calclab.emite.core.client.xmpp.stanzas.Presence;
+import com.calclab.emite.im.client.roster.events.RosterItemChangedEvent;
+import com.calclab.emite.im.client.roster.events.RosterItemsChangedEvent;
+import com.calclab.emite.im.client.roster.events.RosterItemsChangedHandler;
 import com.calclab.emite.xtesting.XmppSessionTester;
 import com.calclab.emite.xtesting.handlers.RosterItemChangedTestHandler;
 import com.calclab.emite.xtesting.handlers.RosterRetrievedTestHandler;
@@ -105,6 +111,52 @@ public class RosterTests {
 		assertTrue(handler.isCalledOnce());
 	}
 
+	@Test
+	public void shouldBatchItemChangesOfTheSameResponse() {
+		session.receives("<iq type='set'><query xmlns='jabber:iq:roster'>" + "<item jid='friend@domain' name='MyFriend' /></query></iq>");
+		final RosterItemChangedTestHandler itemHandler = new RosterItemChangedTestHandler();
+		roster.addRosterItemChangedHandler(itemHandler);
+		final List<RosterItemsChangedEvent> events = new ArrayList<RosterItemsChangedEvent>();
+		roster.addRosterItemsChangedHandler(new RosterItemsChangedHandler() {
+			@Override
+			public void onRosterItemsChanged(final RosterItemsChangedEvent event) {
+				events.add(event);
+			}
+		});
+
+		session.getEventBus().fireEvent(new StanzaBatchEvent(BatchStates.started, 3));
+		session.receives("<iq type='set'><query xmlns='jabber:iq:roster'>" + "<item jid='other@domain' name='Other' /></query></iq>");
+		session.receives("<presence from='friend@domain/res' />");
+		session.receives("<presence from='other@domain/res' />");
+		assertEquals(0, events.size());
+		session.getEventBus().fireEvent(new StanzaBatchEvent(BatchStates.finished, 3));
+
+		assertEquals(3, itemHandler.getCalledTimes());
+		assertEquals(1, events.size());
+		final List<RosterItemChangedEvent> changes = events.get(0).getChanges();
+		assertEquals(2, changes.size());
+		assertEquals(uri("other@domain"), changes.get(0).getRosterItem().getJID());
+		assertTrue(changes.get(0).isAdded());
+		assertEquals(uri("friend@domain"), changes.get(1).getRosterItem().getJID());
+		assertTrue(changes.get(1).isModified());
+	}
+
+	@Test
+	public void shouldFireItemsChangedForEachChangeOutsideBatches() {
+		session.receives("<iq type='set'><query xmlns='jabber:iq:roster'>" + "<item jid='friend@domain' name='MyFriend' /></query></iq>");
+		final List<RosterItemsChangedEvent> events = new ArrayList<RosterItemsChangedEvent>();
+		roster.addRosterItemsChangedHandler(new RosterItemsChangedHandler() {
+			@Override
+			public void onRosterItemsChanged(final RosterItemsChangedEvent event) {
+				events.add(event);
+			}
+		});
+		session.receives("<presence from='friend@domain/res' />");
+		session.receives("<presence type='unavailable' from='friend@domain/res' />");
+		assertEquals(2, events.size());
+		assertEquals(1, events.get(1).getRosterItems().size());
+	}
+
 	@Test
 	public void shouldHandleInitialPresence() {
 		session.receives("<iq type='set'><query xmlns='jabber:iq:roster'>" + "<item jid='friend@domain' name='MyFriend' /></query></iq>");
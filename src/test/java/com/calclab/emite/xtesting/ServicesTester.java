@@ -27,6 +27,8 @@ import com.calclab.emite.core.client.services.ConnectorCallback;
 import com.calclab.emite.core.client.services.ConnectorException;
 import com.calclab.emite.core.client.services.ScheduledAction;
 import com.calclab.emite.core.client.services.Services;
+import com.calclab.emite.core.client.services.TimerHandle;
+import com.calclab.emite.core.client.services.TimerQueue;
 import com.calclab.emite.xtesting.services.TigaseXMLService;
 
 /**
@@ -51,14 +53,18 @@ public class ServicesTester implements Services {
 
 	public static final TigaseXMLService xmler = TigaseXMLService.instance;
 	private final ArrayList<Request> requests;
+	private final TimerQueue scheduled;
+	private long currentTime;
+	private ConnectorException sendFailure;
 
 	public ServicesTester() {
 		requests = new ArrayList<Request>();
+		scheduled = new TimerQueue();
 	}
 
 	@Override
 	public long getCurrentTime() {
-		return 0;
+		return currentTime;
 	}
 
 	public IPacket getSentPacket(final int index) {
@@ -70,16 +76,56 @@ public class ServicesTester implements Services {
 		return requests.get(requests.size() - 1);
 	}
 
+	/**
+	 * @return the number of scheduled actions not run or canceled yet
+	 */
+	public int getScheduledCount() {
+		return scheduled.size();
+	}
+
+	public Request getRequest(final int index) {
+		return requests.get(index);
+	}
+
 	public int requestSentCount() {
 		return requests.size();
 	}
 
+	/**
+	 * Run (once, in order) the actions scheduled until now and not canceled
+	 */
+	public void runScheduled() {
+		scheduled.runDue(0);
+	}
+
+	/**
+	 * @param sendFailure
+	 *            the exception thrown by the sends (like a full connector
+	 *            queue), or null to send again
+	 */
+	public void setSendFailure(final ConnectorException sendFailure) {
+		this.sendFailure = sendFailure;
+	}
+
+	/**
+	 * @param currentTime
+	 *            the value returned by getCurrentTime (0 by default)
+	 */
+	public void setCurrentTime(final long currentTime) {
+		this.currentTime = currentTime;
+	}
+
 	@Override
-	public void schedule(final int msecs, final ScheduledAction action) {
+	public TimerHandle schedule(final int msecs, final ScheduledAction action) {
+		// the time doesn't pass in tests: keep the scheduling order
+		return scheduled.add(0, action);
 	}
 
 	@Override
 	public void send(final String httpBase, final String request, final ConnectorCallback listener) throws ConnectorException {
+		if (sendFailure != null) {
+			throw sendFailure;
+		}
 		requests.add(new Request(httpBase, request, listener, -1));
 	}
 
@@ -95,6 +141,9 @@ public class ServicesTester implements Services {
 
 	@Override
 	public void send(String httpBase, String request, ConnectorCallback listener, int timeoutMillis) throws ConnectorException {
+		if (sendFailure != null) {
+			throw sendFailure;
+		}
 		requests.add(new Request(httpBase, request, listener, timeoutMillis));
 	}
 
@@ -0,0 +1,73 @@
+/*
+ * ((e)) emite: A pure Google Web Toolkit XMPP library
+ * Copyright (c) 2008-2011 The Emite development team
+ * 
+ * This file is part of Emite.
+ *
+ * Emite is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * Emite is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Emite.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.calclab.emite.xtesting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.calclab.emite.core.client.services.ConnectorException;
+import com.calclab.emite.core.client.services.WebSocketCallback;
+import com.calclab.emite.core.client.services.WebSocketChannel;
+import com.calclab.emite.core.client.services.WebSocketConnector;
+
+/**
+ * An in-process WebSocketConnector: records the opened socket and the sent
+ * frames. Use the callback to simulate the server.
+ */
+public class WebSocketConnectorTester implements WebSocketConnector {
+
+	public String url;
+	public String protocol;
+	public WebSocketCallback callback;
+	public boolean closed;
+	public final List<String> frames = new ArrayList<String>();
+	private boolean failing;
+
+	public String getLastFrame() {
+		return frames.isEmpty() ? null : frames.get(frames.size() - 1);
+	}
+
+	@Override
+	public WebSocketChannel open(final String url, final String protocol, final WebSocketCallback callback) throws ConnectorException {
+		if (failing) {
+			throw new ConnectorException("WebSocket not supported");
+		}
+		this.url = url;
+		this.protocol = protocol;
+		this.callback = callback;
+		closed = false;
+		return new WebSocketChannel() {
+			@Override
+			public void close() {
+				closed = true;
+			}
+
+			@Override
+			public void send(final String frame) {
+				frames.add(frame);
+			}
+		};
+	}
+
+	public void setFailing(final boolean failing) {
+		this.failing = failing;
+	}
+}
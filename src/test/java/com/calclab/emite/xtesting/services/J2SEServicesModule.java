@@ -20,20 +20,25 @@
 
 package com.calclab.emite.xtesting.services;
 
+import java.util.concurrent.Executors;
+
 import com.calclab.emite.core.client.packet.IPacket;
 import com.calclab.emite.core.client.services.ConnectorCallback;
 import com.calclab.emite.core.client.services.ConnectorException;
 import com.calclab.emite.core.client.services.ScheduledAction;
 import com.calclab.emite.core.client.services.Services;
+import com.calclab.emite.core.client.services.TimerHandle;
+import com.calclab.emite.core.jvm.JVMConnector;
+import com.calclab.emite.core.jvm.SerialExecutor;
 
 public class J2SEServicesModule implements Services {
-	private final HttpConnector connector;
+	private final JVMConnector connector;
 
 	private final ThreadScheduler scheduler;
 	private final TigaseXMLService xmler;
 
 	public J2SEServicesModule() {
-		connector = new HttpConnector();
+		connector = new JVMConnector(2, 16, new SerialExecutor(Executors.newCachedThreadPool()));
 		scheduler = new ThreadScheduler();
 		xmler = new TigaseXMLService();
 	}
@@ -51,13 +56,13 @@ public class J2SEServicesModule implements Services {
 	 */
 
 	@Override
-	public void schedule(final int msecs, final ScheduledAction action) {
-		scheduler.schedule(msecs, action);
+	public TimerHandle schedule(final int msecs, final ScheduledAction action) {
+		return scheduler.schedule(msecs, action);
 	}
 
 	@Override
 	public void send(final String httpBase, final String xml, final ConnectorCallback listener) throws ConnectorException {
-		connector.send(httpBase, xml, listener);
+		connector.send(httpBase, xml, listener, Services.DEFAULT_TIMEOUT_MILLIS);
 	}
 
 	@Override
@@ -72,7 +77,7 @@ public class J2SEServicesModule implements Services {
 
 	@Override
 	public void send(String httpBase, String request, ConnectorCallback listener, int timeoutMillis) throws ConnectorException {
-		send(httpBase, request, listener);
+		connector.send(httpBase, request, listener, timeoutMillis);
 	}
 
 }
@@ -20,27 +20,34 @@
 
 package com.calclab.emite.xtesting.services;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 import com.calclab.emite.core.client.services.ScheduledAction;
+import com.calclab.emite.core.client.services.TimerHandle;
+import com.calclab.emite.core.jvm.HashedWheelTimer;
 
 public class ThreadScheduler {
 
+	private final HashedWheelTimer timer;
+
+	public ThreadScheduler() {
+		final ThreadFactory daemons = new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "scheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		timer = new HashedWheelTimer(10, 512, Executors.newSingleThreadExecutor(daemons), daemons);
+	}
+
 	public long getCurrentTime() {
 		return System.currentTimeMillis();
 	}
 
-	public void schedule(final int msecs, final ScheduledAction action) {
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				synchronized (this) {
-					try {
-						Thread.sleep(msecs);
-						action.run();
-					} catch (final InterruptedException e) {
-						throw new RuntimeException(e.toString());
-					}
-				}
-			}
-		}).start();
+	public TimerHandle schedule(final int msecs, final ScheduledAction action) {
+		return timer.schedule(msecs, action);
 	}
 }